@@ -0,0 +1,198 @@
+package org.paic.insertdata.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.AppProperties;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Feedback controller that sizes the batches and the writer concurrency of a {@link CdrPipeline}.
+ * <p>
+ * Every batch reports how long it took to be fetched and decoded and how long it took to be written. The write latency
+ * is smoothed and compared with {@code configuration.target-latency-millis} at most once per target period:
+ * <ul>
+ *     <li>Slower than the target: the batch size is scaled down towards the target, and once it reaches
+ *     {@code configuration.min-batch-size} one writer slot is removed.</li>
+ *     <li>Faster than the target while batches come full (there is backlog in Redis): one writer slot is added up to
+ *     {@code configuration.max-in-flight-batches}, then the batch size grows up to {@code configuration.max-batch-size}.
+ *     The writer slots are bounded by {@code configuration.cdr-workers} too, as the workers could not use more, so the
+ *     batch size grows once every worker writes.</li>
+ *     <li>A failed write removes half of the writer slots, so a struggling database gets fewer concurrent batches.</li>
+ * </ul>
+ * When {@code configuration.adaptive-batching} is disabled the bounds are the configured batch size and in-flight
+ * batches, so nothing is adjusted.
+ */
+@Slf4j
+public class AdaptiveBatchController {
+    private static final double EWMA_WEIGHT = 0.3;
+    private static final double TOLERANCE = 0.2;
+    private static final double GROWTH_FACTOR = 1.25;
+    private static final double MAX_SHRINK_FACTOR = 0.5;
+
+    private final String mode;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int maxConcurrency;
+    private final long targetLatencyNanos;
+    private final LongSupplier nanoClock;
+    private final WriterSlots writerSlots;
+
+    private volatile int batchSize;
+    private int concurrency;
+    private double writeLatencyNanos = -1;
+    private double takeLatencyNanos = -1;
+    private long lastAdjustmentNanos;
+
+    public AdaptiveBatchController(String mode, AppProperties appProperties) {
+        this(mode, appProperties, System::nanoTime);
+    }
+
+    AdaptiveBatchController(String mode, AppProperties appProperties, LongSupplier nanoClock) {
+        int configuredBatchSize = Math.max(1, appProperties.getCdrBatchSize());
+        int configuredConcurrency = Math.max(1, appProperties.getMaxInFlightBatches());
+        boolean adaptive = appProperties.isAdaptiveBatching();
+
+        this.mode = mode;
+        this.minBatchSize = adaptive ? Math.clamp(appProperties.getMinBatchSize(), 1, configuredBatchSize) : configuredBatchSize;
+        this.maxBatchSize = adaptive ? Math.max(configuredBatchSize, appProperties.getMaxBatchSize()) : configuredBatchSize;
+        this.maxConcurrency = adaptive ? Math.min(configuredConcurrency, Math.max(1, appProperties.getCdrWorkers())) : configuredConcurrency;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, appProperties.getTargetLatencyMillis()));
+        this.nanoClock = nanoClock;
+        this.writerSlots = new WriterSlots(maxConcurrency);
+        this.batchSize = configuredBatchSize;
+        this.concurrency = adaptive ? maxConcurrency : -1;
+        this.lastAdjustmentNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * @return the number of records the next fetch should take
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the current number of writer slots
+     */
+    public synchronized int concurrency() {
+        return concurrency < 0 ? maxConcurrency : concurrency;
+    }
+
+    /**
+     * Waits up to the given time for a writer slot.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the time unit of the timeout
+     * @return true when a slot was acquired and must be released with {@link #releaseWriterSlot()}
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean tryAcquireWriterSlot(long timeout, TimeUnit unit) throws InterruptedException {
+        return writerSlots.tryAcquire(timeout, unit);
+    }
+
+    public void releaseWriterSlot() {
+        writerSlots.release();
+    }
+
+    /**
+     * Records the latencies of a written batch and adjusts the batch size and concurrency when due.
+     *
+     * @param records    the number of records of the batch
+     * @param requested  the batch size the batch was fetched with
+     * @param takeNanos  the time taken to fetch and decode the batch
+     * @param writeNanos the time taken to write the batch
+     */
+    public synchronized void onWritten(int records, int requested, long takeNanos, long writeNanos) {
+        writeLatencyNanos = smooth(writeLatencyNanos, writeNanos);
+        takeLatencyNanos = smooth(takeLatencyNanos, takeNanos);
+        if (concurrency < 0) {
+            return;
+        }
+
+        long now = nanoClock.getAsLong();
+        if (now - lastAdjustmentNanos < targetLatencyNanos) {
+            return;
+        }
+
+        if (writeLatencyNanos > targetLatencyNanos * (1 + TOLERANCE)) {
+            this.slowDown();
+        } else if (writeLatencyNanos < targetLatencyNanos * (1 - TOLERANCE) && records >= requested) {
+            this.speedUp();
+        } else {
+            return;
+        }
+        lastAdjustmentNanos = now;
+    }
+
+    /**
+     * Records a failed write, halving the writer slots.
+     */
+    public synchronized void onFailed() {
+        if (concurrency < 0 || concurrency == 1) {
+            return;
+        }
+
+        this.setConcurrency(Math.max(1, concurrency / 2));
+        lastAdjustmentNanos = nanoClock.getAsLong();
+        this.logAdjustment("write failed");
+    }
+
+    private void slowDown() {
+        if (batchSize > minBatchSize) {
+            double factor = Math.max(MAX_SHRINK_FACTOR, targetLatencyNanos / writeLatencyNanos);
+            batchSize = Math.max(minBatchSize, (int) (batchSize * factor));
+        } else if (concurrency > 1) {
+            this.setConcurrency(concurrency - 1);
+        } else {
+            return;
+        }
+        this.logAdjustment("above target latency");
+    }
+
+    private void speedUp() {
+        if (concurrency < maxConcurrency) {
+            this.setConcurrency(concurrency + 1);
+        } else if (batchSize < maxBatchSize) {
+            batchSize = (int) Math.min(maxBatchSize, Math.ceil(batchSize * GROWTH_FACTOR));
+        } else {
+            return;
+        }
+        this.logAdjustment("below target latency");
+    }
+
+    private void setConcurrency(int newConcurrency) {
+        if (newConcurrency > concurrency) {
+            writerSlots.release(newConcurrency - concurrency);
+        } else {
+            writerSlots.reducePermits(concurrency - newConcurrency);
+        }
+        concurrency = newConcurrency;
+    }
+
+    private void logAdjustment(String reason) {
+        log.info("{} mode. {}, batchSize: {}, concurrency: {}, writeLatency: {} ms, takeLatency: {} ms",
+                mode, reason, batchSize, concurrency,
+                TimeUnit.NANOSECONDS.toMillis((long) writeLatencyNanos), TimeUnit.NANOSECONDS.toMillis((long) takeLatencyNanos));
+    }
+
+    private static double smooth(double average, long sample) {
+        return average < 0 ? sample : average + EWMA_WEIGHT * (sample - average);
+    }
+
+    /**
+     * Semaphore whose permits can be removed while they are held. Removed permits go negative until the batches
+     * holding them are released, so the new limit applies as soon as the extra batches finish.
+     */
+    private static final class WriterSlots extends Semaphore {
+        WriterSlots(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
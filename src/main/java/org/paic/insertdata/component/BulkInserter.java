@@ -1,179 +1,174 @@
 package org.paic.insertdata.component;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
 import com.paicbd.smsc.dto.UtilsRecords;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.paic.insertdata.config.ConditionalOnSink;
+import org.paic.insertdata.util.AppProperties;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Types;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.util.Arrays;
 import java.util.List;
 
 /**
  * The BulkInserter class is responsible for inserting data in bulk to the database using the provided JdbcTemplate.
- * It provides methods to save a bulk list of Records.SubmitSm and Records.DeliverSm objects asynchronously.
+ * It provides methods to save a bulk list of Cdr records.
+ * <p>
+ * Three write strategies are available, selected with {@code jdbc.write-strategy}:
+ * <ul>
+ *     <li>{@code batch}: binds every row into a JDBC batch of INSERT statements (default).</li>
+ *     <li>{@code copy}: streams every batch into the cdr table with {@code COPY ... FROM STDIN}.</li>
+ *     <li>{@code staging}: streams every batch with COPY into the UNLOGGED cdr_staging table, from which the
+ *     {@link CdrStagingMerger} moves the rows into the cdr table in the background.</li>
+ * </ul>
+ * All strategies read the record values through the precompiled {@link CdrColumnBinder}.
  */
 @Slf4j
 @Repository
-@ConditionalOnProperty(name = "application.mode", havingValue = "database")
+@ConditionalOnSink("database")
 public class BulkInserter {
+    public static final String COPY_STRATEGY = "copy";
+    public static final String BATCH_STRATEGY = "batch";
+    public static final String STAGING_STRATEGY = "staging";
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    /**
+     * SQLSTATE invalid_text_representation, of the data exception class.
+     */
+    private static final String INVALID_DATA_STATE = "22P02";
+
     private final JdbcTemplate jdbcTemplate;
-    private final Field[] cdrCachedFiles;
-    private final StringBuilder cdrSqlQuery;
+    private final CdrColumnBinder cdrColumnBinder;
+    private final String cdrSqlQuery;
+    private final String cdrCopyQuery;
+    private final String writeStrategy;
+    private final boolean copyStrategy;
 
-    public BulkInserter(JdbcTemplate jdbcTemplate) {
+    public BulkInserter(JdbcTemplate jdbcTemplate, AppProperties appProperties) {
         this.jdbcTemplate = jdbcTemplate;
-        this.cdrCachedFiles = getAnnotatedFields(UtilsRecords.Cdr.class);
-        this.cdrSqlQuery = this.loadSqlQuery(new StringBuilder("INSERT INTO cdr ("), cdrCachedFiles);
+        this.cdrColumnBinder = CdrColumnBinder.forCdr();
+        this.cdrSqlQuery = this.loadSqlQuery(new StringBuilder("INSERT INTO cdr ("), cdrColumnBinder.columnNames());
+        this.writeStrategy = writeStrategy(appProperties.getWriteStrategy());
+        this.copyStrategy = !BATCH_STRATEGY.equals(writeStrategy);
+        this.cdrCopyQuery = this.loadCopyQuery(STAGING_STRATEGY.equals(writeStrategy) ? "cdr_staging" : "cdr",
+                cdrColumnBinder.columnNames());
+        log.info("BulkInserter initialized with write strategy: {}", writeStrategy);
     }
 
     /**
-     * Saves a bulk list of Cdr records asynchronously.
+     * Saves a bulk list of Cdr records using the configured write strategy.
+     * The call returns once the batch is committed, so the caller can acknowledge or retry it.
      *
      * @param list the list of Cdr records to save
      */
-    @Async
     @Transactional
     public void saveCdrBulk(List<UtilsRecords.Cdr> list) {
-        jdbcTemplate.batchUpdate(cdrSqlQuery.toString(), list, list.size(),
-                (ps, cdr) -> this.processRecordFields(ps, cdr, cdrCachedFiles)
-        );
+        if (copyStrategy) {
+            this.copyCdrBulk(list);
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(cdrSqlQuery, list, list.size(), this::processRecordFields);
     }
 
     /**
-     * Appends the fields annotated with @JsonProperty to the given SQL query.
+     * Streams a bulk list of Cdr records into the cdr table, or the cdr_staging table, with COPY FROM STDIN through the pgjdbc CopyManager.
+     * Every record is encoded as a row in the PostgreSQL text format, applying the same conversions as the batch strategy.
      *
-     * @param sql               the SQL query to be modified
-     * @param objectCachedFields the fields to check for JSON property annotation
-     * @return the modified SQL query with the fields appended
+     * @param list the list of Cdr records to copy
+     * @return the number of rows copied
      */
-    private StringBuilder loadSqlQuery(StringBuilder sql, Field[] objectCachedFields) {
-        for (Field field : objectCachedFields) {
-            JsonProperty annotation = field.getAnnotation(JsonProperty.class);
-            if (annotation != null) {
-                sql.append(annotation.value()).append(", ");
+    private Long copyCdrBulk(List<UtilsRecords.Cdr> list) {
+        return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            try (PGCopyOutputStream out = new PGCopyOutputStream(pgConnection, cdrCopyQuery, COPY_BUFFER_SIZE)) {
+                for (UtilsRecords.Cdr cdr : list) {
+                    try {
+                        cdrColumnBinder.writeCopyRow(out, cdr);
+                    } catch (RuntimeException e) {
+                        throw invalidRecord(cdr, e);
+                    }
+                }
+                return out.endCopy();
+            } catch (IOException e) {
+                throw new SQLException("Error while streaming cdr rows with COPY", e);
             }
-        }
-        sql.deleteCharAt(sql.length() - 2); // remove last comma
+        });
+    }
+
+    /**
+     * Appends the given columns to the given SQL query.
+     *
+     * @param sql     the SQL query to be modified
+     * @param columns the columns of the cdr table, in binding order
+     * @return the SQL query with the columns and their placeholders appended
+     */
+    private String loadSqlQuery(StringBuilder sql, List<String> columns) {
+        sql.append(String.join(", ", columns));
         sql.append(") VALUES ("); // add VALUES keyword
-        sql.append("?, ".repeat(objectCachedFields.length)); // add ? for each field
-        sql.deleteCharAt(sql.length() - 2); // remove last comma
+        sql.append("?, ".repeat(columns.size())); // add ? for each column
+        sql.setLength(sql.length() - 2); // remove last comma
         sql.append(")"); // add closing parenthesis
 
-        return sql;
+        return sql.toString();
     }
 
     /**
-     * Returns an array of fields in the given class that are annotated with @JsonProperty.
+     * Builds the COPY statement for the given columns, in the same order as the INSERT query.
      *
-     * @param clazz the class to retrieve the annotated fields from
-     * @param <T> the type of the class
-     * @return an array of fields annotated with @JsonProperty in the given class
+     * @param table   the table the rows are copied into, cdr or cdr_staging
+     * @param columns the columns of the cdr table, in binding order
+     * @return the COPY FROM STDIN statement
      */
-    private <T> Field[] getAnnotatedFields(Class<T> clazz) {
-        return Arrays.stream(clazz.getDeclaredFields())
-                .filter(field -> field.getAnnotation(JsonProperty.class) != null)
-                .toArray(Field[]::new);
+    private String loadCopyQuery(String table, List<String> columns) {
+        return "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN";
     }
 
     /**
-     * Processes the record fields and sets their values into the given PreparedStatement.
-     * Each field value is obtained from the given pdu object and set into the PreparedStatement using the setValueToPreparedStatement method.
+     * Resolves the configured write strategy, {@code batch} when it is not set.
      *
-     * @param ps            the PreparedStatement to set the field values into
-     * @param pdu           the object containing the field values
-     * @param cachedFiles   the array of Field objects representing the record fields
+     * @throws IllegalArgumentException when the strategy is unknown, so a typo fails the startup
      */
-    private void processRecordFields(PreparedStatement ps, Object pdu, Field[] cachedFiles) {
-        try {
-            int index = 1;
-            for (Field field : cachedFiles) {
-                this.setValueToPreparedStatement(pdu, ps, field, index);
-                index++;
+    private static String writeStrategy(String name) {
+        if (name == null || name.isBlank()) {
+            return BATCH_STRATEGY;
+        }
+        for (String strategy : List.of(COPY_STRATEGY, BATCH_STRATEGY, STAGING_STRATEGY)) {
+            if (strategy.equalsIgnoreCase(name.strip())) {
+                return strategy;
             }
-        } catch (Exception e) {
-            log.error("Error while processing record fields", e);
         }
+        throw new IllegalArgumentException("Unknown jdbc.write-strategy '" + name + "', expected one of "
+                + COPY_STRATEGY + ", " + BATCH_STRATEGY + " or " + STAGING_STRATEGY);
     }
 
     /**
-     * Sets the value of a field to a PreparedStatement based on the provided object, field, and index.
+     * Processes the record fields and sets their values into the given PreparedStatement.
+     * A record whose values cannot be converted fails the batch, instead of inserting a partial row.
      *
-     * @param object The object from which to retrieve the field value
-     * @param ps The PreparedStatement to set the field value on
-     * @param field The Field object representing the field to set
-     * @param index The index of the parameter in the prepared statement
-     * @throws SQLException If an error occurs while setting the value on the PreparedStatement
+     * @param ps  the PreparedStatement to set the field values into
+     * @param cdr the record containing the field values
+     * @throws SQLException if a value cannot be converted or set
      */
-    private void setValueToPreparedStatement(Object object, PreparedStatement ps, Field field, int index) throws SQLException {
+    private void processRecordFields(PreparedStatement ps, UtilsRecords.Cdr cdr) throws SQLException {
         try {
-            if (!(object instanceof UtilsRecords.Cdr)) {
-                throw new IllegalArgumentException("The object must be an instance of Cdr");
-            }
-
-            Method getter = object.getClass().getMethod(field.getName());
-            Object value = getter.invoke(object);
-            log.debug("Setting value {} to PreparedStatement at index {}", value, index);
-
-            switch (field.getName()) {
-                case "recordDate","submitDate","deliveryDate" -> setNotNullValue(ps, index, value, LocalDateTime.class);
-                case "dialogDuration","processingTime","remoteDialogId","localDialogId" -> setNullValueOrDefault(ps, index, value, Long.class);
-                case "localSpc","localSsn","remoteSpc","remoteSsn","registeredDelivery","totalSegment","segmentSequence","retryNumber","routingId",
-                     "dataCoding","addrSrcTon","addrSrcNpi","addrDstTon","addrDstNpi" -> setNullValueOrDefault(ps, index, value, int.class);
-                default -> setNullValueOrDefault(ps, index, value, String.class);
-            }
-        } catch (IllegalAccessException | NoSuchMethodException |
-                 InvocationTargetException e) {
-            log.error("Error setting the value to PreparedStatement", e);
-        }
-    }
-
-    private void setNullValueOrDefault(PreparedStatement ps, int index, Object value, Class<?> fieldType) throws SQLException {
-        if (value != null && !value.equals("")) {
-            setNotNullValue(ps, index, value, fieldType);
-        } else {
-            setNullValue(ps, index, fieldType);
-        }
-    }
-
-    private void setNotNullValue(PreparedStatement ps, int index, Object value, Class<?> fieldType) throws SQLException {
-        if (fieldType == Long.class || fieldType == long.class) {
-            ps.setLong(index, Long.parseLong((String) value));
-        } else if (fieldType == Integer.class || fieldType == int.class) {
-            ps.setInt(index, Integer.parseInt((String) value));
-        } else if (fieldType == String.class) {
-            ps.setString(index, (String) value);
-        } else if (fieldType == LocalDateTime.class) {
-            LocalDateTime time = Instant.ofEpochMilli(Long.parseLong((String) value)).atZone(ZoneId.systemDefault()).toLocalDateTime();
-            ps.setObject(index, time);
-        } else {
-            ps.setObject(index, value);
+            cdrColumnBinder.bind(ps, cdr);
+        } catch (RuntimeException e) {
+            throw invalidRecord(cdr, e);
         }
     }
 
-    private void setNullValue(PreparedStatement ps, int index, Class<?> fieldType) throws SQLException {
-        int sqlType;
-        if (fieldType == Long.class || fieldType == long.class) {
-            sqlType = Types.BIGINT;
-        } else if (fieldType == Integer.class || fieldType == int.class) {
-            sqlType = Types.INTEGER;
-        } else if (fieldType == String.class) {
-            sqlType = Types.VARCHAR;
-        } else {
-            sqlType = Types.OTHER;
-        }
-        ps.setNull(index, sqlType);
+    /**
+     * Wraps a conversion error of a record with the SQL state of invalid data, so it is translated into a
+     * DataIntegrityViolationException as the errors reported by the database for the values it rejects.
+     */
+    private static SQLException invalidRecord(UtilsRecords.Cdr cdr, RuntimeException e) {
+        return new SQLException("Invalid value in cdr record " + cdr.messageId() + ": " + e.getMessage(), INVALID_DATA_STATE, e);
     }
 }
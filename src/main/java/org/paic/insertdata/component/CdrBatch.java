@@ -0,0 +1,32 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+
+import java.util.List;
+
+/**
+ * A batch of CDR records taken from Redis by one worker.
+ *
+ * @param listName        the Redis list or stream the records were taken from
+ * @param processingLists the lists holding the records until the batch is acknowledged, empty when records are popped.
+ *                        A batch taken from several shards of the same node has one processing list per shard, and a
+ *                        batch read from a stream has the consumer whose pending entries hold the records
+ * @param entryIds        the stream entry ids to acknowledge, empty for batches taken from lists
+ * @param records         the decoded records
+ */
+public record CdrBatch(String listName, List<String> processingLists, List<String> entryIds,
+                       List<UtilsRecords.Cdr> records) {
+
+    public CdrBatch(String listName, List<String> processingLists, List<UtilsRecords.Cdr> records) {
+        this(listName, processingLists, List.of(), records);
+    }
+
+    /**
+     * Returns true when the records are kept in Redis until the batch is acknowledged.
+     *
+     * @return true for batches taken in reliable consumption mode or from a stream
+     */
+    public boolean isReliable() {
+        return !processingLists.isEmpty();
+    }
+}
@@ -0,0 +1,29 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+
+import java.util.List;
+
+/**
+ * Writes the records of a batch to their destination.
+ */
+@FunctionalInterface
+public interface CdrBatchWriter {
+
+    /**
+     * Writes the given records.
+     *
+     * @param records the records to write
+     * @return true when the records were written and the batch can be acknowledged
+     */
+    boolean write(List<UtilsRecords.Cdr> records);
+
+    /**
+     * Returns whether the writer can take a batch now. The pipeline does not take records from Redis while it is false.
+     *
+     * @return false while the destination is known to be unavailable
+     */
+    default boolean isReady() {
+        return true;
+    }
+}
@@ -0,0 +1,269 @@
+package org.paic.insertdata.component;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.paicbd.smsc.dto.UtilsRecords;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Precompiled binder between the {@link UtilsRecords.Cdr} accessors and the columns of the cdr table.
+ * <p>
+ * The columns are resolved once from the fields annotated with @JsonProperty, and every accessor is turned into a
+ * {@link Function} with {@link LambdaMetafactory}, so binding a row does not use reflection nor look up the column type
+ * by name. The values are bound exactly as the original reflective implementation did:
+ * <ul>
+ *     <li>recordDate, submitDate and deliveryDate are always converted from epoch millis to a LocalDateTime, a null or
+ *     empty date fails the row, in the COPY format too.</li>
+ *     <li>BIGINT and INT columns are parsed, or bound as NULL when the value is null or empty.</li>
+ *     <li>VARCHAR columns are bound as they are, or as NULL when the value is null or empty.</li>
+ * </ul>
+ */
+public final class CdrColumnBinder {
+    private static final byte[] COPY_NULL = "\\N".getBytes(StandardCharsets.US_ASCII);
+
+    private final Column[] columns;
+
+    private CdrColumnBinder(Column[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Creates the binder for the fields of {@link UtilsRecords.Cdr} annotated with @JsonProperty, in declaration order.
+     *
+     * @return the binder for the Cdr record
+     */
+    public static CdrColumnBinder forCdr() {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Column[] columns = Arrays.stream(UtilsRecords.Cdr.class.getDeclaredFields())
+                .filter(field -> field.getAnnotation(JsonProperty.class) != null)
+                .map(field -> new Column(
+                        field.getAnnotation(JsonProperty.class).value(),
+                        createAccessor(lookup, field),
+                        ColumnType.of(field.getName())))
+                .toArray(Column[]::new);
+        return new CdrColumnBinder(columns);
+    }
+
+    /**
+     * Returns the names of the cdr table columns, in binding order.
+     *
+     * @return the column names
+     */
+    public List<String> columnNames() {
+        return Arrays.stream(columns).map(Column::name).toList();
+    }
+
+    /**
+     * Returns the number of bound columns.
+     *
+     * @return the number of columns
+     */
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the SQL type of the column at the given index.
+     *
+     * @param index the column index, in binding order
+     * @return the column type
+     */
+    ColumnType type(int index) {
+        return columns[index].type();
+    }
+
+    /**
+     * Returns the value of the column at the given index for the given record, as held by the record.
+     *
+     * @param index the column index, in binding order
+     * @param cdr   the record containing the values
+     * @return the raw value
+     */
+    String value(int index, UtilsRecords.Cdr cdr) {
+        return columns[index].accessor().apply(cdr);
+    }
+
+    /**
+     * Binds every column of the given record to the PreparedStatement, starting at parameter index 1.
+     *
+     * @param ps  the PreparedStatement to set the values into
+     * @param cdr the record containing the values
+     * @throws SQLException if a value cannot be set on the PreparedStatement
+     */
+    public void bind(PreparedStatement ps, UtilsRecords.Cdr cdr) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            Column column = columns[i];
+            column.type().bind(ps, i + 1, column.accessor().apply(cdr));
+        }
+    }
+
+    /**
+     * Encodes the given record as one tab separated row of the PostgreSQL COPY text format.
+     *
+     * @param out the COPY stream
+     * @param cdr the record to encode
+     * @throws IOException if the row cannot be written to the stream
+     */
+    public void writeCopyRow(OutputStream out, UtilsRecords.Cdr cdr) throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.write('\t');
+            }
+            Column column = columns[i];
+            String value = column.accessor().apply(cdr);
+            if ((value == null || value.isEmpty()) && column.type() != ColumnType.TIMESTAMP) {
+                out.write(COPY_NULL);
+            } else {
+                column.type().writeCopyValue(out, value);
+            }
+        }
+        out.write('\n');
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<UtilsRecords.Cdr, String> createAccessor(MethodHandles.Lookup lookup, Field field) {
+        try {
+            MethodHandle getter = lookup.findVirtual(UtilsRecords.Cdr.class, field.getName(), MethodType.methodType(String.class));
+            CallSite site = LambdaMetafactory.metafactory(
+                    lookup,
+                    "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    getter,
+                    MethodType.methodType(String.class, UtilsRecords.Cdr.class));
+            return (Function<UtilsRecords.Cdr, String>) site.getTarget().invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot create the accessor for field " + field.getName(), e);
+        }
+    }
+
+    private static void writeAscii(OutputStream out, String value) throws IOException {
+        out.write(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes a text value escaping the characters that have a special meaning in the COPY text format.
+     */
+    private static void writeEscaped(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            switch (b) {
+                case '\\' -> out.write(new byte[]{'\\', '\\'});
+                case '\t' -> out.write(new byte[]{'\\', 't'});
+                case '\n' -> out.write(new byte[]{'\\', 'n'});
+                case '\r' -> out.write(new byte[]{'\\', 'r'});
+                default -> out.write(b);
+            }
+        }
+    }
+
+    private record Column(String name, Function<UtilsRecords.Cdr, String> accessor, ColumnType type) {
+    }
+
+    /**
+     * SQL type of a cdr column and how its String value is bound or encoded.
+     */
+    enum ColumnType {
+        TIMESTAMP {
+            @Override
+            void bind(PreparedStatement ps, int index, String value) throws SQLException {
+                ps.setObject(index, toLocalDateTime(value));
+            }
+
+            @Override
+            void writeCopyValue(OutputStream out, String value) throws IOException {
+                writeAscii(out, toLocalDateTime(value).toString());
+            }
+        },
+        BIGINT {
+            @Override
+            void bind(PreparedStatement ps, int index, String value) throws SQLException {
+                if (isNullOrEmpty(value)) {
+                    ps.setNull(index, Types.BIGINT);
+                } else {
+                    ps.setLong(index, Long.parseLong(value));
+                }
+            }
+
+            @Override
+            void writeCopyValue(OutputStream out, String value) throws IOException {
+                writeAscii(out, Long.toString(Long.parseLong(value)));
+            }
+        },
+        INTEGER {
+            @Override
+            void bind(PreparedStatement ps, int index, String value) throws SQLException {
+                if (isNullOrEmpty(value)) {
+                    ps.setNull(index, Types.INTEGER);
+                } else {
+                    ps.setInt(index, Integer.parseInt(value));
+                }
+            }
+
+            @Override
+            void writeCopyValue(OutputStream out, String value) throws IOException {
+                writeAscii(out, Integer.toString(Integer.parseInt(value)));
+            }
+        },
+        VARCHAR {
+            @Override
+            void bind(PreparedStatement ps, int index, String value) throws SQLException {
+                if (isNullOrEmpty(value)) {
+                    ps.setNull(index, Types.VARCHAR);
+                } else {
+                    ps.setString(index, value);
+                }
+            }
+
+            @Override
+            void writeCopyValue(OutputStream out, String value) throws IOException {
+                writeEscaped(out, value);
+            }
+        };
+
+        /**
+         * Binds a value to the PreparedStatement at the given parameter index.
+         */
+        abstract void bind(PreparedStatement ps, int index, String value) throws SQLException;
+
+        /**
+         * Writes a value in the COPY text format, non-empty unless the column is a TIMESTAMP.
+         */
+        abstract void writeCopyValue(OutputStream out, String value) throws IOException;
+
+        static ColumnType of(String fieldName) {
+            return switch (fieldName) {
+                case "recordDate","submitDate","deliveryDate" -> TIMESTAMP;
+                case "dialogDuration","processingTime","remoteDialogId","localDialogId" -> BIGINT;
+                case "localSpc","localSsn","remoteSpc","remoteSsn","registeredDelivery","totalSegment","segmentSequence","retryNumber","routingId",
+                     "dataCoding","addrSrcTon","addrSrcNpi","addrDstTon","addrDstNpi" -> INTEGER;
+                default -> VARCHAR;
+            };
+        }
+
+        private static boolean isNullOrEmpty(String value) {
+            return value == null || value.isEmpty();
+        }
+
+        private static LocalDateTime toLocalDateTime(String value) {
+            return Instant.ofEpochMilli(Long.parseLong(value)).atZone(ZoneId.systemDefault()).toLocalDateTime();
+        }
+    }
+}
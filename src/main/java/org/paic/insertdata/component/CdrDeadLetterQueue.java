@@ -0,0 +1,90 @@
+package org.paic.insertdata.component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.time.Clock;
+import java.util.List;
+
+/**
+ * Keeps the CDR records a sink rejected, in the Redis list {@code configuration.dead-letter-list}.
+ * <p>
+ * Every entry is a JSON object with the sink, the time and the reason of the failure, and the record itself in the
+ * {@code cdr} field, in the same format as the CDR list, so it can be fixed and pushed back once the reason is solved.
+ */
+@Slf4j
+@Component
+public class CdrDeadLetterQueue {
+    private static final ObjectWriter DEAD_LETTER_WRITER = new ObjectMapper().writerFor(DeadLetter.class);
+
+    private final JedisCluster jedisCluster;
+    private final String listName;
+    private final Clock clock;
+
+    public CdrDeadLetterQueue(JedisCluster jedisCluster, AppProperties appProperties) {
+        this(jedisCluster, appProperties, Clock.systemUTC());
+    }
+
+    CdrDeadLetterQueue(JedisCluster jedisCluster, AppProperties appProperties, Clock clock) {
+        this.jedisCluster = jedisCluster;
+        this.listName = appProperties.getDeadLetterListName();
+        this.clock = clock;
+    }
+
+    /**
+     * Appends the record to the dead-letter list.
+     *
+     * @param sink   the name of the sink that rejected the record
+     * @param cdr    the rejected record
+     * @param reason the error returned by the sink
+     * @return false when the record could not be kept, so the batch must not be acknowledged
+     */
+    public boolean send(String sink, UtilsRecords.Cdr cdr, String reason) {
+        try {
+            String entry = DEAD_LETTER_WRITER.writeValueAsString(new DeadLetter(sink, clock.millis(), reason, cdr));
+            jedisCluster.rpush(listName, entry);
+            log.warn("CDR record {} rejected by the {} sink moved to {}: {}", cdr.messageId(), sink, listName, reason);
+            return true;
+        } catch (JsonProcessingException | JedisException e) {
+            log.error("Error while moving the CDR record {} to {}", cdr.messageId(), listName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Appends the records to the dead-letter list with a single push.
+     *
+     * @param sink    the name of the sinks that failed the records
+     * @param records the records
+     * @param reason  the reason of the failure
+     * @return false when the records could not be kept, so the batch must not be acknowledged
+     */
+    public boolean sendAll(String sink, List<UtilsRecords.Cdr> records, String reason) {
+        if (records.isEmpty()) {
+            return true;
+        }
+        try {
+            long failedAt = clock.millis();
+            String[] entries = new String[records.size()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = DEAD_LETTER_WRITER.writeValueAsString(new DeadLetter(sink, failedAt, reason, records.get(i)));
+            }
+            jedisCluster.rpush(listName, entries);
+            log.warn("{} CDR records moved to {}: {}", records.size(), listName, reason);
+            return true;
+        } catch (JsonProcessingException | JedisException e) {
+            log.error("Error while moving {} CDR records to {}", records.size(), listName, e);
+            return false;
+        }
+    }
+
+    record DeadLetter(String sink, long failedAt, String reason, UtilsRecords.Cdr cdr) {
+    }
+}
@@ -0,0 +1,388 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.AppProperties;
+import org.paic.insertdata.util.CdrLineEncoder;
+import org.paic.insertdata.util.CommonUtils;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Writes the CDR lines of logs mode straight to a file through a {@link FileChannel}, in the same format the cdrLogger
+ * of logback wrote them: one {@link CommonUtils#createStringCdr} line per record, each one followed by the line
+ * separator.
+ * <p>
+ * Every batch is encoded by the {@link CdrLineEncoder} into pooled buffers outside of the file lock, so the workers encode in parallel and only the
+ * channel writes are serialized. The active file {@code <file-name>.log} is rotated to
+ * {@code <file-name>.yyyy-MM-dd.log}, or {@code <file-name>.yyyy-MM-dd.N.log}, when the day changes or when it
+ * reaches the maximum file size, and the rotated files older than the maximum history are deleted.
+ * <p>
+ * With {@code application.cdr.compression} set to {@code gzip}, the filled buffers are handed to a
+ * {@link GzipBlockCompressor} instead, which compresses each of them into an independent gzip member on its own thread
+ * and appends it to {@code <file-name>.log.gz}. The rotation then applies to the compressed size, and every rotated
+ * {@code <file-name>.yyyy-MM-dd.log.gz} segment is a complete gzip file. A worker keeps encoding its next buffers while
+ * the previous ones are compressed, and reports its batch as written once all its members are in the file, so a
+ * member that cannot be written fails the batch whatever the fsync policy. An active file left by a previous run is
+ * rotated to a segment on startup instead of being appended to, as its last member may have been cut by a crash and
+ * the members appended after it could not be decompressed.
+ * <p>
+ * The fsync policy is selected with {@code application.cdr.fsync}:
+ * <ul>
+ *     <li>{@code none}: the lines are left to the operating system to flush (default, as logback did).</li>
+ *     <li>{@code interval}: the file is synced every {@code application.cdr.fsync-interval-millis}.</li>
+ *     <li>{@code batch}: a batch is only reported as written once it is synced, and compressed when compression is
+ *     enabled. The batches written at the same time by several workers share one sync (group commit).</li>
+ * </ul>
+ */
+@Slf4j
+public class CdrFileSink implements CdrBatchWriter, Closeable {
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final String GZIP_EXTENSION = ".log.gz";
+    private static final int COMPRESSION_QUEUE_BLOCKS = 64;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final Path directory;
+    private final String fileName;
+    private final String extension;
+    private final Path activeFile;
+    private final CdrLineEncoder encoder;
+    private final long maxFileSize;
+    private final int maxHistory;
+    private final FsyncPolicy fsyncPolicy;
+    private final Clock clock;
+    private final Pattern rotatedFilePattern;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Disposable periodicSync;
+    private final GzipBlockCompressor compressor;
+
+    private FileChannel channel;
+    private LocalDate fileDate;
+    private long fileSize;
+    private long written;
+    private volatile long synced;
+
+    public CdrFileSink(AppProperties appProperties) {
+        this(appProperties, Clock.systemDefaultZone());
+    }
+
+    CdrFileSink(AppProperties appProperties, Clock clock) {
+        this.directory = Path.of(appProperties.getCdrLocation());
+        this.fileName = appProperties.getCdrFileName();
+        boolean gzip = "gzip".equalsIgnoreCase(appProperties.getCdrCompression());
+        this.extension = gzip ? GZIP_EXTENSION : ".log";
+        this.activeFile = directory.resolve(fileName + extension);
+        this.encoder = new CdrLineEncoder(appProperties.getSeparator());
+        this.maxFileSize = appProperties.getCdrMaxFileSizeMb() * 1024L * 1024L;
+        this.maxHistory = appProperties.getCdrMaxHistory();
+        this.fsyncPolicy = FsyncPolicy.of(appProperties.getCdrFsync());
+        this.clock = clock;
+        this.rotatedFilePattern = Pattern.compile(Pattern.quote(fileName) + "\\.(\\d{4}-\\d{2}-\\d{2})(\\.\\d+)?" + Pattern.quote(extension));
+
+        try {
+            Files.createDirectories(directory);
+            this.openActiveFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error while opening the cdr file " + activeFile, e);
+        }
+
+        long intervalMillis = appProperties.getCdrFsyncIntervalMillis();
+        this.periodicSync = fsyncPolicy == FsyncPolicy.INTERVAL && intervalMillis > 0
+                ? Schedulers.boundedElastic().schedulePeriodically(this::syncQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS)
+                : null;
+        this.compressor = gzip
+                ? new GzipBlockCompressor(appProperties.getCdrCompressionLevel(), COMPRESSION_QUEUE_BLOCKS, this::writeMember, this::recycle)
+                : null;
+        log.info("CDR file sink writing to {} with fsync policy {}", activeFile, fsyncPolicy);
+    }
+
+    /**
+     * Appends the lines of the given records to the active file.
+     *
+     * @param records the records to write
+     * @return true when every line was written, compressed when compression is enabled, and synced when the fsync policy
+     * is batch
+     */
+    @Override
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        Positions positions = new Positions();
+        ByteBuffer buffer = this.borrowBuffer();
+        try {
+            for (UtilsRecords.Cdr cdr : records) {
+                int maxLength = encoder.maxLength(cdr) + LINE_SEPARATOR.length;
+                if (buffer.remaining() < maxLength) {
+                    buffer = this.flush(buffer, positions);
+                }
+                if (buffer.remaining() < maxLength) {
+                    // a line longer than a buffer is written on its own
+                    ByteBuffer line = ByteBuffer.allocate(maxLength);
+                    encoder.encode(cdr, line);
+                    this.recycle(this.flush(line.put(LINE_SEPARATOR), positions));
+                    continue;
+                }
+                encoder.encode(cdr, buffer);
+                buffer.put(LINE_SEPARATOR);
+            }
+            buffer = this.flush(buffer, positions);
+
+            if (compressor != null && positions.last >= 0) {
+                compressor.awaitWritten(positions.first, positions.last);
+            }
+            if (fsyncPolicy == FsyncPolicy.BATCH && positions.last >= 0) {
+                this.sync(positions.last);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("Error while writing {} cdr to {}", records.size(), activeFile, e);
+            return false;
+        } finally {
+            this.recycle(buffer);
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the active file, or hands it to the compressor.
+     *
+     * @return the buffer to keep encoding into
+     */
+    private ByteBuffer flush(ByteBuffer buffer, Positions positions) throws IOException {
+        if (buffer.position() == 0) {
+            return buffer;
+        }
+        if (compressor == null) {
+            positions.add(this.writeBuffer(buffer));
+            return buffer;
+        }
+
+        positions.add(compressor.submit(buffer));
+        return this.borrowBuffer();
+    }
+
+    /**
+     * Writes a compressed member to the active file, rotating it first when needed.
+     */
+    private void writeMember(ByteBuffer member, long sequence) throws IOException {
+        lock.lock();
+        try {
+            this.rotateIfNeeded(member.remaining());
+            while (member.hasRemaining()) {
+                fileSize += channel.write(member);
+            }
+            written = sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the active file, rotating it first when needed.
+     *
+     * @return the total number of bytes written by this sink once the buffer is written
+     */
+    private long writeBuffer(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        lock.lock();
+        try {
+            if (buffer.hasRemaining()) {
+                this.rotateIfNeeded(buffer.remaining());
+                while (buffer.hasRemaining()) {
+                    int bytes = channel.write(buffer);
+                    fileSize += bytes;
+                    written += bytes;
+                }
+            }
+            return written;
+        } finally {
+            lock.unlock();
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Syncs the active file unless a sync started after the given position was written already covered it, so the
+     * workers waiting here at the same time share one sync.
+     */
+    private void sync(long position) throws IOException {
+        syncLock.lock();
+        try {
+            if (synced >= position) {
+                return;
+            }
+            lock.lock();
+            try {
+                long target = written;
+                channel.force(false);
+                synced = target;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            this.sync(Long.MAX_VALUE);
+        } catch (IOException e) {
+            log.error("Error while syncing the cdr file {}", activeFile, e);
+        }
+    }
+
+    private void rotateIfNeeded(int incoming) throws IOException {
+        LocalDate today = LocalDate.now(clock);
+        boolean dayChanged = !today.equals(fileDate);
+        boolean full = maxFileSize > 0 && fileSize > 0 && fileSize + incoming > maxFileSize;
+        if (!dayChanged && !full) {
+            return;
+        }
+
+        channel.force(false);
+        synced = written;
+        channel.close();
+        Path rotated = this.rotatedFile(fileDate);
+        Files.move(activeFile, rotated);
+        log.info("CDR file rotated to {}", rotated);
+        this.openActiveFile();
+        if (dayChanged) {
+            this.deleteExpiredFiles(today);
+        }
+    }
+
+    private void openActiveFile() throws IOException {
+        if (Files.exists(activeFile) && Files.size(activeFile) > 0) {
+            LocalDate today = LocalDate.now(clock);
+            LocalDate modified = LocalDate.ofInstant(Files.getLastModifiedTime(activeFile).toInstant(), clock.getZone());
+            if (modified.isBefore(today)) {
+                // left by a previous run on another day
+                Files.move(activeFile, this.rotatedFile(modified));
+            } else if (GZIP_EXTENSION.equals(extension)) {
+                // the last member may have been cut by a crash, nothing appended after it could be decompressed
+                Files.move(activeFile, this.rotatedFile(today));
+            }
+        }
+
+        channel = FileChannel.open(activeFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileDate = LocalDate.now(clock);
+        fileSize = channel.size();
+    }
+
+    private Path rotatedFile(LocalDate date) {
+        Path rotated = directory.resolve(fileName + "." + date + extension);
+        for (int index = 1; Files.exists(rotated); index++) {
+            rotated = directory.resolve(fileName + "." + date + "." + index + extension);
+        }
+        return rotated;
+    }
+
+    private void deleteExpiredFiles(LocalDate today) {
+        if (maxHistory <= 0) {
+            return;
+        }
+
+        LocalDate oldest = today.minusDays(maxHistory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> {
+                Matcher matcher = rotatedFilePattern.matcher(file.getFileName().toString());
+                return matcher.matches() && LocalDate.parse(matcher.group(1)).isBefore(oldest);
+            }).forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            log.error("Error while deleting the expired cdr files of {}", directory, e);
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.delete(file);
+            log.info("Expired cdr file {} deleted", file);
+        } catch (IOException e) {
+            log.error("Error while deleting the expired cdr file {}", file, e);
+        }
+    }
+
+    private ByteBuffer borrowBuffer() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == BUFFER_SIZE) {
+            buffers.offer(buffer.clear());
+        }
+    }
+
+    /**
+     * Writes the blocks still queued for compression, then syncs and closes the active file.
+     */
+    @Override
+    public void close() {
+        if (periodicSync != null) {
+            periodicSync.dispose();
+        }
+        if (compressor != null) {
+            compressor.close();
+        }
+
+        lock.lock();
+        try {
+            if (channel.isOpen()) {
+                channel.force(false);
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.error("Error while closing the cdr file {}", activeFile, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Positions of the first and last buffers of a batch: the bytes written, or the block sequences when compressing.
+     */
+    private static final class Positions {
+        private long first = -1;
+        private long last = -1;
+
+        private void add(long position) {
+            if (first < 0) {
+                first = position;
+            }
+            last = position;
+        }
+    }
+
+    enum FsyncPolicy {
+        NONE, INTERVAL, BATCH;
+
+        static FsyncPolicy of(String name) {
+            return name == null ? NONE : switch (name.toLowerCase(Locale.ROOT)) {
+                case "interval" -> INTERVAL;
+                case "batch" -> BATCH;
+                default -> NONE;
+            };
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.paic.insertdata.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.AppProperties;
+import org.paic.insertdata.util.CdrOrdering;
+import org.paic.insertdata.util.CommonUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives CDR records over HTTP, as NDJSON with one record per line, and writes them to the sinks without Redis.
+ * <p>
+ * The lines are decoded as the records taken from Redis, and grouped in batches of
+ * {@code application.http-ingest.batch-size}, or of the lines received within
+ * {@code application.http-ingest.max-wait-millis} when the producer streams them slowly. Every batch is written through
+ * the writer of the {@link CdrSinkProcessor}, so with the deduplication, the rollup and the writer slots of the
+ * workers. The batches of a request are written one at a time and the body is read only as fast as they are written,
+ * so a producer faster than the sinks is slowed down by TCP flow control instead of being buffered in memory.
+ * <p>
+ * The response tells how many lines were written. On a failed write the rest of the body is not read and the response
+ * is 503 Service Unavailable, the producer sends again the lines after the written ones. The lines that cannot be
+ * decoded are discarded with a warning and counted as written.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "application.http-ingest.enabled", havingValue = "true")
+public class CdrIngestHandler {
+    private final CdrSinkProcessor sinkProcessor;
+    private final CdrMetrics metrics;
+    private final CdrOrdering ordering;
+    private final int batchSize;
+    private final Duration maxWait;
+    private final int maxLineBytes;
+
+    public CdrIngestHandler(CdrSinkProcessor sinkProcessor, CdrMetrics metrics, AppProperties appProperties) {
+        this.sinkProcessor = sinkProcessor;
+        this.metrics = metrics;
+        this.ordering = CdrOrdering.of(appProperties.getCdrOrdering());
+        this.batchSize = Math.max(1, appProperties.getHttpIngestBatchSize());
+        this.maxWait = Duration.ofMillis(Math.max(1, appProperties.getHttpIngestMaxWaitMillis()));
+        this.maxLineBytes = Math.max(1, appProperties.getHttpIngestMaxLineBytes());
+        log.info("Receiving CDR records over HTTP in batches of {} records", batchSize);
+    }
+
+    /**
+     * Writes the records of an NDJSON request body.
+     *
+     * @param request the request
+     * @return 200 with the number of lines and records written, 503 when a batch could not be written, 413 when a line
+     * is longer than {@code application.http-ingest.max-line-bytes}
+     */
+    public Mono<ServerResponse> ingest(ServerRequest request) {
+        AtomicLong lines = new AtomicLong();
+        AtomicLong records = new AtomicLong();
+        return this.lines(request.bodyToFlux(DataBuffer.class))
+                .bufferTimeout(batchSize, maxWait, true)
+                // no prefetch, so the next batch is read from the body only once the previous one is written
+                .concatMap(batch -> this.write(batch, lines, records), 0)
+                .takeUntil(written -> !written)
+                .last(true)
+                .flatMap(written -> {
+                    HttpStatus status = Boolean.TRUE.equals(written) ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+                    return this.respond(status, lines.get(), records.get());
+                })
+                .onErrorResume(LineTooLongException.class, e -> this.respond(HttpStatus.PAYLOAD_TOO_LARGE, lines.get(), records.get()));
+    }
+
+    private Mono<Boolean> write(List<byte[]> batch, AtomicLong lines, AtomicLong records) {
+        return metrics.decode(batch, ordering, raw -> CommonUtils.decodeRawCdrBatch(raw, CdrOrdering.NONE))
+                .map(decoded -> {
+                    if (!sinkProcessor.write(decoded)) {
+                        log.warn("Unable to write {} CDR records received over HTTP", decoded.size());
+                        return false;
+                    }
+                    lines.addAndGet(batch.size());
+                    records.addAndGet(decoded.size());
+                    return true;
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<ServerResponse> respond(HttpStatus status, long lines, long records) {
+        return ServerResponse.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("lines", lines, "records", records));
+    }
+
+    /**
+     * Splits the body in lines, without the line feeds and the blank lines. A line may span several buffers.
+     */
+    Flux<byte[]> lines(Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            ByteArrayOutputStream pending = new ByteArrayOutputStream();
+            return body.concatMapIterable(buffer -> {
+                        try {
+                            return this.split(buffer, pending);
+                        } finally {
+                            DataBufferUtils.release(buffer);
+                        }
+                    }, 1)
+                    .concatWith(Mono.fromSupplier(() -> trim(pending.toByteArray())))
+                    .filter(line -> line.length > 0);
+        });
+    }
+
+    private List<byte[]> split(DataBuffer buffer, ByteArrayOutputStream pending) {
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        List<byte[]> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                pending.write(bytes, start, i - start);
+                if (pending.size() > maxLineBytes) {
+                    throw new LineTooLongException();
+                }
+                lines.add(trim(pending.toByteArray()));
+                pending.reset();
+                start = i + 1;
+            }
+        }
+        pending.write(bytes, start, bytes.length - start);
+        if (pending.size() > maxLineBytes) {
+            throw new LineTooLongException();
+        }
+        return lines;
+    }
+
+    private static byte[] trim(byte[] line) {
+        int length = line.length;
+        while (length > 0 && (line[length - 1] == '\r' || line[length - 1] == ' ')) {
+            length--;
+        }
+        return length == line.length ? line : Arrays.copyOf(line, length);
+    }
+
+    private static final class LineTooLongException extends RuntimeException {
+        private LineTooLongException() {
+            super("CDR line too long", null, false, false);
+        }
+    }
+}
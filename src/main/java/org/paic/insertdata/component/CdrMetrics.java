@@ -0,0 +1,259 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.paic.insertdata.util.CdrOrdering;
+import org.paic.insertdata.util.CommonUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of the ingestion pipeline, exposed in the Prometheus text format on {@code /actuator/prometheus}.
+ * <p>
+ * The counters are totals since the start, the records per second are their {@code rate()} in Prometheus. The stage
+ * latencies are histograms labelled with the stage: {@code fetch} for LPOP or XREADGROUP, {@code decode}, {@code sort}
+ * and {@code write} for the write of the batch to the sinks. The Redis backlog is read when the metrics are scraped.
+ */
+@Component
+public class CdrMetrics {
+    public static final String FETCH = "fetch";
+    public static final String DECODE = "decode";
+    public static final String SORT = "sort";
+    public static final String WRITE = "write";
+
+    private static final double[] LATENCY_BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double[] BATCH_SIZE_BUCKETS = {1, 10, 100, 500, 1000, 5000, 10000, 15000, 25000, 50000, 100000};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final LongAdder recordsFetched = new LongAdder();
+    private final LongAdder recordsDecoded = new LongAdder();
+    private final LongAdder recordsWritten = new LongAdder();
+    private final LongAdder batchesWritten = new LongAdder();
+    private final LongAdder batchesFailed = new LongAdder();
+    private final LongAdder writeRetries = new LongAdder();
+    private final LongAdder recordsDeadLettered = new LongAdder();
+    private final LongAdder recordsSpilled = new LongAdder();
+    private final LongAdder recordsDuplicate = new LongAdder();
+    private final AtomicInteger inFlightBatches = new AtomicInteger();
+    private final Map<String, Histogram> stageLatencies = new ConcurrentHashMap<>();
+    private final Histogram batchSizes = new Histogram(BATCH_SIZE_BUCKETS);
+    private volatile LongSupplier backlog = () -> -1;
+    private volatile LongSupplier targetBatchSize = () -> -1;
+    private volatile LongSupplier writerSlots = () -> -1;
+
+    /**
+     * Decodes a batch taken from Redis with the given decoder, which must not sort it, then sorts it as configured,
+     * recording the time of both stages.
+     *
+     * @param raw      the raw records
+     * @param ordering the ordering of the records
+     * @param decoder  decodes the raw records without sorting them
+     * @return the decoded records
+     */
+    public <T> Mono<List<UtilsRecords.Cdr>> decode(List<T> raw, CdrOrdering ordering,
+                                                   Function<List<T>, Mono<List<UtilsRecords.Cdr>>> decoder) {
+        return Mono.defer(() -> {
+            long decodeStart = System.nanoTime();
+            return decoder.apply(raw).map(records -> {
+                long sortStart = System.nanoTime();
+                this.recordStage(DECODE, sortStart - decodeStart);
+                recordsFetched.add(raw.size());
+                recordsDecoded.add(records.size());
+                if (ordering.isSorted()) {
+                    CommonUtils.sortByRecordDate(records);
+                    this.recordStage(SORT, System.nanoTime() - sortStart);
+                }
+                return records;
+            });
+        });
+    }
+
+    /**
+     * Records the time taken by a stage of the pipeline.
+     *
+     * @param stage the stage, {@link #FETCH}, {@link #DECODE}, {@link #SORT} or {@link #WRITE}
+     * @param nanos the time taken
+     */
+    public void recordStage(String stage, long nanos) {
+        stageLatencies.computeIfAbsent(stage, key -> new Histogram(LATENCY_BUCKETS)).record(nanos / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Records a batch taken from Redis and not yet written.
+     */
+    public void onBatchTaken(int records) {
+        inFlightBatches.incrementAndGet();
+        batchSizes.record(records);
+    }
+
+    /**
+     * Records the outcome of a batch taken with {@link #onBatchTaken(int)}.
+     */
+    public void onBatchDone(int records, boolean written, long writeNanos) {
+        inFlightBatches.decrementAndGet();
+        this.recordStage(WRITE, writeNanos);
+        if (written) {
+            batchesWritten.increment();
+            recordsWritten.add(records);
+        } else {
+            batchesFailed.increment();
+        }
+    }
+
+    public void onRetry() {
+        writeRetries.increment();
+    }
+
+    public void onDeadLettered() {
+        recordsDeadLettered.increment();
+    }
+
+    public void onDeadLettered(int records) {
+        recordsDeadLettered.add(records);
+    }
+
+    public void onSpilled(int records) {
+        recordsSpilled.add(records);
+    }
+
+    public void onDuplicates(int records) {
+        recordsDuplicate.add(records);
+    }
+
+    /**
+     * Sets the source of the number of records waiting in Redis, a negative value when it is unknown.
+     */
+    public void backlog(LongSupplier backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Sets the sources of the batch size and the writer slots currently used by the pipeline.
+     */
+    public void batching(LongSupplier targetBatchSize, LongSupplier writerSlots) {
+        this.targetBatchSize = targetBatchSize;
+        this.writerSlots = writerSlots;
+    }
+
+    long recordsWritten() {
+        return recordsWritten.sum();
+    }
+
+    int inFlightBatches() {
+        return inFlightBatches.get();
+    }
+
+    /**
+     * Renders all the metrics in the Prometheus text format.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        counter(out, "cdr_records_fetched_total", "Records taken from Redis or received over HTTP", recordsFetched.sum());
+        counter(out, "cdr_records_decoded_total", "Records taken from Redis and decoded", recordsDecoded.sum());
+        counter(out, "cdr_records_written_total", "Records written to the sinks", recordsWritten.sum());
+        counter(out, "cdr_batches_written_total", "Batches written to the sinks", batchesWritten.sum());
+        counter(out, "cdr_batches_failed_total", "Batches that could not be written", batchesFailed.sum());
+        counter(out, "cdr_write_retries_total", "Retries of database inserts", writeRetries.sum());
+        counter(out, "cdr_records_dead_lettered_total", "Records rejected by the database or not written after the delivery attempts, moved to the dead-letter list", recordsDeadLettered.sum());
+        counter(out, "cdr_records_spilled_total", "Records appended to the spill journal", recordsSpilled.sum());
+        counter(out, "cdr_records_duplicate_total", "Records dropped as duplicates of records already written", recordsDuplicate.sum());
+        gauge(out, "cdr_in_flight_batches", "Batches taken from Redis and not yet written", inFlightBatches.get());
+        gauge(out, "cdr_redis_backlog", "Records waiting in Redis", readGauge(backlog));
+        gauge(out, "cdr_target_batch_size", "Number of records the next fetch takes", readGauge(targetBatchSize));
+        gauge(out, "cdr_writer_slots", "Batches that can be written at the same time", readGauge(writerSlots));
+
+        header(out, "cdr_stage_seconds", "Latency of the stages of the pipeline", "histogram");
+        stageLatencies.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(stage -> stage.getValue().render(out, "cdr_stage_seconds", "stage=\"" + stage.getKey() + "\""));
+        header(out, "cdr_batch_size", "Records of the batches taken from Redis", "histogram");
+        batchSizes.render(out, "cdr_batch_size", "");
+        return out.toString();
+    }
+
+    private static double readGauge(LongSupplier supplier) {
+        try {
+            long value = supplier.getAsLong();
+            return value < 0 ? Double.NaN : value;
+        } catch (RuntimeException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%s", value);
+    }
+
+    /**
+     * Histogram with fixed buckets, updated without locking.
+     */
+    private static final class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(double value) {
+            for (int i = 0; i < bounds.length; i++) {
+                if (value <= bounds[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(value);
+        }
+
+        private void render(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{").append(prefix).append("le=\"").append(format(bounds[i])).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+            out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(count.sum()).append('\n');
+            out.append(name).append("_sum").append(suffix).append(' ').append(format(sum.sum())).append('\n');
+            out.append(name).append("_count").append(suffix).append(' ').append(count.sum()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.paic.insertdata.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.config.ConditionalOnSink;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Maintains the partitions of the cdr table, range partitioned by record_date since the V2 migration.
+ * <p>
+ * On startup, before the workers start, and then every {@code jdbc.partition-maintenance-millis}:
+ * <ul>
+ *     <li>creates the partition of the current period and the next {@code jdbc.partitions-ahead} ones, daily or hourly
+ *     as set by {@code jdbc.partition-interval}, so rows never land in the default partition. PostgreSQL refuses to
+ *     create a partition whose range has rows in the default partition, so a missing partition is created as a
+ *     standalone table, the rows of its range are moved into it from the default partition and it is attached, all in
+ *     one transaction;</li>
+ *     <li>drops, or detaches when {@code jdbc.partition-retention-action} is {@code detach}, the partitions whose whole
+ *     range is older than {@code jdbc.partition-retention-days}, instead of deleting their rows. The rows of the default
+ *     partition older than the retention are deleted with {@code drop}, and kept with {@code detach}.</li>
+ * </ul>
+ * Detaching a partition locks the whole cdr table, so the detach or drop gives up after {@value #LOCK_TIMEOUT} when
+ * the lock is not granted, so it does not queue the inserts behind the long queries holding the table, and is tried
+ * again on the next run. The V2 migration always creates the cdr_default partition; only once an operator has dropped
+ * it are the partitions detached {@code CONCURRENTLY}, which PostgreSQL refuses while there is a default partition,
+ * before being dropped.
+ * <p>
+ * Unknown values of {@code jdbc.partition-interval} and {@code jdbc.partition-retention-action} fail the startup, so a
+ * typo does not silently change the partitions or drop the ones meant to be detached.
+ * Partitions are named after the start of their range, {@code cdr_pYYYYMMDD} or {@code cdr_pYYYYMMDDHH}, so the
+ * retention works on partitions of both intervals. The record dates are stored in the system time zone, as done by
+ * {@link CdrColumnBinder}, so the periods are computed in the same zone.
+ */
+@Slf4j
+@Component
+@ConditionalOnSink("database")
+public class CdrPartitionManager {
+    static final String PARTITION_PREFIX = "cdr_p";
+
+    static final String LOCK_TIMEOUT = "5s";
+    static final String PARTITIONS_QUERY = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+            + "WHERE i.inhparent = 'cdr'::regclass";
+    static final String DEFAULT_PARTITION_QUERY = "SELECT partdefid::regclass::text FROM pg_partitioned_table "
+            + "WHERE partrelid = 'cdr'::regclass AND partdefid <> 0";
+
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AppProperties appProperties;
+    private final Clock clock;
+    private final PartitionInterval interval;
+    private final boolean detach;
+
+    public CdrPartitionManager(JdbcTemplate jdbcTemplate, AppProperties appProperties) {
+        this(jdbcTemplate, appProperties, Clock.systemDefaultZone());
+    }
+
+    CdrPartitionManager(JdbcTemplate jdbcTemplate, AppProperties appProperties, Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.appProperties = appProperties;
+        this.clock = clock;
+        this.interval = PartitionInterval.of(appProperties.getPartitionInterval());
+        this.detach = detach(appProperties.getPartitionRetentionAction());
+    }
+
+    /**
+     * Resolves the configured retention action, {@code drop} when it is not set.
+     *
+     * @return true when the expired partitions are detached
+     * @throws IllegalArgumentException when the action is unknown, so a typo does not drop the partitions
+     */
+    private static boolean detach(String action) {
+        if (action == null || action.isBlank() || "drop".equalsIgnoreCase(action.strip())) {
+            return false;
+        }
+        if ("detach".equalsIgnoreCase(action.strip())) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown jdbc.partition-retention-action '" + action + "', expected drop or detach");
+    }
+
+    /**
+     * Runs the maintenance on startup, before the pipeline listeners start writing.
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        log.info("Managing the cdr partitions. Interval: {}, ahead: {}, retention: {} days, action: {}",
+                interval, appProperties.getPartitionsAhead(), appProperties.getPartitionRetentionDays(),
+                detach ? "detach" : "drop");
+        this.maintainPartitions();
+    }
+
+    /**
+     * Creates the upcoming partitions and removes the expired ones. Errors are logged and retried on the next run.
+     */
+    @Scheduled(fixedDelayString = "#{@appProperties.partitionMaintenanceMillis}",
+            initialDelayString = "#{@appProperties.partitionMaintenanceMillis}")
+    public void maintainPartitions() {
+        try {
+            LocalDateTime now = LocalDateTime.now(clock);
+            String defaultPartition = jdbcTemplate.queryForList(DEFAULT_PARTITION_QUERY, String.class).stream()
+                    .findFirst()
+                    .orElse(null);
+            this.createPartitions(now, defaultPartition);
+            this.removeExpiredPartitions(now, defaultPartition);
+        } catch (DataAccessException e) {
+            log.error("Error while maintaining the cdr partitions", e);
+        }
+    }
+
+    private void createPartitions(LocalDateTime now, String defaultPartition) {
+        LocalDateTime start = interval.truncate(now);
+        for (int i = 0; i <= appProperties.getPartitionsAhead(); i++) {
+            LocalDateTime end = interval.next(start);
+            try {
+                jdbcTemplate.execute(createPartitionStatement(interval.partitionName(start), start.format(BOUND_FORMAT),
+                        end.format(BOUND_FORMAT), defaultPartition));
+            } catch (DataAccessException e) {
+                // the range overlaps a partition of another interval
+                log.warn("Unable to create the cdr partition for {}: {}", start, e.getMessage());
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Returns the statement creating a partition, moving into it the rows of its range kept by the default partition.
+     */
+    static String createPartitionStatement(String partition, String from, String to, String defaultPartition) {
+        if (defaultPartition == null) {
+            return "CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF cdr FOR VALUES FROM ('" + from + "') TO ('" + to + "')";
+        }
+        return "DO $$ BEGIN "
+                + "IF to_regclass('" + partition + "') IS NULL THEN "
+                + "LOCK TABLE " + defaultPartition + " IN SHARE ROW EXCLUSIVE MODE; "
+                + "CREATE TABLE " + partition + " (LIKE cdr INCLUDING DEFAULTS INCLUDING CONSTRAINTS); "
+                + "WITH moved AS (DELETE FROM " + defaultPartition + " WHERE record_date >= '" + from + "' AND record_date < '" + to
+                + "' RETURNING *) INSERT INTO " + partition + " SELECT * FROM moved; "
+                + "ALTER TABLE cdr ATTACH PARTITION " + partition + " FOR VALUES FROM ('" + from + "') TO ('" + to + "'); "
+                + "END IF; "
+                + "END $$";
+    }
+
+    private void removeExpiredPartitions(LocalDateTime now, String defaultPartition) {
+        int retentionDays = appProperties.getPartitionRetentionDays();
+        if (retentionDays <= 0) {
+            return;
+        }
+
+        LocalDateTime expiredBefore = now.minusDays(retentionDays);
+        List<String> partitions = jdbcTemplate.queryForList(PARTITIONS_QUERY, String.class);
+        for (String partition : partitions) {
+            LocalDateTime end = partitionEnd(partition);
+            if (end == null || end.isAfter(expiredBefore)) {
+                continue;
+            }
+
+            log.info("{} the expired cdr partition {}", detach ? "Detaching" : "Dropping", partition);
+            try {
+                this.removePartition(partition, defaultPartition != null);
+            } catch (DataAccessException e) {
+                log.warn("Unable to remove the expired cdr partition {}, retrying on the next run: {}", partition, e.getMessage());
+            }
+        }
+
+        if (defaultPartition != null && !detach) {
+            int deleted = jdbcTemplate.update("DELETE FROM " + defaultPartition + " WHERE record_date < ?", Timestamp.valueOf(expiredBefore));
+            if (deleted > 0) {
+                log.info("Deleted {} expired cdr rows from the default partition {}", deleted, defaultPartition);
+            }
+        }
+    }
+
+    private void removePartition(String partition, boolean hasDefaultPartition) {
+        if (!hasDefaultPartition) {
+            // only once an operator has dropped the cdr_default partition of the V2 migration
+            jdbcTemplate.execute("ALTER TABLE cdr DETACH PARTITION " + partition + " CONCURRENTLY");
+            if (!detach) {
+                jdbcTemplate.execute("DROP TABLE " + partition);
+            }
+            return;
+        }
+
+        // a single transaction, so the lock timeout applies to it only
+        jdbcTemplate.execute("DO $$ BEGIN "
+                + "PERFORM set_config('lock_timeout', '" + LOCK_TIMEOUT + "', true); "
+                + (detach ? "ALTER TABLE cdr DETACH PARTITION " + partition + "; " : "DROP TABLE " + partition + "; ")
+                + "END $$");
+    }
+
+    /**
+     * Returns the end of the range of a partition from its name.
+     *
+     * @param partition the partition name
+     * @return the exclusive end of its range, or null when the partition is not named after its range
+     */
+    static LocalDateTime partitionEnd(String partition) {
+        if (!partition.startsWith(PARTITION_PREFIX)) {
+            return null;
+        }
+
+        String start = partition.substring(PARTITION_PREFIX.length());
+        for (PartitionInterval candidate : PartitionInterval.values()) {
+            if (start.length() == candidate.pattern.length() && start.chars().allMatch(Character::isDigit)) {
+                return candidate.next(LocalDateTime.parse(start, candidate.formatter));
+            }
+        }
+        return null;
+    }
+
+    enum PartitionInterval {
+        DAILY(ChronoUnit.DAYS, "yyyyMMdd"),
+        HOURLY(ChronoUnit.HOURS, "yyyyMMddHH");
+
+        private final ChronoUnit unit;
+        private final String pattern;
+        private final DateTimeFormatter formatter;
+
+        PartitionInterval(ChronoUnit unit, String pattern) {
+            this.unit = unit;
+            this.pattern = pattern;
+            this.formatter = new DateTimeFormatterBuilder()
+                    .appendPattern(pattern)
+                    .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+                    .toFormatter();
+        }
+
+        /**
+         * Resolves the configured interval, daily when it is not set.
+         *
+         * @throws IllegalArgumentException when the interval is unknown
+         */
+        static PartitionInterval of(String name) {
+            if (name == null || name.isBlank() || "daily".equalsIgnoreCase(name.strip())) {
+                return DAILY;
+            }
+            if ("hourly".equalsIgnoreCase(name.strip())) {
+                return HOURLY;
+            }
+            throw new IllegalArgumentException("Unknown jdbc.partition-interval '" + name + "', expected daily or hourly");
+        }
+
+        LocalDateTime truncate(LocalDateTime time) {
+            return time.truncatedTo(unit);
+        }
+
+        LocalDateTime next(LocalDateTime start) {
+            return start.plus(1, unit);
+        }
+
+        String partitionName(LocalDateTime start) {
+            return PARTITION_PREFIX + start.format(formatter);
+        }
+    }
+}
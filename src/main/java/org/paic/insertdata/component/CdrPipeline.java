@@ -0,0 +1,210 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.AppProperties;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running pipeline that continuously pulls batches from a {@link CdrQueue} and hands them to a writer.
+ * <p>
+ * Every worker runs its own pull loop: it waits for a free writer slot, takes the next batch, writes it and
+ * acknowledges or releases it, then starts over right away. The number of batches taken and not yet written is
+ * capped by {@code configuration.max-in-flight-batches}. A worker only idles when Redis has no records, backing off
+ * exponentially from {@code configuration.idle-backoff-millis} up to {@code configuration.interval-millis}.
+ * <p>
+ * While the writer is not {@link CdrBatchWriter#isReady() ready}, for example with its circuit breaker open, the
+ * workers idle in the same way and the records stay in Redis.
+ * <p>
+ * The batch size and the number of writer slots are driven by an {@link AdaptiveBatchController} from the measured
+ * fetch and write latency of every batch. Both, with the Redis backlog and the outcome of every batch, are published to
+ * the {@link CdrMetrics}.
+ * <p>
+ * Records received without Redis, over HTTP, are written with {@link #write(List)} through the same writer and
+ * writer slots as the batches of the workers.
+ */
+@Slf4j
+public class CdrPipeline {
+    private static final long SLOT_POLL_MILLIS = 100;
+
+    private final String mode;
+    private final String listName;
+    private final int workers;
+    private final long idleBackoffMillis;
+    private final long maxIdleMillis;
+    private final CdrQueue cdrQueue;
+    private final CdrBatchWriter writer;
+    private final AdaptiveBatchController controller;
+    private final CdrMetrics metrics;
+    private volatile boolean running;
+    private Disposable subscription;
+
+    public CdrPipeline(String mode, AppProperties appProperties, CdrQueue cdrQueue, CdrBatchWriter writer) {
+        this(mode, appProperties, cdrQueue, writer, new CdrMetrics());
+    }
+
+    public CdrPipeline(String mode, AppProperties appProperties, CdrQueue cdrQueue, CdrBatchWriter writer, CdrMetrics metrics) {
+        this.mode = mode;
+        this.listName = appProperties.getCdrListName();
+        this.workers = appProperties.getCdrWorkers();
+        this.idleBackoffMillis = Math.max(1, appProperties.getIdleBackoffMillis());
+        this.maxIdleMillis = Math.max(idleBackoffMillis, appProperties.getIntervalMillis());
+        this.cdrQueue = cdrQueue;
+        this.writer = writer;
+        this.controller = new AdaptiveBatchController(mode, appProperties);
+        this.metrics = metrics;
+        metrics.backlog(() -> cdrQueue.backlog(listName));
+        metrics.batching(controller::batchSize, controller::concurrency);
+    }
+
+    /**
+     * Starts one pull loop per worker. Does nothing when the pipeline is already running.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (workers < 1 || controller.batchSize() < 1) {
+            log.error("Invalid number of workers: {} or batch size: {}", workers, controller.batchSize());
+            return;
+        }
+
+        running = true;
+        log.info("{} mode. Processing CDR from {} with workers: {}, batchSize: {}, maxInFlightBatches: {}",
+                mode, listName, workers, controller.batchSize(), controller.concurrency());
+        subscription = Flux.range(0, workers)
+                .flatMap(this::pullLoop, workers)
+                .subscribe();
+    }
+
+    /**
+     * Stops the pull loops. Batches being written are not interrupted.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (Objects.nonNull(subscription)) {
+            subscription.dispose();
+            subscription = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public AdaptiveBatchController getController() {
+        return controller;
+    }
+
+    private Flux<Boolean> pullLoop(int worker) {
+        return Mono.defer(() -> this.takeAndWrite(worker))
+                .subscribeOn(Schedulers.boundedElastic())
+                .repeatWhenEmpty(Integer.MAX_VALUE, idle -> idle.concatMap(attempt -> Mono.delay(idleDelay(attempt))))
+                .onErrorResume(e -> {
+                    log.error("Error while taking cdr from {}", listName, e);
+                    return Mono.just(false);
+                })
+                .flatMap(written -> Boolean.TRUE.equals(written)
+                        ? Mono.just(true)
+                        : Mono.delay(Duration.ofMillis(maxIdleMillis)).thenReturn(false))
+                .repeat(() -> running);
+    }
+
+    /**
+     * Waits for a writer slot, takes the next batch of the worker and writes it.
+     *
+     * @return true when the batch was written, false when it failed, or empty when there was nothing to take
+     */
+    private Mono<Boolean> takeAndWrite(int worker) {
+        if (!this.acquireWriterSlot()) {
+            return Mono.empty();
+        }
+        if (!writer.isReady()) {
+            // nothing is taken while the writer is unavailable, the worker idles as if Redis was empty
+            controller.releaseWriterSlot();
+            return Mono.empty();
+        }
+
+        int batchSize = controller.batchSize();
+        long takeStart = System.nanoTime();
+        return Mono.defer(() -> cdrQueue.fetch(listName, worker, batchSize))
+                .publishOn(Schedulers.boundedElastic())
+                .map(batch -> this.writeBatch(batch, batchSize, System.nanoTime() - takeStart))
+                .doFinally(signal -> controller.releaseWriterSlot());
+    }
+
+    /**
+     * Writes records that were not taken from the queue, waiting for a writer slot as the workers do.
+     *
+     * @param records the decoded records
+     * @return true when the records were written, false when the pipeline is stopped, the writer is not ready or the
+     * write failed
+     */
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        if (!this.acquireWriterSlot()) {
+            return false;
+        }
+        try {
+            return writer.isReady() && this.writeRecords(records, records.size(), 0);
+        } finally {
+            controller.releaseWriterSlot();
+        }
+    }
+
+    private boolean acquireWriterSlot() {
+        try {
+            while (running) {
+                if (controller.tryAcquireWriterSlot(SLOT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private boolean writeBatch(CdrBatch batch, int requested, long takeNanos) {
+        boolean written = this.writeRecords(batch.records(), requested, takeNanos);
+        if (written) {
+            log.debug("{} mode. {} CDR records written from {}", mode, batch.records().size(), listName);
+            cdrQueue.acknowledge(batch);
+        } else {
+            cdrQueue.release(batch);
+        }
+        return written;
+    }
+
+    private boolean writeRecords(List<UtilsRecords.Cdr> records, int requested, long takeNanos) {
+        boolean written;
+        metrics.onBatchTaken(records.size());
+        long writeStart = System.nanoTime();
+        try {
+            written = records.isEmpty() || writer.write(records);
+        } catch (RuntimeException e) {
+            log.error("Error while writing {} CDR records", records.size(), e);
+            written = false;
+        }
+        metrics.onBatchDone(records.size(), written, System.nanoTime() - writeStart);
+
+        if (written) {
+            controller.onWritten(records.size(), requested, takeNanos, System.nanoTime() - writeStart);
+        } else {
+            controller.onFailed();
+        }
+        return written;
+    }
+
+    private Duration idleDelay(long attempt) {
+        long delay = idleBackoffMillis << Math.min(attempt, 20);
+        return Duration.ofMillis(Math.min(delay, maxIdleMillis));
+    }
+}
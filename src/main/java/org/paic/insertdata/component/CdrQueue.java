@@ -0,0 +1,45 @@
+package org.paic.insertdata.component;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Source of the CDR batches read by the {@link CdrPipeline}.
+ * The implementation is selected with {@code configuration.cdr-source}: {@code list} for {@link RedisCdrQueue}
+ * (default) or {@code stream} for {@link RedisStreamCdrQueue}.
+ */
+public interface CdrQueue {
+
+    /**
+     * Takes the next batch of the given worker.
+     *
+     * @param listName  the Redis key the records are read from
+     * @param worker    the worker number
+     * @param batchSize the maximum number of records of the batch
+     * @return the batch decoded and sorted by record date, or empty when there are no records to take
+     */
+    Mono<CdrBatch> fetch(String listName, int worker, int batchSize);
+
+    /**
+     * Confirms a batch once its records are committed, so they are never taken again.
+     *
+     * @param batch the processed batch
+     */
+    void acknowledge(CdrBatch batch);
+
+    /**
+     * Frees the worker of a batch that could not be processed. Reliable sources take its records again.
+     *
+     * @param batch the failed batch
+     */
+    void release(CdrBatch batch);
+
+    /**
+     * Returns the number of records waiting to be taken, for the metrics.
+     *
+     * @param listName the Redis key the records are read from
+     * @return the number of records, or a negative value when it is unknown
+     */
+    default long backlog(String listName) {
+        return -1;
+    }
+}
@@ -0,0 +1,270 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.config.ConditionalOnSink;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps per-minute counters of the records inserted into the database and upserts them into the cdr_rollup_minute
+ * table of the V4 migration, so the reports do not group the rows of the cdr table while the records are inserted.
+ * <p>
+ * The records are counted per minute of their record date, status, origination and destination network and message
+ * type, with the sums of their processing time and dialog duration. With {@code jdbc.rollup-enabled}, the
+ * {@link DatabaseModeProcessor} counts the records of every insert committed, so the records of a failed batch are
+ * counted when it is inserted again, and the records moved to the dead-letter list are not counted. With the staging
+ * write strategy the records are counted once staged, so a record staged twice, which the merge inserts once, is
+ * counted twice. Records without a record date are not counted.
+ * <p>
+ * Every set of dimensions is given an int id, and the counters are kept in the primitive arrays of an open-addressing
+ * map keyed by the minute and that id in one long, so the counters are not boxed. Every
+ * {@code jdbc.rollup-flush-interval-millis} the counters are swapped for empty ones and added to the rows of the table
+ * with {@code INSERT ... ON CONFLICT}, in a single transaction. When the upsert fails nothing is committed, so the
+ * counters are merged back and written with the next flush without counting any row twice.
+ */
+@Slf4j
+@Component
+@ConditionalOnSink("database")
+public class CdrRollup {
+    static final String UPSERT_QUERY = "INSERT INTO cdr_rollup_minute (minute, status, origination_network_id, "
+            + "destination_network_id, message_type, records, processing_time_sum, dialog_duration_sum) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?) "
+            + "ON CONFLICT (minute, status, origination_network_id, destination_network_id, message_type) DO UPDATE SET "
+            + "records = cdr_rollup_minute.records + EXCLUDED.records, "
+            + "processing_time_sum = cdr_rollup_minute.processing_time_sum + EXCLUDED.processing_time_sum, "
+            + "dialog_duration_sum = cdr_rollup_minute.dialog_duration_sum + EXCLUDED.dialog_duration_sum";
+
+    private static final long MILLIS_PER_MINUTE = 60_000;
+    private static final int DIMENSIONS_BITS = 24;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private Counters counters = new Counters();
+
+    public CdrRollup(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Counts the given records, already inserted.
+     *
+     * @param records the records
+     */
+    public synchronized void add(List<UtilsRecords.Cdr> records) {
+        for (UtilsRecords.Cdr cdr : records) {
+            long minute = minute(cdr.recordDate());
+            if (minute >= 0) {
+                counters.add(minute, cdr, parseLong(cdr.processingTime()), parseLong(cdr.dialogDuration()));
+            }
+        }
+    }
+
+    /**
+     * Upserts the counters kept since the last flush. The {@link DatabaseModeProcessor} flushes them once more when it
+     * is closed, after its last insert.
+     *
+     * @return the number of rows upserted
+     */
+    @Scheduled(fixedDelayString = "#{@appProperties.rollupFlushIntervalMillis}")
+    public int flush() {
+        Counters flushed;
+        synchronized (this) {
+            if (counters.isEmpty()) {
+                return 0;
+            }
+            flushed = counters;
+            counters = new Counters();
+        }
+
+        List<Object[]> rows = flushed.rows();
+        try {
+            // one transaction, so a failed upsert commits none of the rows merged back
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(UPSERT_QUERY, rows));
+            log.debug("Upserted {} cdr rollup rows", rows.size());
+            return rows.size();
+        } catch (DataAccessException | TransactionException e) {
+            log.error("Error while upserting {} cdr rollup rows, retrying with the next flush", rows.size(), e);
+            synchronized (this) {
+                flushed.addAll(counters);
+                counters = flushed;
+            }
+            return 0;
+        }
+    }
+
+    private static long minute(String recordDate) {
+        long millis = parseLong(recordDate);
+        return millis <= 0 ? -1 : millis / MILLIS_PER_MINUTE;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String dimension(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Dimensions of a rollup row, besides the minute.
+     */
+    private record Dimensions(String status, String originationNetworkId, String destinationNetworkId, String messageType) {
+        static Dimensions of(UtilsRecords.Cdr cdr) {
+            return new Dimensions(dimension(cdr.status()), dimension(cdr.originationNetworkId()),
+                    dimension(cdr.destinationNetworkId()), dimension(cdr.messageType()));
+        }
+    }
+
+    /**
+     * Counters of one flush interval, in an open-addressing map from the minute and the dimensions id to the slot of
+     * the counters.
+     */
+    static final class Counters {
+        private static final long EMPTY = -1;
+
+        private final Map<Dimensions, Integer> dimensionIds = new HashMap<>();
+        private final List<Dimensions> dimensions = new ArrayList<>();
+        private long[] keys = emptyKeys(64);
+        private long[] records = new long[64];
+        private long[] processingTime = new long[64];
+        private long[] dialogDuration = new long[64];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void add(long minute, UtilsRecords.Cdr cdr, long processingTimeValue, long dialogDurationValue) {
+            Dimensions key = Dimensions.of(cdr);
+            Integer id = dimensionIds.get(key);
+            if (id == null) {
+                id = dimensions.size();
+                dimensionIds.put(key, id);
+                dimensions.add(key);
+            }
+            this.add(minute << DIMENSIONS_BITS | id, 1, processingTimeValue, dialogDurationValue);
+        }
+
+        /**
+         * Adds the counters of another interval, whose dimension ids are its own.
+         */
+        void addAll(Counters other) {
+            for (int slot = 0; slot < other.keys.length; slot++) {
+                long key = other.keys[slot];
+                if (key == EMPTY) {
+                    continue;
+                }
+                Dimensions dimension = other.dimensions.get((int) (key & ((1 << DIMENSIONS_BITS) - 1)));
+                int id = dimensionIds.computeIfAbsent(dimension, added -> {
+                    dimensions.add(added);
+                    return dimensions.size() - 1;
+                });
+                this.add((key >>> DIMENSIONS_BITS) << DIMENSIONS_BITS | id,
+                        other.records[slot], other.processingTime[slot], other.dialogDuration[slot]);
+            }
+        }
+
+        /**
+         * Returns the rows to upsert, ordered by their primary key so concurrent upserts lock them in the same order.
+         */
+        List<Object[]> rows() {
+            List<Object[]> rows = new ArrayList<>(size);
+            for (int slot = 0; slot < keys.length; slot++) {
+                long key = keys[slot];
+                if (key == EMPTY) {
+                    continue;
+                }
+                long minute = key >>> DIMENSIONS_BITS;
+                Dimensions dimension = dimensions.get((int) (key & ((1 << DIMENSIONS_BITS) - 1)));
+                rows.add(new Object[]{
+                        Timestamp.valueOf(Instant.ofEpochMilli(minute * MILLIS_PER_MINUTE).atZone(ZoneId.systemDefault()).toLocalDateTime()),
+                        dimension.status(), dimension.originationNetworkId(), dimension.destinationNetworkId(),
+                        dimension.messageType(), records[slot], processingTime[slot], dialogDuration[slot]});
+            }
+            rows.sort(Comparator.<Object[], Timestamp>comparing(row -> (Timestamp) row[0])
+                    .thenComparing(row -> (String) row[1])
+                    .thenComparing(row -> (String) row[2])
+                    .thenComparing(row -> (String) row[3])
+                    .thenComparing(row -> (String) row[4]));
+            return rows;
+        }
+
+        private void add(long key, long recordsValue, long processingTimeValue, long dialogDurationValue) {
+            if ((size + 1) * 2L > keys.length) {
+                this.resize();
+            }
+            int slot = this.slot(key);
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                size++;
+            }
+            records[slot] += recordsValue;
+            processingTime[slot] += processingTimeValue;
+            dialogDuration[slot] += dialogDurationValue;
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            long hash = key * 0x9e3779b97f4a7c15L;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldRecords = records;
+            long[] oldProcessingTime = processingTime;
+            long[] oldDialogDuration = dialogDuration;
+            keys = emptyKeys(oldKeys.length * 2);
+            records = new long[keys.length];
+            processingTime = new long[keys.length];
+            dialogDuration = new long[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = this.slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    records[slot] = oldRecords[i];
+                    processingTime[slot] = oldProcessingTime[i];
+                    dialogDuration[slot] = oldDialogDuration[i];
+                }
+            }
+        }
+
+        private static long[] emptyKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+    }
+}
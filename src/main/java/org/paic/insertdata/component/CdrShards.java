@@ -0,0 +1,126 @@
+package org.paic.insertdata.component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Shard keys of a CDR list and their assignment to workers.
+ * <p>
+ * With {@code configuration.cdr-shards} set to N, producers spread the records of the list {@code cdr} across the keys
+ * {@code cdr:{0}} to {@code cdr:{N-1}}. Every key has its own hash tag, so the keys land on different cluster slots and,
+ * with enough shards, on every master of the cluster. The keys are grouped by the master that owns them, and every
+ * worker reads whole node groups, so all the keys of one fetch are served by a single pipelined round-trip.
+ */
+final class CdrShards {
+    static final String UNKNOWN_NODE = "unknown";
+
+    private CdrShards() {
+    }
+
+    /**
+     * Returns the keys holding the records of the given list.
+     *
+     * @param listName the Redis list name
+     * @param shards   the number of shards, 0 for the single key mode
+     * @return the shard keys, or the list name alone when the list is not sharded
+     */
+    static List<String> keys(String listName, int shards) {
+        if (shards < 1) {
+            return List.of(listName);
+        }
+        return IntStream.range(0, shards).mapToObj(shard -> listName + ":{" + shard + "}").toList();
+    }
+
+    /**
+     * Groups the keys by their node and assigns the groups to the workers.
+     * When there are at least as many workers as nodes every worker reads one node, several workers sharing a node
+     * when there are more workers than nodes. Otherwise every worker reads several nodes, one per fetch.
+     *
+     * @param keys    the shard keys
+     * @param nodeOf  resolves the node owning a key
+     * @param workers the number of workers
+     * @return for every worker, the node groups it reads
+     */
+    static List<List<List<String>>> assign(List<String> keys, Function<String, String> nodeOf, int workers) {
+        Map<String, List<String>> byNode = new LinkedHashMap<>();
+        keys.forEach(key -> byNode.computeIfAbsent(nodeOf.apply(key), node -> new ArrayList<>()).add(key));
+        List<List<String>> groups = byNode.values().stream().map(List::copyOf).toList();
+
+        List<List<List<String>>> assignment = new ArrayList<>(workers);
+        for (int worker = 0; worker < workers; worker++) {
+            if (workers >= groups.size()) {
+                assignment.add(List.of(groups.get(worker % groups.size())));
+                continue;
+            }
+
+            List<List<String>> workerGroups = new ArrayList<>();
+            for (int group = worker; group < groups.size(); group += workers) {
+                workerGroups.add(groups.get(group));
+            }
+            assignment.add(List.copyOf(workerGroups));
+        }
+        return assignment;
+    }
+
+    /**
+     * Parses the reply of {@code CLUSTER SLOTS} into the master node of every slot range.
+     *
+     * @param reply the raw reply, a list of {@code [start, end, [host, port, ...], replicas...]}
+     * @return the slot ranges with their master node
+     */
+    static List<SlotRange> parseSlots(Object reply) {
+        if (!(reply instanceof List<?> ranges)) {
+            return List.of();
+        }
+
+        List<SlotRange> slotRanges = new ArrayList<>(ranges.size());
+        for (Object range : ranges) {
+            if (range instanceof List<?> fields && fields.size() > 2 && fields.get(2) instanceof List<?> master
+                    && master.size() > 1) {
+                slotRanges.add(new SlotRange(toInt(fields.get(0)), toInt(fields.get(1)),
+                        asString(master.get(0)) + ":" + toInt(master.get(1))));
+            }
+        }
+        return slotRanges;
+    }
+
+    /**
+     * Resolves the node owning every slot.
+     *
+     * @param slotRanges the slot ranges of the cluster
+     * @param slotOf     resolves the slot of a key
+     * @return resolves the node of a key, {@link #UNKNOWN_NODE} when its slot is not covered
+     */
+    static Function<String, String> nodeResolver(List<SlotRange> slotRanges, Function<String, Integer> slotOf) {
+        Map<Integer, String> cache = new HashMap<>();
+        return key -> cache.computeIfAbsent(slotOf.apply(key), slot -> slotRanges.stream()
+                .filter(range -> slot >= range.start() && slot <= range.end())
+                .map(SlotRange::node)
+                .findFirst()
+                .orElse(UNKNOWN_NODE));
+    }
+
+    private static int toInt(Object value) {
+        return value instanceof Number number ? number.intValue() : Integer.parseInt(asString(value));
+    }
+
+    private static String asString(Object value) {
+        return value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    /**
+     * A range of cluster slots served by one master.
+     *
+     * @param start the first slot
+     * @param end   the last slot, inclusive
+     * @param node  the master, as host:port
+     */
+    record SlotRange(int start, int end, String node) {
+    }
+}
@@ -0,0 +1,29 @@
+package org.paic.insertdata.component;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Destination of the CDR batches, enabled by its name in {@code application.sinks}.
+ */
+public interface CdrSink extends CdrBatchWriter {
+
+    /**
+     * @return the name of the sink in {@code application.sinks}
+     */
+    String name();
+
+    /**
+     * Gives the sink the number of batches the pipeline currently writes at the same time, which the adaptive batching
+     * may change.
+     *
+     * @param concurrency the current number of writer slots of the pipeline
+     */
+    default void bindConcurrency(IntSupplier concurrency) {
+    }
+
+    /**
+     * Releases the resources of the sink once the pipeline is stopped.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,106 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the single CDR pipeline of the application and delivers its batches to the sinks of {@code application.sinks}.
+ * <p>
+ * With one sink the batches are written to it directly, as the former mode processors did. With several, they are
+ * delivered to all of them by a {@link FanOutCdrBatchWriter}, so one deployment fills the database and the files from
+ * the same records.
+ * <p>
+ * With {@code configuration.dedup-enabled}, the records already written are dropped from the batches by a
+ * {@link DeduplicatingCdrBatchWriter} before they reach the sinks.
+ */
+@Slf4j
+@Component
+public class CdrSinkProcessor {
+    private final List<CdrSink> sinks;
+    private final CdrPipeline cdrPipeline;
+
+    @Autowired
+    public CdrSinkProcessor(AppProperties appProperties, CdrQueue cdrQueue, ObjectProvider<CdrSink> sinks, CdrMetrics metrics) {
+        this(appProperties, cdrQueue, sinks.orderedStream().toList(), metrics);
+    }
+
+    CdrSinkProcessor(AppProperties appProperties, CdrQueue cdrQueue, List<CdrSink> sinks) {
+        this(appProperties, cdrQueue, sinks, new CdrMetrics());
+    }
+
+    CdrSinkProcessor(AppProperties appProperties, CdrQueue cdrQueue, List<CdrSink> sinks, CdrMetrics metrics) {
+        this.sinks = orderSinks(appProperties.getSinks(), sinks);
+        String mode = this.sinks.stream()
+                .map(sink -> Character.toUpperCase(sink.name().charAt(0)) + sink.name().substring(1))
+                .collect(Collectors.joining("+"));
+        this.cdrPipeline = new CdrPipeline(mode, appProperties, cdrQueue, this.createWriter(appProperties, metrics), metrics);
+        this.sinks.forEach(sink -> sink.bindConcurrency(cdrPipeline.getController()::concurrency));
+    }
+
+    /**
+     * Orders the sinks as they are listed in {@code application.sinks}, all of them when the list is empty.
+     */
+    private static List<CdrSink> orderSinks(List<String> names, List<CdrSink> sinks) {
+        if (names == null || names.isEmpty()) {
+            return sinks;
+        }
+
+        List<CdrSink> ordered = new ArrayList<>();
+        for (String name : names) {
+            Optional<CdrSink> sink = sinks.stream().filter(candidate -> candidate.name().equalsIgnoreCase(name.trim())).findFirst();
+            sink.ifPresentOrElse(ordered::add, () -> log.error("Unknown CDR sink: {}", name));
+        }
+        return ordered;
+    }
+
+    private CdrBatchWriter createWriter(AppProperties appProperties, CdrMetrics metrics) {
+        CdrBatchWriter writer = sinks.size() == 1
+                ? sinks.getFirst()
+                : new FanOutCdrBatchWriter(sinks, appProperties.getOptionalSinks(), appProperties.getSinkMaxInFlightBatches());
+        if (!appProperties.isDedupEnabled()) {
+            return writer;
+        }
+
+        log.info("Dropping the duplicate CDR records written in the last {} ms, remembering up to {} records",
+                appProperties.getDedupWindowMillis(), appProperties.getDedupMaxKeys());
+        return new DeduplicatingCdrBatchWriter(writer, appProperties.getDedupWindowMillis(), appProperties.getDedupMaxKeys(), metrics);
+    }
+
+    /**
+     * Writes records received without Redis to the sinks, through the writer of the pipeline.
+     *
+     * @param records the decoded records
+     * @return true when the records were written, false when they must be sent again
+     */
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        return !sinks.isEmpty() && cdrPipeline.write(records);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void processCdr() {
+        if (sinks.isEmpty()) {
+            log.error("No CDR sink enabled, the CDR records are not processed");
+            return;
+        }
+        log.info("Delivering the CDR records to the sinks: {}", sinks.stream().map(CdrSink::name).toList());
+        cdrPipeline.start();
+    }
+
+    @PreDestroy
+    public void stopProcessing() {
+        cdrPipeline.stop();
+        sinks.forEach(CdrSink::close);
+    }
+}
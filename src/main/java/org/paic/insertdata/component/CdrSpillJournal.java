@@ -0,0 +1,354 @@
+package org.paic.insertdata.component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only journal of CDR batches, kept on disk while the database cannot take them.
+ * <p>
+ * The batches are appended to memory-mapped segment files, {@code journal-<id>.seg}, as entries made of the payload
+ * length, its CRC32 and the records as a JSON array, in the same format as the CDR list. An entry is synced to disk
+ * before {@link #append(List)} returns, so the batch can be acknowledged in Redis. A length of 0 ends the entries of a
+ * segment, and an entry whose CRC does not match, cut by a crash, is ignored with the rest of its segment.
+ * <p>
+ * The entries are read back in the order they were appended with {@link #peek()} and removed with
+ * {@link #remove(Entry)}, which saves the position of the next entry in the {@code checkpoint} file and deletes the
+ * segments read entirely. On startup the journal resumes from that position, so an entry is delivered at least once.
+ */
+@Slf4j
+public final class CdrSpillJournal implements Closeable {
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d{20})\\.seg");
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int ENTRY_HEADER = 2 * Integer.BYTES;
+    private static final ObjectWriter RECORDS_WRITER = new ObjectMapper().writerFor(new TypeReference<List<UtilsRecords.Cdr>>() {
+    });
+    private static final ObjectReader RECORDS_READER = new ObjectMapper().readerFor(new TypeReference<List<UtilsRecords.Cdr>>() {
+    });
+
+    /**
+     * A batch read from the journal.
+     *
+     * @param segment    the id of its segment
+     * @param nextOffset the offset of the next entry in the segment
+     * @param records    the records of the batch
+     */
+    public record Entry(long segment, int nextOffset, List<UtilsRecords.Cdr> records) {
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CRC32 crc = new CRC32();
+    /**
+     * Segments not read entirely yet, by id, with the end of their entries.
+     */
+    private final TreeMap<Long, Integer> segments = new TreeMap<>();
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private long readSegment;
+    private int readOffset;
+    private MappedByteBuffer readBuffer;
+    private long readBufferSegment = -1;
+    private long pendingBytes;
+    private long pendingEntries;
+
+    /**
+     * Opens the journal in the given directory, resuming from its checkpoint.
+     *
+     * @param directory   the directory of the segments
+     * @param segmentSize the size of a segment, larger for a single batch that does not fit
+     * @param maxSize     the size of the pending entries above which the journal is full, 0 for no limit
+     */
+    public CdrSpillJournal(Path directory, int segmentSize, long maxSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory);
+        this.recover();
+    }
+
+    private void recover() throws IOException {
+        long checkpointSegment = 0;
+        int checkpointOffset = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer position = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            checkpointSegment = position.getLong();
+            checkpointOffset = position.getInt();
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                long id = Long.parseLong(matcher.group(1));
+                if (id < checkpointSegment) {
+                    Files.delete(file);
+                    continue;
+                }
+                segments.put(id, 0);
+            }
+        }
+
+        for (Long id : segments.keySet()) {
+            MappedByteBuffer buffer = this.map(id, FileChannel.MapMode.READ_ONLY, 0);
+            int offset = id == checkpointSegment ? checkpointOffset : 0;
+            int end = offset;
+            while (true) {
+                int length = this.validEntryLength(buffer, end);
+                if (length < 0) {
+                    break;
+                }
+                end += ENTRY_HEADER + length;
+                pendingEntries++;
+                pendingBytes += ENTRY_HEADER + length;
+            }
+            segments.put(id, end);
+        }
+
+        readSegment = segments.isEmpty() ? checkpointSegment : Math.max(checkpointSegment, segments.firstKey());
+        readOffset = readSegment == checkpointSegment ? checkpointOffset : 0;
+        // the last segment may end with a cut entry, the new entries go to a new segment
+        writeSegment = segments.isEmpty() ? checkpointSegment : segments.lastKey();
+        if (pendingEntries > 0) {
+            log.warn("Spill journal {} holds {} batches to replay", directory, pendingEntries);
+        }
+    }
+
+    /**
+     * Returns the length of the valid entry at the given offset.
+     *
+     * @return -1 at the end of the entries, or when the entry is incomplete
+     */
+    private int validEntryLength(ByteBuffer buffer, int offset) {
+        if (offset + ENTRY_HEADER > buffer.limit()) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + ENTRY_HEADER + length > buffer.limit()) {
+            return -1;
+        }
+        crc.reset();
+        crc.update(buffer.slice(offset + ENTRY_HEADER, length));
+        if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+            log.warn("Ignoring the incomplete entry at offset {} of the spill journal", offset);
+            return -1;
+        }
+        return length;
+    }
+
+    /**
+     * Returns whether no batch is waiting in the journal.
+     */
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return pendingEntries == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether the pending batches reached the maximum size of the journal.
+     */
+    public boolean isFull() {
+        lock.lock();
+        try {
+            return maxSize > 0 && pendingBytes >= maxSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a batch and syncs it to disk.
+     *
+     * @param records the records of the batch
+     */
+    public void append(List<UtilsRecords.Cdr> records) throws IOException {
+        byte[] payload = RECORDS_WRITER.writeValueAsBytes(records);
+        lock.lock();
+        try {
+            int entrySize = ENTRY_HEADER + payload.length;
+            if (writeBuffer == null || writeBuffer.remaining() < entrySize) {
+                this.nextWriteSegment(entrySize);
+            }
+
+            int offset = writeBuffer.position();
+            crc.reset();
+            crc.update(payload);
+            writeBuffer.put(offset + ENTRY_HEADER, payload)
+                    .putInt(offset + Integer.BYTES, (int) crc.getValue())
+                    .putInt(offset, payload.length)
+                    .position(offset + entrySize);
+            writeBuffer.force(offset, entrySize);
+
+            segments.put(writeSegment, offset + entrySize);
+            pendingEntries++;
+            pendingBytes += entrySize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void nextWriteSegment(int entrySize) throws IOException {
+        writeSegment++;
+        // the length 0 after the last entry is the end marker, so an entry never fills a segment exactly
+        writeBuffer = this.map(writeSegment, FileChannel.MapMode.READ_WRITE, Math.max(segmentSize, entrySize + Integer.BYTES));
+        writeBuffer.limit(writeBuffer.capacity() - Integer.BYTES);
+        segments.put(writeSegment, 0);
+        log.debug("Spill journal segment {} created", writeSegment);
+    }
+
+    /**
+     * Returns the oldest batch of the journal, without removing it.
+     *
+     * @return the batch, or null when the journal is empty
+     */
+    public Entry peek() throws IOException {
+        lock.lock();
+        try {
+            while (pendingEntries > 0) {
+                Integer end = segments.get(readSegment);
+                if (end == null || readOffset >= end) {
+                    // the segment is read entirely, it is deleted once the checkpoint has moved past it
+                    Long next = segments.higherKey(readSegment);
+                    if (next == null) {
+                        return null;
+                    }
+                    readSegment = next;
+                    readOffset = 0;
+                    continue;
+                }
+
+                ByteBuffer buffer = this.readBuffer(readSegment);
+                int length = buffer.getInt(readOffset);
+                byte[] payload = new byte[length];
+                buffer.get(readOffset + ENTRY_HEADER, payload);
+                List<UtilsRecords.Cdr> records = RECORDS_READER.readValue(payload);
+                return new Entry(readSegment, readOffset + ENTRY_HEADER + length, records);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the given batch, the last one returned by {@link #peek()}, once it is written to the database.
+     */
+    public void remove(Entry entry) throws IOException {
+        lock.lock();
+        try {
+            pendingBytes -= entry.nextOffset() - readOffset;
+            pendingEntries--;
+            readOffset = entry.nextOffset();
+            this.saveCheckpoint();
+
+            // deletes the segments before the one being read, and the one being read when it is complete
+            while (!segments.isEmpty()) {
+                long first = segments.firstKey();
+                if (first >= readSegment && !this.isSealed(first)) {
+                    break;
+                }
+                segments.remove(first);
+                Files.deleteIfExists(this.segmentFile(first));
+                if (readBufferSegment == first) {
+                    readBuffer = null;
+                    readBufferSegment = -1;
+                }
+                if (first == writeSegment) {
+                    writeBuffer = null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether the given segment is read entirely and will not receive more entries.
+     */
+    private boolean isSealed(long segment) {
+        return segment == readSegment && readOffset >= segments.get(segment)
+                && (segment != writeSegment || pendingEntries == 0);
+    }
+
+    private void saveCheckpoint() throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(readSegment).putInt(readOffset).flip());
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private ByteBuffer readBuffer(long segment) throws IOException {
+        if (segment == writeSegment && writeBuffer != null) {
+            return writeBuffer;
+        }
+        if (readBufferSegment != segment) {
+            readBuffer = this.map(segment, FileChannel.MapMode.READ_ONLY, 0);
+            readBufferSegment = segment;
+        }
+        return readBuffer;
+    }
+
+    private MappedByteBuffer map(long segment, FileChannel.MapMode mode, long size) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(this.segmentFile(segment), options)) {
+            return channel.map(mode, 0, mode == FileChannel.MapMode.READ_ONLY ? channel.size() : size);
+        }
+    }
+
+    private Path segmentFile(long segment) {
+        return directory.resolve("journal-%020d.seg".formatted(segment));
+    }
+
+    /**
+     * Syncs the active segment. The segments stay on disk to be replayed on the next start.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (Objects.nonNull(writeBuffer)) {
+                writeBuffer.force();
+            }
+            writeBuffer = null;
+            readBuffer = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.paic.insertdata.component;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.config.ConditionalOnSink;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the rows written to the cdr_staging table by the staging write strategy into the cdr table.
+ * <p>
+ * Every {@code jdbc.staging-merge-interval-millis} the oldest staged rows are merged in chunks of
+ * {@code jdbc.staging-merge-batch-size} by the {@code cdr_merge_staging} function of the V3 migration, one
+ * transaction per chunk: a set-based {@code INSERT ... SELECT} casts the text values to the column types and inserts
+ * the rows staged several times once, then the chunk is deleted from the staging table.
+ * <p>
+ * The records are converted before they are staged, by the same {@link CdrColumnBinder} as the copy strategy, so the
+ * record dates are already formatted in the time zone of the application and the records that cannot be converted are
+ * rejected with the batch and moved to the dead-letter list. The merge only parses that text, as the cdr table would on
+ * a COPY, so the conversion is not moved off the workers; what the staging strategy saves them is the WAL and the
+ * index maintenance of the cdr table. The merge goes on
+ * while the chunks are full, up to {@code jdbc.staging-merge-max-batches} chunks, so a backlog does not hold the
+ * scheduler shared with the partition maintenance. Errors are logged and the rows stay staged for the next run.
+ */
+@Slf4j
+@Component
+@ConditionalOnSink("database")
+@ConditionalOnProperty(name = "jdbc.write-strategy", havingValue = BulkInserter.STAGING_STRATEGY)
+public class CdrStagingMerger {
+    static final String MERGE_QUERY = "SELECT cdr_merge_staging(?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final int maxBatches;
+
+    public CdrStagingMerger(JdbcTemplate jdbcTemplate, AppProperties appProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = Math.max(1, appProperties.getStagingMergeBatchSize());
+        this.maxBatches = Math.max(1, appProperties.getStagingMergeMaxBatches());
+        log.info("Merging the staged cdr rows in chunks of {} rows, up to {} chunks per run", batchSize, maxBatches);
+    }
+
+    /**
+     * Merges the staged rows into the cdr table.
+     *
+     * @return the number of rows taken from the staging table
+     */
+    @Scheduled(fixedDelayString = "#{@appProperties.stagingMergeIntervalMillis}")
+    public long mergeStaged() {
+        long merged = 0;
+        try {
+            for (int i = 0; i < maxBatches; i++) {
+                Integer taken = jdbcTemplate.queryForObject(MERGE_QUERY, Integer.class, batchSize);
+                if (taken == null || taken == 0) {
+                    break;
+                }
+
+                merged += taken;
+                if (taken < batchSize) {
+                    break;
+                }
+            }
+        } catch (DataAccessException e) {
+            log.error("Error while merging the staged cdr rows", e);
+        }
+
+        if (merged > 0) {
+            log.debug("Merged {} staged cdr rows", merged);
+        }
+        return merged;
+    }
+
+    /**
+     * Merges the rows staged before the shutdown, the rest is merged on the next start.
+     */
+    @PreDestroy
+    public void close() {
+        this.mergeStaged();
+    }
+}
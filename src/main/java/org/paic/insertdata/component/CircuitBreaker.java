@@ -0,0 +1,100 @@
+package org.paic.insertdata.component;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker of a sink, so the records are not taken from Redis while the sink is known to be unavailable.
+ * <ul>
+ *     <li>{@code CLOSED}: the batches are written. The breaker opens after a number of consecutive failed batches.</li>
+ *     <li>{@code OPEN}: the batches are refused without calling the sink, and the pipeline stops taking records.</li>
+ *     <li>{@code HALF_OPEN}: once the open period has elapsed a single trial batch is written. The breaker closes when
+ *     it succeeds and opens again when it fails.</li>
+ * </ul>
+ */
+@Slf4j
+public class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    /**
+     * @param name             the name of the protected sink, for the logs
+     * @param failureThreshold the consecutive failed batches opening the breaker, 0 never opens it
+     * @param openMillis       how long the breaker stays open before a trial batch
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this(name, failureThreshold, openMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int failureThreshold, long openMillis, LongSupplier nanoClock) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, openMillis));
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Returns whether a batch may be taken for the sink: the breaker is closed, or open for longer than the open period.
+     *
+     * @return false while the sink is considered unavailable or a trial batch is being written
+     */
+    public synchronized boolean isReady() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> this.openPeriodElapsed();
+            case HALF_OPEN -> false;
+        };
+    }
+
+    /**
+     * Asks to write a batch. Once the open period has elapsed, the first caller gets the trial batch.
+     *
+     * @return false when the batch must be refused without calling the sink
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && this.openPeriodElapsed()) {
+            log.info("Trying the {} sink again after {} ms", name, TimeUnit.NANOSECONDS.toMillis(openNanos));
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("The {} sink is available again, resuming", name);
+        }
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || (failureThreshold > 0 && state == State.CLOSED && failures >= failureThreshold)) {
+            log.warn("The {} sink failed {} batches in a row, pausing for {} ms", name, failures, TimeUnit.NANOSECONDS.toMillis(openNanos));
+            state = State.OPEN;
+            openedAt = nanoClock.getAsLong();
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    private boolean openPeriodElapsed() {
+        return nanoClock.getAsLong() - openedAt >= openNanos;
+    }
+}
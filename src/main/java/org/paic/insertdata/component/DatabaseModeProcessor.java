@@ -1,59 +1,318 @@
 package org.paic.insertdata.component;
 
 import com.paicbd.smsc.dto.UtilsRecords;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.config.ConditionalOnSink;
 import org.paic.insertdata.util.AppProperties;
-import org.paic.insertdata.util.CommonUtils;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.NestedExceptionUtils;
 import org.springframework.dao.DataAccessException;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.NonTransientDataAccessException;
 import org.springframework.stereotype.Component;
-import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
+import org.springframework.transaction.TransactionException;
+import reactor.core.Disposable;
 import reactor.core.scheduler.Schedulers;
-import redis.clients.jedis.JedisCluster;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sink of the database mode, inserting the batches into the cdr table with the {@link BulkInserter}.
+ * <p>
+ * A batch failing on the database is retried up to {@code jdbc.max-retries} times, waiting between the attempts from
+ * {@code jdbc.retry-backoff-millis}, doubled on every attempt up to {@code jdbc.retry-max-backoff-millis}. Errors that
+ * cannot be solved by retrying, such as a missing table, are not retried. After {@code jdbc.circuit-breaker-failures}
+ * batches failed in a row, the {@link CircuitBreaker} pauses the consumption of Redis for
+ * {@code jdbc.circuit-breaker-open-millis}, then lets a single trial batch through.
+ * <p>
+ * A batch rejected because of its data,
+ * a {@link DataIntegrityViolationException} such as a number that cannot be parsed or a value too long for its column,
+ * is not retried as a whole: it is split in halves that are inserted on their own, and the halves still rejected are
+ * split again, until the rejected records are isolated. Those records are moved to the {@link CdrDeadLetterQueue} with
+ * the error, and the rest of the batch is committed. The records of the halves that could not be inserted, because
+ * the database failed meanwhile, are spilled on their own when the spill journal is enabled, otherwise the whole batch is
+ * taken again and its committed records are inserted twice.
+ * <p>
+ * With {@code jdbc.spill-enabled}, the batches that cannot be inserted, because the retries are exhausted or the
+ * circuit breaker is open, are appended to the {@link CdrSpillJournal} instead and acknowledged in Redis, so Redis does
+ * not fill up while the database is down. A replayer drains the journal into the database in order once it is
+ * available again, while the workers insert the new batches directly as soon as the circuit breaker lets them through,
+ * so the spilled backlog does not limit the inserts to the single replayer. The spilled batches are thus inserted after
+ * newer ones. The consumption of Redis is only paused when the journal is full.
+ * <p>
+ * With {@code jdbc.rollup-enabled}, the records of every committed insert are counted by the {@link CdrRollup}, which
+ * is flushed when the sink is closed.
+ */
 @Slf4j
 @Component
-@RequiredArgsConstructor
-@ConditionalOnProperty(name = "application.mode", havingValue = "database")
-public class DatabaseModeProcessor {
-    private final JedisCluster jedisCluster;
+@ConditionalOnSink(DatabaseModeProcessor.SINK_NAME)
+public class DatabaseModeProcessor implements CdrSink {
+    static final String SINK_NAME = "database";
+
     private final AppProperties appProperties;
     private final BulkInserter bulkInserter;
+    private final CdrDeadLetterQueue deadLetterQueue;
+    private final CdrMetrics metrics;
+    private final CircuitBreaker circuitBreaker;
+    private final CdrSpillJournal spillJournal;
+    private final Disposable replayer;
+    private final CdrRollup rollup;
+
+    DatabaseModeProcessor(AppProperties appProperties, BulkInserter bulkInserter, CdrDeadLetterQueue deadLetterQueue) {
+        this(appProperties, bulkInserter, deadLetterQueue, new CdrMetrics());
+    }
+
+    public DatabaseModeProcessor(AppProperties appProperties, BulkInserter bulkInserter, CdrDeadLetterQueue deadLetterQueue,
+                                 CdrMetrics metrics) {
+        this(appProperties, bulkInserter, deadLetterQueue, metrics, (CdrRollup) null);
+    }
+
+    @Autowired
+    public DatabaseModeProcessor(AppProperties appProperties, BulkInserter bulkInserter, CdrDeadLetterQueue deadLetterQueue,
+                                 CdrMetrics metrics, ObjectProvider<CdrRollup> rollup) {
+        this(appProperties, bulkInserter, deadLetterQueue, metrics, appProperties.isRollupEnabled() ? rollup.getIfAvailable() : null);
+    }
+
+    DatabaseModeProcessor(AppProperties appProperties, BulkInserter bulkInserter, CdrDeadLetterQueue deadLetterQueue,
+                          CdrMetrics metrics, CdrRollup rollup) {
+        this.appProperties = appProperties;
+        this.rollup = rollup;
+        this.bulkInserter = bulkInserter;
+        this.deadLetterQueue = deadLetterQueue;
+        this.metrics = metrics;
+        this.circuitBreaker = new CircuitBreaker(SINK_NAME, appProperties.getCircuitBreakerFailures(),
+                appProperties.getCircuitBreakerOpenMillis());
+        this.spillJournal = appProperties.isSpillEnabled() ? openSpillJournal(appProperties) : null;
+        long replayInterval = Math.max(1, appProperties.getSpillReplayIntervalMillis());
+        this.replayer = Objects.nonNull(spillJournal)
+                ? Schedulers.boundedElastic().schedulePeriodically(this::replaySpilled, replayInterval, replayInterval, TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    private static CdrSpillJournal openSpillJournal(AppProperties appProperties) {
+        try {
+            return new CdrSpillJournal(Paths.get(appProperties.getSpillLocation()),
+                    (int) Math.min(Integer.MAX_VALUE, appProperties.getSpillSegmentSizeMb() * 1024L * 1024L),
+                    appProperties.getSpillMaxSizeMb() * 1024L * 1024L);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error while opening the spill journal " + appProperties.getSpillLocation(), e);
+        }
+    }
+
+    @Override
+    public String name() {
+        return SINK_NAME;
+    }
+
+    @Override
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        return this.insertIntoDatabase(records);
+    }
+
+    /**
+     * With the spill journal the batches are taken while it has room, otherwise while the circuit breaker is closed.
+     */
+    @Override
+    public boolean isReady() {
+        return Objects.nonNull(spillJournal) ? !spillJournal.isFull() : circuitBreaker.isReady();
+    }
+
+    @Override
+    public void close() {
+        if (Objects.nonNull(replayer)) {
+            replayer.dispose();
+        }
+        if (Objects.nonNull(spillJournal)) {
+            spillJournal.close();
+        }
+        if (Objects.nonNull(rollup)) {
+            rollup.flush();
+        }
+    }
+
+    public boolean insertIntoDatabase(List<UtilsRecords.Cdr> list) {
+        if (!circuitBreaker.tryAcquire()) {
+            log.debug("The database is unavailable, refusing {} cdr", list.size());
+            return Objects.nonNull(spillJournal) && this.spill(list);
+        }
+
+        log.debug("Inserting {} cdr to database", list.size());
+        try {
+            return this.insertWithRetries(list) || (Objects.nonNull(spillJournal) && this.spill(list));
+        } catch (DataIntegrityViolationException e) {
+            log.warn("{} cdr rejected by the database, isolating the invalid records", list.size());
+            List<UtilsRecords.Cdr> uncommitted = new ArrayList<>();
+            this.bisect(list, e, uncommitted);
+            if (uncommitted.isEmpty()) {
+                return true;
+            }
+            if (Objects.nonNull(spillJournal)) {
+                return this.spill(uncommitted);
+            }
+            log.warn("{} of {} cdr could not be inserted, the batch will be taken again with the records already committed",
+                    uncommitted.size(), list.size());
+            return false;
+        }
+    }
+
+    private boolean spill(List<UtilsRecords.Cdr> list) {
+        try {
+            spillJournal.append(list);
+            metrics.onSpilled(list.size());
+            log.debug("{} cdr appended to the spill journal", list.size());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("Error while appending {} cdr to the spill journal", list.size(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Inserts the spilled batches in order, until the journal is empty or the database fails again.
+     */
+    private void replaySpilled() {
+        try {
+            CdrSpillJournal.Entry entry;
+            while ((entry = spillJournal.peek()) != null && circuitBreaker.tryAcquire()) {
+                List<UtilsRecords.Cdr> uncommitted = new ArrayList<>();
+                try {
+                    if (!this.insertWithRetries(entry.records())) {
+                        return;
+                    }
+                } catch (DataIntegrityViolationException e) {
+                    this.bisect(entry.records(), e, uncommitted);
+                }
+                if (!uncommitted.isEmpty()) {
+                    // only the records not committed are kept, at the end of the journal
+                    spillJournal.append(uncommitted);
+                }
+                spillJournal.remove(entry);
+                log.debug("{} cdr replayed from the spill journal", entry.records().size() - uncommitted.size());
+                if (!uncommitted.isEmpty()) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Error while replaying the spill journal", e);
+        }
+    }
+
+    /**
+     * Inserts the records, retrying with an exponential backoff the failures that are not caused by their data. The
+     * outcome is reported to the circuit breaker whatever the failure, so a trial batch always settles it. The records
+     * inserted are counted by the rollup.
+     *
+     * @throws DataIntegrityViolationException when the database rejects the records
+     */
+    private boolean insertWithRetries(List<UtilsRecords.Cdr> list) {
+        boolean available = false;
+        try {
+            int retries = 0;
+            while (retries < appProperties.getMaxRetries()) {
+                if (retries > 0) {
+                    if (!this.backoff(retries)) {
+                        break;
+                    }
+                    metrics.onRetry();
+                }
+                try {
+                    bulkInserter.saveCdrBulk(list);
+                    available = true;
+                    if (Objects.nonNull(rollup)) {
+                        rollup.add(list);
+                    }
+                    return true;
+                } catch (DataIntegrityViolationException e) {
+                    // the database is available, only these records are wrong
+                    available = true;
+                    throw e;
+                } catch (DataAccessException | TransactionException e) {
+                    log.error("Error while saving cdr to database, retry number: {}", retries, e);
+                    if (!isRetryable(e)) {
+                        break;
+                    }
+                    retries++;
+                } catch (RuntimeException e) {
+                    log.error("Unexpected error while saving cdr to database", e);
+                    break;
+                }
+            }
+            return false;
+        } finally {
+            if (available) {
+                circuitBreaker.onSuccess();
+            } else {
+                circuitBreaker.onFailure();
+            }
+        }
+    }
+
+    /**
+     * Errors are retried unless they are known to be permanent. Connection failures are retried, as the database may
+     * come back, and so are the transactions that could not be started or committed.
+     */
+    private static boolean isRetryable(RuntimeException e) {
+        return e instanceof TransactionException
+                || !(e instanceof NonTransientDataAccessException)
+                || e instanceof DataAccessResourceFailureException;
+    }
+
+    /**
+     * Waits before the given retry.
+     *
+     * @return false when interrupted
+     */
+    private boolean backoff(int retry) {
+        long delay = Math.min(appProperties.getRetryBackoffMillis() << Math.min(retry - 1, 20), appProperties.getRetryMaxBackoffMillis());
+        if (delay <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Inserts both halves of rejected records on their own, splitting again the halves that are rejected. Both halves
+     * are always tried, so the records committed are known whatever happens to the other half.
+     *
+     * @param uncommitted receives the records neither inserted nor moved to the dead-letter list
+     */
+    private void bisect(List<UtilsRecords.Cdr> rejected, DataIntegrityViolationException error, List<UtilsRecords.Cdr> uncommitted) {
+        if (rejected.size() == 1) {
+            String reason = NestedExceptionUtils.getMostSpecificCause(error).getMessage();
+            if (deadLetterQueue.send(SINK_NAME, rejected.getFirst(), reason)) {
+                metrics.onDeadLettered();
+            } else {
+                uncommitted.add(rejected.getFirst());
+            }
+            return;
+        }
+
+        int middle = rejected.size() / 2;
+        this.insertHalf(rejected.subList(0, middle), uncommitted);
+        this.insertHalf(rejected.subList(middle, rejected.size()), uncommitted);
+    }
 
-    @Async
-    @Scheduled(fixedRateString = "${configuration.interval-millis}")
-    public void processCdrInDatabase() {
-        CommonUtils.processCdr("Database", appProperties, jedisCluster, this::insertIntoDatabase);
-    }
-
-    public void insertIntoDatabase(String listName, int batchSize, int workers) {
-        log.debug("Inserting cdr to database. listName: {}, batchSize: {}, workers: {}", listName, batchSize, workers);
-        Flux<List<UtilsRecords.Cdr>> cdrFlux = CommonUtils.getCdrBatches(jedisCluster, listName, batchSize, workers);
-
-        cdrFlux.publishOn(Schedulers.boundedElastic())
-                .flatMap(list -> Mono.fromRunnable(() -> cdrPerformed(list))
-                        .subscribeOn(Schedulers.boundedElastic()))
-                .doOnComplete(() -> log.warn("CDR data inserted successfully into the database"))
-                .subscribe();
-    }
-
-    private void cdrPerformed(List<UtilsRecords.Cdr> list) {
-        int retries = 0;
-        boolean success = false;
-        while (retries < appProperties.getMaxRetries() && !success) {
-            try {
-                bulkInserter.saveCdrBulk(list);
-                success = true;
-            } catch (DataAccessException e) {
-                log.error("Error while saving cdr to database, retry number: {}", retries, e);
-                retries++;
+    private void insertHalf(List<UtilsRecords.Cdr> half, List<UtilsRecords.Cdr> uncommitted) {
+        try {
+            if (!this.insertWithRetries(half)) {
+                uncommitted.addAll(half);
             }
+        } catch (DataIntegrityViolationException e) {
+            this.bisect(half, e, uncommitted);
         }
     }
 }
@@ -0,0 +1,198 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Writer that drops the records already written within a time window before handing the batch to the delegate.
+ * <p>
+ * A record is identified by its message id, message type and status, so the successive states of a message are kept.
+ * The keys written in the last {@code configuration.dedup-window-millis} are remembered, up to
+ * {@code configuration.dedup-max-keys}, the oldest ones being forgotten first:
+ * <ul>
+ *     <li>A Bloom filter answers for the keys never seen, most of them, without touching the exact set.</li>
+ *     <li>A key the Bloom filter may have seen is looked up in the exact set of the window, so a false positive never
+ *     drops a record. A duplicate whose key was already forgotten is written again.</li>
+ * </ul>
+ * The Bloom filter is made of two generations, the older one dropped every window, so it forgets the keys as the exact
+ * set does. The keys of a batch are remembered only once the delegate has written it, so a batch that failed is
+ * written in full when it is taken again. Duplicates within a batch are dropped as well.
+ */
+@Slf4j
+public class DeduplicatingCdrBatchWriter implements CdrBatchWriter {
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final CdrBatchWriter delegate;
+    private final CdrMetrics metrics;
+    private final long windowNanos;
+    private final int maxKeys;
+    private final LongSupplier nanoClock;
+    /**
+     * Keys written in the window, with the time they were written, oldest first.
+     */
+    private final LinkedHashMap<String, Long> written = new LinkedHashMap<>();
+    private BloomFilter current;
+    private BloomFilter previous;
+    private long generationStartNanos;
+
+    /**
+     * @param delegate     the writer of the records that are not duplicates
+     * @param windowMillis the time a written key is remembered
+     * @param maxKeys      the maximum number of keys remembered
+     * @param metrics      counts the dropped duplicates
+     */
+    public DeduplicatingCdrBatchWriter(CdrBatchWriter delegate, long windowMillis, int maxKeys, CdrMetrics metrics) {
+        this(delegate, windowMillis, maxKeys, metrics, System::nanoTime);
+    }
+
+    DeduplicatingCdrBatchWriter(CdrBatchWriter delegate, long windowMillis, int maxKeys, CdrMetrics metrics, LongSupplier nanoClock) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+        this.maxKeys = Math.max(1, maxKeys);
+        this.nanoClock = nanoClock;
+        this.current = new BloomFilter(this.maxKeys, FALSE_POSITIVE_RATE);
+        this.previous = new BloomFilter(this.maxKeys, FALSE_POSITIVE_RATE);
+        this.generationStartNanos = nanoClock.getAsLong();
+    }
+
+    @Override
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        List<UtilsRecords.Cdr> unique = new ArrayList<>(records.size());
+        List<String> keys = new ArrayList<>(records.size());
+        Set<String> batchKeys = new HashSet<>();
+        synchronized (this) {
+            this.expire(nanoClock.getAsLong());
+            for (UtilsRecords.Cdr cdr : records) {
+                String key = key(cdr);
+                if (batchKeys.add(key) && !this.isWritten(key)) {
+                    unique.add(cdr);
+                    keys.add(key);
+                }
+            }
+        }
+
+        int duplicates = records.size() - unique.size();
+        if (duplicates > 0) {
+            log.debug("Dropping {} duplicate cdr of {}", duplicates, records.size());
+            metrics.onDuplicates(duplicates);
+        }
+        if (unique.isEmpty()) {
+            return true;
+        }
+        if (!delegate.write(unique)) {
+            return false;
+        }
+
+        synchronized (this) {
+            long now = nanoClock.getAsLong();
+            for (String key : keys) {
+                written.put(key, now);
+                current.add(key);
+            }
+            this.expire(now);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+    private boolean isWritten(String key) {
+        return (current.mightContain(key) || previous.mightContain(key)) && written.containsKey(key);
+    }
+
+    /**
+     * Forgets the keys older than the window, and the oldest ones above the maximum number of keys.
+     */
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Long>> oldest = written.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Map.Entry<String, Long> entry = oldest.next();
+            if (written.size() <= maxKeys && now - entry.getValue() < windowNanos) {
+                break;
+            }
+            oldest.remove();
+        }
+
+        if (now - generationStartNanos >= windowNanos) {
+            previous = current;
+            current = new BloomFilter(maxKeys, FALSE_POSITIVE_RATE);
+            generationStartNanos = now;
+        }
+    }
+
+    int rememberedKeys() {
+        return written.size();
+    }
+
+    static String key(UtilsRecords.Cdr cdr) {
+        return cdr.messageId() + '\u0000' + cdr.messageType() + '\u0000' + cdr.status();
+    }
+
+    /**
+     * Bloom filter of strings, with the indexes derived from one 64-bit hash by double hashing.
+     */
+    static final class BloomFilter {
+        private final long[] bits;
+        private final long size;
+        private final int hashes;
+
+        BloomFilter(int expectedKeys, double falsePositiveRate) {
+            long bitCount = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) Math.max(1, (bitCount + 63) / 64)];
+            this.size = bits.length * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) size / expectedKeys * Math.log(2)));
+        }
+
+        void add(String key) {
+            long hash = hash(key);
+            int first = (int) hash;
+            int second = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                long index = Integer.toUnsignedLong(first + i * second) % size;
+                bits[(int) (index >>> 6)] |= 1L << index;
+            }
+        }
+
+        boolean mightContain(String key) {
+            long hash = hash(key);
+            int first = (int) hash;
+            int second = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                long index = Integer.toUnsignedLong(first + i * second) % size;
+                if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * FNV-1a over the chars of the key, with a final mix so both halves are usable.
+         */
+        private static long hash(String key) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                hash ^= key.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
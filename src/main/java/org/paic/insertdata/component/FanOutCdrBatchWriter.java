@@ -0,0 +1,161 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
+/**
+ * Writer that delivers every batch to several sinks at the same time, so the records are taken and decoded once.
+ * <p>
+ * Every sink has its own limit of batches being written, so a slow sink does not take the threads of the others:
+ * <ul>
+ *     <li>Required sinks are written in parallel and the batch is acknowledged only when all of them wrote it. A batch
+ *     waits for a free slot of every required sink, which holds back the pipeline as a single sink would. When one of
+ *     them fails the batch is released, and the sinks that did write it are remembered with the batch, so when the
+ *     same records are delivered again only the sinks that failed write them.</li>
+ *     <li>Optional sinks are written in the background and never hold back the batch. A sink without a free slot or
+ *     failing to write the batch skips it, with a warning. A batch delivered again is not written to them.</li>
+ * </ul>
+ * The last {@value #MAX_PARTIALLY_WRITTEN} batches failed by some of the required sinks are remembered. A batch that
+ * is not delivered again with the same records, such as one received over HTTP and sent again split differently, is
+ * written again to every sink.
+ */
+@Slf4j
+public class FanOutCdrBatchWriter implements CdrBatchWriter {
+    static final int MAX_PARTIALLY_WRITTEN = 32;
+
+    private final List<SinkSlots> required = new ArrayList<>();
+    private final List<SinkSlots> optional = new ArrayList<>();
+    /**
+     * Batches failed by some of the required sinks, with the sinks that wrote them, oldest first.
+     */
+    private final Map<List<UtilsRecords.Cdr>, Set<SinkSlots>> partiallyWritten = new LinkedHashMap<>();
+
+    /**
+     * @param sinks         the sinks receiving every batch
+     * @param optionalSinks the names of the sinks whose failures do not fail the batch
+     * @param maxInFlight   the maximum number of batches being written by every sink
+     */
+    public FanOutCdrBatchWriter(List<? extends CdrSink> sinks, Collection<String> optionalSinks, int maxInFlight) {
+        for (CdrSink sink : sinks) {
+            SinkSlots slots = new SinkSlots(sink, Math.max(1, maxInFlight));
+            if (optionalSinks.stream().map(String::trim).anyMatch(sink.name()::equalsIgnoreCase)) {
+                optional.add(slots);
+            } else {
+                required.add(slots);
+            }
+        }
+    }
+
+    @Override
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        if (required.size() == 1) {
+            optional.forEach(slots -> slots.writeInBackground(records));
+            return required.getFirst().write(records);
+        }
+
+        Set<SinkSlots> written = this.takePartiallyWritten(records);
+        if (written == null) {
+            optional.forEach(slots -> slots.writeInBackground(records));
+            written = new HashSet<>();
+        }
+        List<SinkSlots> pending = required.stream().filter(Predicate.not(written::contains)).toList();
+        // every required sink is waited for, even after a failure, so no write is left running once the batch is released
+        List<SinkSlots> succeeded = Flux.fromIterable(pending)
+                .flatMap(slots -> Mono.fromCallable(() -> slots.write(records))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .filter(Boolean::booleanValue)
+                                .map(ok -> slots),
+                        Math.max(1, pending.size()))
+                .collectList()
+                .block();
+        if (succeeded != null && succeeded.size() == pending.size()) {
+            return true;
+        }
+
+        if (succeeded != null) {
+            written.addAll(succeeded);
+        }
+        this.rememberPartiallyWritten(records, written);
+        return false;
+    }
+
+    private synchronized Set<SinkSlots> takePartiallyWritten(List<UtilsRecords.Cdr> records) {
+        return partiallyWritten.isEmpty() ? null : partiallyWritten.remove(records);
+    }
+
+    private synchronized void rememberPartiallyWritten(List<UtilsRecords.Cdr> records, Set<SinkSlots> written) {
+        partiallyWritten.put(List.copyOf(records), written);
+        if (partiallyWritten.size() > MAX_PARTIALLY_WRITTEN) {
+            partiallyWritten.remove(partiallyWritten.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * The batches are taken only when every required sink can write them.
+     */
+    @Override
+    public boolean isReady() {
+        return required.stream().allMatch(slots -> slots.sink.isReady());
+    }
+
+    private static final class SinkSlots {
+        private final CdrSink sink;
+        private final Semaphore slots;
+
+        private SinkSlots(CdrSink sink, int maxInFlight) {
+            this.sink = sink;
+            this.slots = new Semaphore(maxInFlight);
+        }
+
+        private boolean write(List<UtilsRecords.Cdr> records) {
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            try {
+                return this.writeSafely(records);
+            } finally {
+                slots.release();
+            }
+        }
+
+        private void writeInBackground(List<UtilsRecords.Cdr> records) {
+            if (!slots.tryAcquire()) {
+                log.warn("The {} sink is busy, skipping {} CDR records", sink.name(), records.size());
+                return;
+            }
+            Mono.fromCallable(() -> this.writeSafely(records))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .doFinally(signal -> slots.release())
+                    .subscribe(written -> {
+                        if (!written) {
+                            log.warn("The {} sink could not write {} CDR records, skipping them", sink.name(), records.size());
+                        }
+                    });
+        }
+
+        private boolean writeSafely(List<UtilsRecords.Cdr> records) {
+            try {
+                return sink.write(records);
+            } catch (RuntimeException e) {
+                log.error("Error while writing {} CDR records to the {} sink", records.size(), sink.name(), e);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.paic.insertdata.component;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the blocks of the CDR file sink on its own thread, each block into an independent gzip member.
+ * <p>
+ * The blocks are queued in the order they are submitted and written in that order by the member writer, so the
+ * concatenated members form a valid gzip file that {@code gunzip} or {@code zcat} read as a whole. As every member is
+ * complete, a file cut by a crash can still be decompressed up to its last complete member. The queue is bounded, so
+ * the writers only wait when the compression falls more than the whole queue behind.
+ */
+@Slf4j
+final class GzipBlockCompressor implements Closeable {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+    private static final Block END = new Block(null, -1);
+
+    /**
+     * Writes a compressed member to the active file.
+     */
+    interface MemberWriter {
+        void write(ByteBuffer member, long sequence) throws IOException;
+    }
+
+    private final MemberWriter memberWriter;
+    private final Consumer<ByteBuffer> recycler;
+    private final BlockingQueue<Block> queue;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final ReentrantLock submitLock = new ReentrantLock();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition processedCondition = lock.newCondition();
+    private final Thread thread;
+
+    private ByteBuffer member = ByteBuffer.allocate(CdrFileSink.BUFFER_SIZE);
+    private long submitted;
+    private long processed;
+    private long lastFailed = -1;
+
+    /**
+     * @param level        the deflate level, from 1 (fastest) to 9
+     * @param capacity     the maximum number of blocks waiting to be compressed
+     * @param memberWriter the writer of the compressed members
+     * @param recycler     receives every block once compressed, to reuse it
+     */
+    GzipBlockCompressor(int level, int capacity, MemberWriter memberWriter, Consumer<ByteBuffer> recycler) {
+        this.memberWriter = memberWriter;
+        this.recycler = recycler;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.deflater = new Deflater(Math.clamp(level, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION), true);
+        this.thread = Thread.ofPlatform().daemon().name("cdr-compressor").start(this::run);
+    }
+
+    /**
+     * Queues the content of a block, from its start to its position, to be compressed. The block must not be used by
+     * the caller anymore.
+     *
+     * @param block the block
+     * @return the sequence of the block, increasing in submission order
+     */
+    long submit(ByteBuffer block) throws InterruptedIOException {
+        // the sequence and the queue order must match
+        submitLock.lock();
+        try {
+            Block queued = new Block(block.flip(), ++submitted);
+            queue.put(queued);
+            return queued.sequence;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing a cdr block");
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the blocks from the first to the last sequence are written.
+     *
+     * @throws IOException when one of them could not be written
+     */
+    void awaitWritten(long first, long last) throws IOException {
+        lock.lock();
+        try {
+            while (processed < last) {
+                processedCondition.await();
+            }
+            if (lastFailed >= first) {
+                throw new IOException("A cdr block between " + first + " and " + last + " could not be written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for cdr blocks to be written");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Block block;
+            try {
+                block = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (block == END) {
+                return;
+            }
+
+            boolean failed = false;
+            try {
+                memberWriter.write(this.compress(block.buffer), block.sequence);
+            } catch (IOException | RuntimeException e) {
+                log.error("Error while writing the compressed cdr block {}", block.sequence, e);
+                failed = true;
+            } finally {
+                recycler.accept(block.buffer);
+            }
+            this.markProcessed(block.sequence, failed);
+        }
+    }
+
+    /**
+     * Compresses the block into one gzip member: the header, the raw deflate data and the CRC32 and size trailer.
+     */
+    private ByteBuffer compress(ByteBuffer block) {
+        int size = block.remaining();
+        crc.reset();
+        crc.update(block.duplicate());
+        deflater.reset();
+        deflater.setInput(block);
+        deflater.finish();
+
+        member.clear().put(GZIP_HEADER);
+        while (!deflater.finished()) {
+            if (member.remaining() < GZIP_TRAILER_LENGTH + 1) {
+                member = ByteBuffer.allocate(member.capacity() * 2).put(member.flip());
+            }
+            deflater.deflate(member);
+        }
+        if (member.remaining() < GZIP_TRAILER_LENGTH) {
+            member = ByteBuffer.allocate(member.capacity() + GZIP_TRAILER_LENGTH).put(member.flip());
+        }
+        int checksum = (int) crc.getValue();
+        return member.put((byte) checksum).put((byte) (checksum >> 8)).put((byte) (checksum >> 16)).put((byte) (checksum >> 24))
+                .put((byte) size).put((byte) (size >> 8)).put((byte) (size >> 16)).put((byte) (size >> 24))
+                .flip();
+    }
+
+    private void markProcessed(long sequence, boolean failed) {
+        lock.lock();
+        try {
+            processed = sequence;
+            if (failed) {
+                lastFailed = sequence;
+            }
+            processedCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Compresses and writes the queued blocks, then stops the compression thread.
+     */
+    @Override
+    public void close() {
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private record Block(ByteBuffer buffer, long sequence) {
+    }
+}
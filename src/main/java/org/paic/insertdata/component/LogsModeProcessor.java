@@ -1,47 +1,72 @@
 package org.paic.insertdata.component;
 
 import com.paicbd.smsc.dto.UtilsRecords;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.config.ConditionalOnSink;
 import org.paic.insertdata.util.AppProperties;
-import org.paic.insertdata.util.CommonUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.paic.insertdata.util.CdrOrdering;
 import org.springframework.stereotype.Component;
-import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
-import redis.clients.jedis.JedisCluster;
 
 import java.util.List;
+import java.util.function.IntSupplier;
 
 @Slf4j
 @Component
-@RequiredArgsConstructor
-@ConditionalOnProperty(name = "application.mode", havingValue = "logs")
-public class LogsModeProcessor {
-    private static final Logger cdrLogger = LoggerFactory.getLogger("cdrLogger");
-    private final JedisCluster jedisCluster;
+@ConditionalOnSink(LogsModeProcessor.SINK_NAME)
+public class LogsModeProcessor implements CdrSink {
+    static final String SINK_NAME = "logs";
+
     private final AppProperties appProperties;
+    private final CdrFileSink cdrFileSink;
+    private final CdrBatchWriter writer;
+    private volatile IntSupplier concurrency;
+
+    public LogsModeProcessor(AppProperties appProperties) {
+        this.appProperties = appProperties;
+        this.cdrFileSink = new CdrFileSink(appProperties);
+        this.concurrency = appProperties::getMaxInFlightBatches;
+        this.writer = this.createWriter();
+    }
+
+    /**
+     * With the global ordering, the batches written at the same time by the workers are merged before they are logged.
+     * A round is closed once every writer slot of the pipeline joined it, so when the adaptive batching removes slots
+     * the rounds do not wait for the window, which would be measured as write latency and remove more slots.
+     */
+    private CdrBatchWriter createWriter() {
+        if (CdrOrdering.of(appProperties.getCdrOrdering()) != CdrOrdering.GLOBAL) {
+            return this::writeToLogFiles;
+        }
+
+        int workers = appProperties.getCdrWorkers();
+        log.info("Logs mode. Merging the batches of up to {} workers every {} ms",
+                Math.min(workers, appProperties.getMaxInFlightBatches()), appProperties.getOrderingWindowMillis());
+        return new MergingCdrBatchWriter(this::writeToLogFiles, () -> Math.min(workers, concurrency.getAsInt()),
+                appProperties.getOrderingWindowMillis());
+    }
+
+    @Override
+    public String name() {
+        return SINK_NAME;
+    }
+
+    @Override
+    public void bindConcurrency(IntSupplier concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        return writer.write(records);
+    }
 
-    @Async
-    @Scheduled(fixedRateString = "${configuration.interval-millis}")
-    public void processCdrInLogsFile() {
-        CommonUtils.processCdr("Logs", appProperties, jedisCluster, this::writeToLogFiles);
+    @Override
+    public void close() {
+        cdrFileSink.close();
     }
 
-    public void writeToLogFiles(String listName, int batchSize, int workers) {
-        log.debug("Writing cdr to log file. listName: {}, batchSize: {}, workers: {}", listName, batchSize, workers);
-        Flux<List<UtilsRecords.Cdr>> cdrFlux = CommonUtils.getCdrBatches(jedisCluster, listName, batchSize, workers);
-
-        cdrFlux.flatMapIterable(batch -> batch)
-                .map(cdr -> CommonUtils.createStringCdr(cdr, appProperties.getSeparator()))
-                .buffer(batchSize)
-                .map(cdrStrings -> String.join(System.lineSeparator(), cdrStrings))
-                .doOnNext(cdrLogger::info)
-                .subscribeOn(Schedulers.boundedElastic())
-                .subscribe();
+    public boolean writeToLogFiles(List<UtilsRecords.Cdr> list) {
+        log.debug("Writing {} cdr to log file", list.size());
+        return cdrFileSink.write(list);
     }
 }
@@ -0,0 +1,188 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.CommonUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Writer that merges the batches written at the same time by several workers into one ordered write.
+ * <p>
+ * The batches handed to {@link #write(List)} join the current round. The round is closed when it holds one batch per
+ * party, or when its first batch has waited for the ordering window. The worker that closes the round merges its
+ * batches, each already sorted by record date, with a k-way merge and writes them with the delegate writer. Every worker
+ * of the round waits for that write and gets its result, so a batch is only acknowledged once the merged write is done.
+ */
+@Slf4j
+public class MergingCdrBatchWriter implements CdrBatchWriter {
+    private final CdrBatchWriter delegate;
+    private final IntSupplier parties;
+    private final long windowNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private Round current = new Round();
+
+    /**
+     * @param delegate     the writer of the merged records
+     * @param parties      the number of batches that close a round, usually the number of concurrent writers
+     * @param windowMillis the maximum time the first batch of a round waits for the others
+     */
+    public MergingCdrBatchWriter(CdrBatchWriter delegate, int parties, long windowMillis) {
+        this(delegate, () -> parties, windowMillis);
+    }
+
+    /**
+     * @param delegate     the writer of the merged records
+     * @param parties      the number of batches that close a round, read for every batch, so it can follow the number of
+     *                     concurrent writers when it changes
+     * @param windowMillis the maximum time the first batch of a round waits for the others
+     */
+    public MergingCdrBatchWriter(CdrBatchWriter delegate, IntSupplier parties, long windowMillis) {
+        this.delegate = delegate;
+        this.parties = parties;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+    }
+
+    @Override
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        Round round;
+        boolean closer;
+        lock.lock();
+        try {
+            round = current;
+            if (round.batches.isEmpty()) {
+                round.deadline = System.nanoTime() + windowNanos;
+            }
+            round.batches.add(records);
+            closer = round.batches.size() >= Math.max(1, parties.getAsInt()) || this.awaitClose(round);
+            if (closer) {
+                round.closed = true;
+                current = new Round();
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (closer) {
+            return this.flush(round);
+        }
+        return this.awaitResult(round);
+    }
+
+    /**
+     * Waits until the round is closed by another worker or its window is over.
+     *
+     * @return true when the window is over and the round is still open, so the caller must close it
+     */
+    private boolean awaitClose(Round round) {
+        try {
+            long remaining;
+            while (!round.closed && (remaining = round.deadline - System.nanoTime()) > 0) {
+                changed.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !round.closed;
+    }
+
+    private boolean flush(Round round) {
+        boolean written;
+        try {
+            written = delegate.write(round.batches.size() == 1 ? round.batches.getFirst() : merge(round.batches));
+        } catch (RuntimeException e) {
+            log.error("Error while writing {} merged batches", round.batches.size(), e);
+            written = false;
+        }
+
+        lock.lock();
+        try {
+            round.written = written;
+            round.done = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return written;
+    }
+
+    private boolean awaitResult(Round round) {
+        lock.lock();
+        try {
+            while (!round.done) {
+                changed.awaitUninterruptibly();
+            }
+            return round.written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Merges batches sorted by record date into one sorted list. The record date of every record is parsed once, when
+     * the record becomes the head of its batch.
+     *
+     * @param batches the batches, each sorted by record date
+     * @return the records of all the batches sorted by record date
+     */
+    static List<UtilsRecords.Cdr> merge(List<List<UtilsRecords.Cdr>> batches) {
+        int size = 0;
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(batches.size());
+        for (List<UtilsRecords.Cdr> batch : batches) {
+            size += batch.size();
+            if (!batch.isEmpty()) {
+                heads.add(new Cursor(batch));
+            }
+        }
+
+        List<UtilsRecords.Cdr> merged = new ArrayList<>(size);
+        while (!heads.isEmpty()) {
+            Cursor head = heads.poll();
+            merged.add(head.batch.get(head.index));
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    private static final class Round {
+        private final List<List<UtilsRecords.Cdr>> batches = new ArrayList<>();
+        private long deadline;
+        private boolean closed;
+        private boolean done;
+        private boolean written;
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        private final List<UtilsRecords.Cdr> batch;
+        private int index;
+        private long recordDate;
+
+        private Cursor(List<UtilsRecords.Cdr> batch) {
+            this.batch = batch;
+            this.recordDate = CommonUtils.recordDateMillis(batch.getFirst());
+        }
+
+        private boolean advance() {
+            if (++index >= batch.size()) {
+                return false;
+            }
+            recordDate = CommonUtils.recordDateMillis(batch.get(index));
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return Long.compare(recordDate, other.recordDate);
+        }
+    }
+}
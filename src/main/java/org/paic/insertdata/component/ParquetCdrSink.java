@@ -0,0 +1,193 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.AppProperties;
+import org.paic.insertdata.util.CommonUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes the CDR batches of parquet mode as Parquet files, in one directory per record date.
+ * <p>
+ * The records are grouped by the date of their record date, in the system zone as in the cdr table, and every group is
+ * written to {@code <location>/record_date=yyyy-MM-dd/cdr-<millis>-<uuid>.parquet}. Records without a valid record
+ * date go to {@code record_date=__HIVE_DEFAULT_PARTITION__}. This is the Hive layout, so Spark, Trino, DuckDB and the
+ * like prune the dates a query does not need and read only the columns it uses.
+ * <p>
+ * A Parquet file can only be read once its footer is written, so a file kept open to receive the next batches would
+ * lose the rows already acknowledged on a crash. Every write therefore produces complete files, and the batches written
+ * at the same time by the workers are grouped into the same files (group commit), so there are as many files per date
+ * as writes rather than batches. The small files of a closed date are meant to be compacted by the analytics jobs.
+ * <p>
+ * All the files of a write are first written under hidden temporary names and synced, then renamed, so the readers
+ * never see a partial file. When one of them fails the files already renamed are deleted, so a batch delivered again
+ * is not written twice, and the batch is acknowledged only once all its files are in place.
+ */
+@Slf4j
+public class ParquetCdrSink implements CdrBatchWriter {
+    static final String PARTITION_COLUMN = "record_date";
+    static final String DEFAULT_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Path location;
+    private final ParquetCdrWriter writer;
+    private final Clock clock;
+    private final ZoneId zone;
+    private final ConcurrentLinkedQueue<PendingBatch> pending = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public ParquetCdrSink(AppProperties appProperties) {
+        this(appProperties, Clock.systemDefaultZone());
+    }
+
+    ParquetCdrSink(AppProperties appProperties, Clock clock) {
+        this.location = Paths.get(appProperties.getParquetLocation());
+        this.writer = new ParquetCdrWriter(CdrColumnBinder.forCdr(), "gzip".equalsIgnoreCase(appProperties.getParquetCompression()));
+        this.clock = clock;
+        this.zone = clock.getZone();
+    }
+
+    /**
+     * Writes the batch, with the batches queued by the other workers meanwhile, as one file per record date.
+     *
+     * @param records the records to write
+     * @return false when one of the files could not be written, none of them is kept then
+     */
+    @Override
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        if (records.isEmpty()) {
+            return true;
+        }
+
+        PendingBatch batch = new PendingBatch(records);
+        pending.add(batch);
+        lock.lock();
+        try {
+            if (!batch.done) {
+                // this worker writes every batch queued so far, the others find theirs done
+                List<PendingBatch> group = new ArrayList<>();
+                for (PendingBatch next = pending.poll(); next != null; next = pending.poll()) {
+                    group.add(next);
+                }
+                boolean written = this.writeFiles(this.partition(group));
+                group.forEach(grouped -> grouped.complete(written));
+            }
+            return batch.written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Map<String, List<UtilsRecords.Cdr>> partition(List<PendingBatch> batches) {
+        Map<String, List<UtilsRecords.Cdr>> partitions = new LinkedHashMap<>();
+        String lastPartition = null;
+        List<UtilsRecords.Cdr> lastRecords = null;
+        for (PendingBatch batch : batches) {
+            for (UtilsRecords.Cdr cdr : batch.records) {
+                String partition = this.partitionOf(cdr);
+                // the batches are usually sorted by record date, so the same list is reused for consecutive records
+                if (!partition.equals(lastPartition)) {
+                    lastPartition = partition;
+                    lastRecords = partitions.computeIfAbsent(partition, key -> new ArrayList<>());
+                }
+                lastRecords.add(cdr);
+            }
+        }
+        return partitions;
+    }
+
+    private String partitionOf(UtilsRecords.Cdr cdr) {
+        long recordDate = CommonUtils.recordDateMillis(cdr);
+        if (recordDate == Long.MAX_VALUE) {
+            return DEFAULT_PARTITION;
+        }
+        return LocalDate.ofInstant(Instant.ofEpochMilli(recordDate), zone).toString();
+    }
+
+    /**
+     * Writes every partition to a temporary file, then renames them all, or none when one fails.
+     */
+    private boolean writeFiles(Map<String, List<UtilsRecords.Cdr>> partitions) {
+        List<Path[]> files = new ArrayList<>(partitions.size());
+        int renamed = 0;
+        try {
+            for (Map.Entry<String, List<UtilsRecords.Cdr>> partition : partitions.entrySet()) {
+                Path directory = location.resolve(PARTITION_COLUMN + "=" + partition.getKey());
+                String fileName = "cdr-" + clock.millis() + "-" + UUID.randomUUID() + ".parquet";
+                Path temporary = directory.resolve("." + fileName + ".tmp");
+                files.add(new Path[]{temporary, directory.resolve(fileName)});
+                this.writeTemporaryFile(directory, temporary, partition.getValue());
+            }
+            for (Path[] file : files) {
+                Files.move(file[0], file[1], StandardCopyOption.ATOMIC_MOVE);
+                renamed++;
+            }
+            log.debug("Written {} parquet files", files.size());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("Error while writing {} parquet files, removing them", files.size(), e);
+            for (int i = 0; i < files.size(); i++) {
+                this.deleteQuietly(files.get(i)[i < renamed ? 1 : 0]);
+            }
+            return false;
+        }
+    }
+
+    private void writeTemporaryFile(Path directory, Path temporary, List<UtilsRecords.Cdr> records) throws IOException {
+        Files.createDirectories(directory);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            writer.write(records, out);
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Unable to delete the parquet file {}", file, e);
+        }
+    }
+
+    /**
+     * A batch waiting to be written, and its outcome once a worker has written it.
+     */
+    private static final class PendingBatch {
+        private final List<UtilsRecords.Cdr> records;
+        private boolean done;
+        private boolean written;
+
+        private PendingBatch(List<UtilsRecords.Cdr> records) {
+            this.records = records;
+        }
+
+        private void complete(boolean written) {
+            this.written = written;
+            this.done = true;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a batch of CDR records as one Parquet file with a single row group.
+ * <p>
+ * The schema is the one of the cdr table, taken from the {@link CdrColumnBinder}: every column is optional and named
+ * after the @JsonProperty of its field. TIMESTAMP columns are INT64 epoch millis annotated as TIMESTAMP_MILLIS, BIGINT
+ * columns INT64, INTEGER columns INT32 and VARCHAR columns BYTE_ARRAY annotated as UTF8. As in the database, empty
+ * values are written as null, and so are the numbers that cannot be parsed.
+ * <p>
+ * Every column chunk is one PLAIN encoded data page (v1) with RLE definition levels, uncompressed or GZIP compressed.
+ * The numeric columns carry min, max and null count statistics, so the readers can skip the files of a date range.
+ * The page headers and the footer are encoded with the Thrift compact protocol, following parquet.thrift.
+ */
+final class ParquetCdrWriter {
+    private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+    private static final String CREATED_BY = "db-insert-data";
+
+    // parquet.thrift enumerations
+    private static final int TYPE_INT32 = 1;
+    private static final int TYPE_INT64 = 2;
+    private static final int TYPE_BYTE_ARRAY = 6;
+    private static final int REPETITION_OPTIONAL = 1;
+    private static final int CONVERTED_UTF8 = 0;
+    private static final int CONVERTED_TIMESTAMP_MILLIS = 9;
+    private static final int ENCODING_PLAIN = 0;
+    private static final int ENCODING_RLE = 3;
+    private static final int PAGE_DATA = 0;
+    private static final int CODEC_UNCOMPRESSED = 0;
+    private static final int CODEC_GZIP = 2;
+
+    private final CdrColumnBinder binder;
+    private final boolean gzip;
+
+    /**
+     * @param binder the columns of the cdr table
+     * @param gzip   whether the pages are GZIP compressed
+     */
+    ParquetCdrWriter(CdrColumnBinder binder, boolean gzip) {
+        this.binder = binder;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Writes the records as a complete Parquet file.
+     *
+     * @param records the records, at least one
+     * @param out     the stream of the file
+     */
+    void write(List<UtilsRecords.Cdr> records, OutputStream out) throws IOException {
+        out.write(MAGIC);
+        long offset = MAGIC.length;
+        ColumnChunk[] chunks = new ColumnChunk[binder.size()];
+        for (int column = 0; column < chunks.length; column++) {
+            ColumnPage page = this.encodeColumn(column, records);
+            byte[] data = page.data.toByteArray();
+            byte[] compressed = gzip ? gzip(data) : data;
+            byte[] header = pageHeader(records.size(), data.length, compressed.length, page);
+            out.write(header);
+            out.write(compressed);
+
+            chunks[column] = new ColumnChunk(page, offset, header.length + data.length, header.length + compressed.length);
+            offset += header.length + compressed.length;
+        }
+
+        byte[] footer = this.fileMetaData(records.size(), chunks);
+        out.write(footer);
+        writeIntLE(out, footer.length);
+        out.write(MAGIC);
+    }
+
+    private ColumnPage encodeColumn(int column, List<UtilsRecords.Cdr> records) throws IOException {
+        ColumnPage page = new ColumnPage(column, physicalType(binder.type(column)));
+        boolean[] defined = new boolean[records.size()];
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        for (int row = 0; row < defined.length; row++) {
+            defined[row] = page.encode(binder.value(column, records.get(row)), values);
+        }
+
+        byte[] levels = definitionLevels(defined, page.nullCount);
+        writeIntLE(page.data, levels.length);
+        page.data.write(levels);
+        values.writeTo(page.data);
+        return page;
+    }
+
+    private static int physicalType(CdrColumnBinder.ColumnType type) {
+        return switch (type) {
+            case TIMESTAMP, BIGINT -> TYPE_INT64;
+            case INTEGER -> TYPE_INT32;
+            case VARCHAR -> TYPE_BYTE_ARRAY;
+        };
+    }
+
+    /**
+     * Encodes the definition levels, bit width 1, with the RLE/bit-packed hybrid encoding: one RLE run when every value
+     * is defined or null, bit-packed groups of eight values otherwise.
+     */
+    private static byte[] definitionLevels(boolean[] defined, int nullCount) {
+        ByteArrayOutputStream levels = new ByteArrayOutputStream();
+        if (nullCount == 0 || nullCount == defined.length) {
+            writeVarint(levels, (long) defined.length << 1);
+            levels.write(nullCount == 0 ? 1 : 0);
+            return levels.toByteArray();
+        }
+
+        int groups = (defined.length + 7) / 8;
+        writeVarint(levels, (long) groups << 1 | 1);
+        for (int group = 0; group < groups; group++) {
+            int bits = 0;
+            for (int i = 0; i < 8 && group * 8 + i < defined.length; i++) {
+                if (defined[group * 8 + i]) {
+                    bits |= 1 << i;
+                }
+            }
+            levels.write(bits);
+        }
+        return levels.toByteArray();
+    }
+
+    private static byte[] pageHeader(int numValues, int uncompressedSize, int compressedSize, ColumnPage page) {
+        CompactWriter writer = new CompactWriter();
+        writer.i32(1, PAGE_DATA);
+        writer.i32(2, uncompressedSize);
+        writer.i32(3, compressedSize);
+        writer.beginStruct(5);
+        writer.i32(1, numValues);
+        writer.i32(2, ENCODING_PLAIN);
+        writer.i32(3, ENCODING_RLE);
+        writer.i32(4, ENCODING_RLE);
+        page.writeStatistics(writer, 5);
+        writer.endStruct();
+        return writer.finish();
+    }
+
+    private byte[] fileMetaData(long numRows, ColumnChunk[] chunks) {
+        CompactWriter writer = new CompactWriter();
+        writer.i32(1, 1);
+
+        writer.beginList(2, CompactWriter.STRUCT, chunks.length + 1);
+        writer.beginElement();
+        writer.string(4, "schema");
+        writer.i32(5, chunks.length);
+        writer.endStruct();
+        for (ColumnChunk chunk : chunks) {
+            writer.beginElement();
+            writer.i32(1, chunk.page.physicalType);
+            writer.i32(3, REPETITION_OPTIONAL);
+            writer.string(4, binder.columnNames().get(chunk.page.column));
+            CdrColumnBinder.ColumnType type = binder.type(chunk.page.column);
+            if (type == CdrColumnBinder.ColumnType.TIMESTAMP) {
+                writer.i32(6, CONVERTED_TIMESTAMP_MILLIS);
+            } else if (type == CdrColumnBinder.ColumnType.VARCHAR) {
+                writer.i32(6, CONVERTED_UTF8);
+            }
+            writer.endStruct();
+        }
+
+        writer.i64(3, numRows);
+
+        long uncompressedSize = 0;
+        long compressedSize = 0;
+        writer.beginList(4, CompactWriter.STRUCT, 1);
+        writer.beginElement();
+        writer.beginList(1, CompactWriter.STRUCT, chunks.length);
+        for (ColumnChunk chunk : chunks) {
+            writer.beginElement();
+            writer.i64(2, chunk.offset);
+            writer.beginStruct(3);
+            writer.i32(1, chunk.page.physicalType);
+            writer.beginList(2, CompactWriter.I32, 2);
+            writer.i32Element(ENCODING_PLAIN);
+            writer.i32Element(ENCODING_RLE);
+            writer.beginList(3, CompactWriter.BINARY, 1);
+            writer.stringElement(binder.columnNames().get(chunk.page.column));
+            writer.i32(4, gzip ? CODEC_GZIP : CODEC_UNCOMPRESSED);
+            writer.i64(5, numRows);
+            writer.i64(6, chunk.uncompressedSize);
+            writer.i64(7, chunk.compressedSize);
+            writer.i64(9, chunk.offset);
+            chunk.page.writeStatistics(writer, 12);
+            writer.endStruct();
+            writer.endStruct();
+            uncompressedSize += chunk.uncompressedSize;
+            compressedSize += chunk.compressedSize;
+        }
+        writer.i64(2, uncompressedSize);
+        writer.i64(3, numRows);
+        writer.i64(6, compressedSize);
+        writer.endStruct();
+
+        writer.string(6, CREATED_BY);
+
+        // TYPE_ORDER for every column, so the readers trust the min and max statistics
+        writer.beginList(7, CompactWriter.STRUCT, chunks.length);
+        for (int i = 0; i < chunks.length; i++) {
+            writer.beginElement();
+            writer.beginStruct(1);
+            writer.endStruct();
+            writer.endStruct();
+        }
+        return writer.finish();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 64 * 1024)) {
+            out.write(data);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static void writeIntLE(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static void writeLongLE(OutputStream out, long value) throws IOException {
+        writeIntLE(out, (int) value);
+        writeIntLE(out, (int) (value >>> 32));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private record ColumnChunk(ColumnPage page, long offset, long uncompressedSize, long compressedSize) {
+    }
+
+    /**
+     * Values and statistics of one column of the batch.
+     */
+    private static final class ColumnPage {
+        private final int column;
+        private final int physicalType;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private int nullCount;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        private ColumnPage(int column, int physicalType) {
+            this.column = column;
+            this.physicalType = physicalType;
+        }
+
+        /**
+         * Writes the PLAIN encoding of a value.
+         *
+         * @return false when the value is null
+         */
+        private boolean encode(String value, ByteArrayOutputStream values) throws IOException {
+            if (value == null || value.isEmpty()) {
+                nullCount++;
+                return false;
+            }
+            if (physicalType == TYPE_BYTE_ARRAY) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeIntLE(values, bytes.length);
+                values.write(bytes);
+                return true;
+            }
+
+            long number;
+            try {
+                number = physicalType == TYPE_INT32 ? Integer.parseInt(value) : Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                nullCount++;
+                return false;
+            }
+            if (physicalType == TYPE_INT32) {
+                writeIntLE(values, (int) number);
+            } else {
+                writeLongLE(values, number);
+            }
+            min = Math.min(min, number);
+            max = Math.max(max, number);
+            return true;
+        }
+
+        private void writeStatistics(CompactWriter writer, int fieldId) {
+            writer.beginStruct(fieldId);
+            boolean hasBounds = physicalType != TYPE_BYTE_ARRAY && min <= max;
+            if (hasBounds) {
+                writer.binary(1, this.bound(max));
+                writer.binary(2, this.bound(min));
+            }
+            writer.i64(3, nullCount);
+            if (hasBounds) {
+                writer.binary(5, this.bound(max));
+                writer.binary(6, this.bound(min));
+            }
+            writer.endStruct();
+        }
+
+        private byte[] bound(long value) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+            try {
+                if (physicalType == TYPE_INT32) {
+                    writeIntLE(bytes, (int) value);
+                } else {
+                    writeLongLE(bytes, value);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Minimal writer of the Thrift compact protocol, enough for the structures of the Parquet page headers and footer.
+     */
+    static final class CompactWriter {
+        static final int I32 = 5;
+        static final int I64 = 6;
+        static final int BINARY = 8;
+        static final int LIST = 9;
+        static final int STRUCT = 12;
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final Deque<Integer> lastFieldIds = new ArrayDeque<>();
+        private int lastFieldId;
+
+        void i32(int fieldId, int value) {
+            this.fieldHeader(fieldId, I32);
+            writeVarint(out, (value << 1) ^ (value >> 31));
+        }
+
+        void i64(int fieldId, long value) {
+            this.fieldHeader(fieldId, I64);
+            writeVarint(out, (value << 1) ^ (value >> 63));
+        }
+
+        void binary(int fieldId, byte[] value) {
+            this.fieldHeader(fieldId, BINARY);
+            writeVarint(out, value.length);
+            out.writeBytes(value);
+        }
+
+        void string(int fieldId, String value) {
+            this.binary(fieldId, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void beginStruct(int fieldId) {
+            this.fieldHeader(fieldId, STRUCT);
+            this.beginElement();
+        }
+
+        /**
+         * Starts a struct element of a list, ended with {@link #endStruct()}.
+         */
+        void beginElement() {
+            lastFieldIds.push(lastFieldId);
+            lastFieldId = 0;
+        }
+
+        void endStruct() {
+            out.write(0);
+            lastFieldId = lastFieldIds.pop();
+        }
+
+        void beginList(int fieldId, int elementType, int size) {
+            this.fieldHeader(fieldId, LIST);
+            if (size < 15) {
+                out.write(size << 4 | elementType);
+            } else {
+                out.write(0xF0 | elementType);
+                writeVarint(out, size);
+            }
+        }
+
+        void i32Element(int value) {
+            writeVarint(out, (value << 1) ^ (value >> 31));
+        }
+
+        void stringElement(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.writeBytes(bytes);
+        }
+
+        /**
+         * Ends the top level struct and returns its encoding.
+         */
+        byte[] finish() {
+            out.write(0);
+            return out.toByteArray();
+        }
+
+        private void fieldHeader(int fieldId, int type) {
+            int delta = fieldId - lastFieldId;
+            if (delta > 0 && delta <= 15) {
+                out.write(delta << 4 | type);
+            } else {
+                out.write(type);
+                writeVarint(out, (fieldId << 1) ^ (fieldId >> 31));
+            }
+            lastFieldId = fieldId;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.config.ConditionalOnSink;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Slf4j
+@Component
+@ConditionalOnSink(ParquetModeProcessor.SINK_NAME)
+public class ParquetModeProcessor implements CdrSink {
+    static final String SINK_NAME = "parquet";
+
+    private final ParquetCdrSink parquetCdrSink;
+
+    public ParquetModeProcessor(AppProperties appProperties) {
+        this.parquetCdrSink = new ParquetCdrSink(appProperties);
+    }
+
+    @Override
+    public String name() {
+        return SINK_NAME;
+    }
+
+    @Override
+    public boolean write(List<UtilsRecords.Cdr> records) {
+        return this.writeToParquetFiles(records);
+    }
+
+    public boolean writeToParquetFiles(List<UtilsRecords.Cdr> list) {
+        log.debug("Writing {} cdr to parquet files", list.size());
+        return parquetCdrSink.write(list);
+    }
+}
@@ -0,0 +1,463 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.AppProperties;
+import org.paic.insertdata.util.CdrOrdering;
+import org.paic.insertdata.util.CommonUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Takes batches of CDR records from the Redis lists, the default {@link CdrQueue}.
+ * <p>
+ * Two consumption modes are available, selected with {@code configuration.cdr-consumption-mode}:
+ * <ul>
+ *     <li>{@code pop}: records are removed with LPOP as soon as they are taken (default).</li>
+ *     <li>{@code reliable}: records are moved atomically to a processing list owned by the worker, and removed only
+ *     when the batch is acknowledged. A batch that is released without acknowledgement is taken again by the same
+ *     worker on its next fetch. With {@code configuration.max-delivery-attempts}, a batch released that many times in
+ *     a row is moved to the {@link CdrDeadLetterQueue} instead, so a batch no sink can write does not hold its worker
+ *     forever. Every failed write is an attempt, including those of a database outage.</li>
+ * </ul>
+ * On startup the processing lists left by a previous run of this consumer are moved back to the head of their list.
+ * <p>
+ * With {@code configuration.cdr-shards} greater than 0 the list is read from its shard keys instead, see
+ * {@link CdrShards}. Every fetch reads the shards of one node with a single pipeline.
+ * <p>
+ * This queue is created for every {@code configuration.cdr-source} other than {@code stream}, so an unknown source
+ * or consumption mode fails the startup instead of leaving the application without a queue or in pop mode.
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("!'${configuration.cdr-source:list}'.strip().equalsIgnoreCase('stream')")
+public class RedisCdrQueue implements CdrQueue {
+    public static final String LIST_SOURCE = "list";
+    public static final String POP_MODE = "pop";
+    public static final String RELIABLE_MODE = "reliable";
+
+    /**
+     * Returns the records pending in the processing list, or moves up to ARGV[1] records from the head of the list
+     * to the processing list and returns them.
+     */
+    private static final String MOVE_SCRIPT = """
+            local pending = redis.call('LRANGE', KEYS[2], 0, -1)
+            if #pending > 0 then
+                return pending
+            end
+            local items = redis.call('LRANGE', KEYS[1], 0, tonumber(ARGV[1]) - 1)
+            if #items == 0 then
+                return items
+            end
+            redis.call('LTRIM', KEYS[1], #items, -1)
+            for i = 1, #items, 1000 do
+                redis.call('RPUSH', KEYS[2], unpack(items, i, math.min(i + 999, #items)))
+            end
+            return items
+            """;
+    private static final byte[] MOVE_SCRIPT_BYTES = SafeEncoder.encode(MOVE_SCRIPT);
+
+    /**
+     * Moves the records of the processing list back to the head of the list keeping their order.
+     */
+    private static final String RECLAIM_SCRIPT = """
+            local items = redis.call('LRANGE', KEYS[2], 0, -1)
+            for i = #items, 1, -1 do
+                redis.call('LPUSH', KEYS[1], items[i])
+            end
+            redis.call('DEL', KEYS[2])
+            return #items
+            """;
+
+    private final JedisCluster jedisCluster;
+    private final AppProperties appProperties;
+    private final CdrOrdering ordering;
+    private final CdrMetrics metrics;
+    private final CdrDeadLetterQueue deadLetterQueue;
+    private final boolean reliable;
+    private final int maxDeliveryAttempts;
+    private final int shards;
+    private final Set<String> busyProcessingLists = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> deliveryAttempts = new ConcurrentHashMap<>();
+    private final Map<String, ShardAssignment> shardAssignments = new ConcurrentHashMap<>();
+
+    RedisCdrQueue(JedisCluster jedisCluster, AppProperties appProperties) {
+        this(jedisCluster, appProperties, new CdrMetrics());
+    }
+
+    public RedisCdrQueue(JedisCluster jedisCluster, AppProperties appProperties, CdrMetrics metrics) {
+        this(jedisCluster, appProperties, metrics, new CdrDeadLetterQueue(jedisCluster, appProperties));
+    }
+
+    @Autowired
+    public RedisCdrQueue(JedisCluster jedisCluster, AppProperties appProperties, CdrMetrics metrics,
+                         CdrDeadLetterQueue deadLetterQueue) {
+        checkSource(appProperties.getCdrSource());
+        this.jedisCluster = jedisCluster;
+        this.appProperties = appProperties;
+        this.ordering = CdrOrdering.of(appProperties.getCdrOrdering());
+        this.metrics = metrics;
+        this.deadLetterQueue = deadLetterQueue;
+        this.reliable = isReliable(appProperties.getCdrConsumptionMode());
+        this.maxDeliveryAttempts = appProperties.getMaxDeliveryAttempts();
+        this.shards = appProperties.getCdrShards();
+    }
+
+    /**
+     * Checks the configured CDR source is the Redis list, the only source this queue reads.
+     *
+     * @param name the configured source, blank for the default {@code list}
+     * @throws IllegalArgumentException when the source is unknown, so a typo fails the startup
+     */
+    static void checkSource(String name) {
+        if (name != null && !name.isBlank() && !LIST_SOURCE.equalsIgnoreCase(name.strip())) {
+            throw new IllegalArgumentException("Unknown configuration.cdr-source '" + name
+                    + "', expected list or stream");
+        }
+    }
+
+    /**
+     * Resolves the configured consumption mode.
+     *
+     * @param name the configured mode, blank for the default {@code pop}
+     * @return true for the reliable mode, false for the pop mode
+     * @throws IllegalArgumentException when the mode is unknown, so a typo fails the startup
+     */
+    static boolean isReliable(String name) {
+        if (name == null || name.isBlank() || POP_MODE.equalsIgnoreCase(name.strip())) {
+            return false;
+        }
+        if (RELIABLE_MODE.equalsIgnoreCase(name.strip())) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown configuration.cdr-consumption-mode '" + name
+                + "', expected pop or reliable");
+    }
+
+    /**
+     * Moves back the records left in the processing lists of this consumer by a previous run.
+     */
+    @PostConstruct
+    public void reclaimProcessingLists() {
+        for (String key : CdrShards.keys(appProperties.getCdrListName(), shards)) {
+            this.reclaimProcessingLists(key);
+        }
+    }
+
+    private void reclaimProcessingLists(String listName) {
+        try {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            ScanParams params = new ScanParams().match(processingListPrefix(listName) + "*").count(1000);
+            do {
+                ScanResult<String> result = jedisCluster.scan(cursor, params);
+                for (String processingList : result.getResult()) {
+                    Object reclaimed = jedisCluster.eval(RECLAIM_SCRIPT, List.of(listName, processingList), List.of());
+                    log.warn("Reclaimed {} CDR records from processing list {}", reclaimed, processingList);
+                }
+                cursor = result.getCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        } catch (Exception e) {
+            log.error("Error while reclaiming the processing lists of {}", listName, e);
+        }
+    }
+
+    /**
+     * Takes the next batch of the given worker from the given list.
+     * In reliable mode a worker whose previous batch is still being processed gets no batch.
+     * When the list is sharded the worker takes the batch from the shards of its next node.
+     *
+     * @param listName  the Redis list name
+     * @param worker    the worker number
+     * @param batchSize the maximum number of records of the batch
+     * @return the batch decoded and sorted by record date, or empty when there are no records to take
+     */
+    @Override
+    public Mono<CdrBatch> fetch(String listName, int worker, int batchSize) {
+        if (shards > 0) {
+            return this.fetchShards(listName, worker, batchSize);
+        }
+
+        if (reliable) {
+            return this.moveBatch(listName, List.of(listName), worker, batchSize);
+        }
+
+        long fetchStart = System.nanoTime();
+        return this.popBatch(listName, jedisCluster.lpop(SafeEncoder.encode(listName), batchSize), fetchStart);
+    }
+
+    /**
+     * Returns the number of records waiting in the list, or in all its shards.
+     *
+     * @param listName the Redis list name
+     * @return the length of the list
+     */
+    @Override
+    public long backlog(String listName) {
+        List<String> keys = CdrShards.keys(listName, shards);
+        if (keys.size() == 1) {
+            return jedisCluster.llen(keys.getFirst());
+        }
+
+        List<Response<Long>> lengths = new ArrayList<>(keys.size());
+        try (ClusterPipeline pipeline = jedisCluster.pipelined()) {
+            keys.forEach(key -> lengths.add(pipeline.llen(key)));
+            pipeline.sync();
+        }
+        return lengths.stream().mapToLong(Response::get).sum();
+    }
+
+    /**
+     * Removes the records of a batch from its processing lists once they are committed.
+     *
+     * @param batch the processed batch
+     */
+    @Override
+    public void acknowledge(CdrBatch batch) {
+        if (!batch.isReliable()) {
+            return;
+        }
+
+        try {
+            if (batch.processingLists().size() == 1) {
+                jedisCluster.del(batch.processingLists().getFirst());
+            } else {
+                try (ClusterPipeline pipeline = jedisCluster.pipelined()) {
+                    batch.processingLists().forEach(pipeline::del);
+                    pipeline.sync();
+                }
+            }
+        } finally {
+            batch.processingLists().forEach(busyProcessingLists::remove);
+            batch.processingLists().forEach(deliveryAttempts::remove);
+        }
+    }
+
+    /**
+     * Frees the worker of a batch that could not be processed, keeping its records in the processing lists,
+     * so they are taken again on the next fetch. Once the batch has been released
+     * {@code configuration.max-delivery-attempts} times its records are moved to the dead-letter list instead.
+     *
+     * @param batch the failed batch
+     */
+    @Override
+    public void release(CdrBatch batch) {
+        if (!batch.isReliable()) {
+            return;
+        }
+
+        int attempts = batch.processingLists().stream()
+                .mapToInt(processingList -> deliveryAttempts.merge(processingList, 1, Integer::sum))
+                .max()
+                .orElse(0);
+        if (maxDeliveryAttempts > 0 && attempts >= maxDeliveryAttempts && this.deadLetter(batch, attempts)) {
+            return;
+        }
+        log.warn("Releasing {} CDR records kept in processing lists {} after {} delivery attempts",
+                batch.records().size(), batch.processingLists(), attempts);
+        batch.processingLists().forEach(busyProcessingLists::remove);
+    }
+
+    /**
+     * Moves the records of a batch to the dead-letter list and deletes its processing lists.
+     *
+     * @return false when the records could not be moved, so the batch is kept and taken again
+     */
+    private boolean deadLetter(CdrBatch batch, int attempts) {
+        String sinks = String.join(",", appProperties.getSinks());
+        if (!deadLetterQueue.sendAll(sinks, batch.records(), "Not written after " + attempts + " delivery attempts")) {
+            return false;
+        }
+
+        metrics.onDeadLettered(batch.records().size());
+        try {
+            this.acknowledge(batch);
+        } catch (RuntimeException e) {
+            // the records are taken again and may be moved to the dead-letter list twice
+            log.error("Error while deleting the processing lists {} moved to the dead-letter list", batch.processingLists(), e);
+        }
+        return true;
+    }
+
+    private Mono<CdrBatch> fetchShards(String listName, int worker, int batchSize) {
+        ShardAssignment assignment = shardAssignments.computeIfAbsent(listName, this::assignShards);
+        int workerIndex = worker % assignment.groups().size();
+        List<List<String>> groups = assignment.groups().get(workerIndex);
+        List<String> keys = groups.get(Math.floorMod(assignment.rotation().getAndIncrement(workerIndex), groups.size()));
+        try {
+            if (reliable) {
+                return this.moveBatch(listName, keys, worker, batchSize);
+            }
+            long fetchStart = System.nanoTime();
+            if (keys.size() == 1) {
+                return this.popBatch(listName, jedisCluster.lpop(SafeEncoder.encode(keys.getFirst()), batchSize), fetchStart);
+            }
+
+            int perShard = Math.ceilDiv(batchSize, keys.size());
+            List<Response<List<byte[]>>> responses = new ArrayList<>(keys.size());
+            try (ClusterPipeline pipeline = jedisCluster.pipelined()) {
+                keys.forEach(key -> responses.add(pipeline.lpop(SafeEncoder.encode(key), perShard)));
+                pipeline.sync();
+            }
+            List<byte[]> batch = new ArrayList<>();
+            responses.stream().map(Response::get).filter(Objects::nonNull).forEach(batch::addAll);
+            return this.popBatch(listName, batch, fetchStart);
+        } catch (RuntimeException e) {
+            // the slots may have moved, the shards are assigned again on the next fetch
+            shardAssignments.remove(listName);
+            return Mono.error(e);
+        }
+    }
+
+    private Mono<CdrBatch> popBatch(String listName, List<byte[]> batch, long fetchStart) {
+        metrics.recordStage(CdrMetrics.FETCH, System.nanoTime() - fetchStart);
+        if (Objects.isNull(batch) || batch.isEmpty()) {
+            return Mono.empty();
+        }
+        return this.decode(batch).map(records -> new CdrBatch(listName, List.of(), records));
+    }
+
+    private Mono<List<UtilsRecords.Cdr>> decode(List<byte[]> batch) {
+        return metrics.decode(batch, ordering, raw -> CommonUtils.decodeRawCdrBatch(raw, CdrOrdering.NONE));
+    }
+
+    private Mono<CdrBatch> moveBatch(String listName, List<String> keys, int worker, int batchSize) {
+        List<String> sourceKeys = new ArrayList<>(keys.size());
+        List<String> processingLists = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            String processingList = processingListPrefix(key) + worker;
+            if (busyProcessingLists.add(processingList)) {
+                sourceKeys.add(key);
+                processingLists.add(processingList);
+            } else {
+                log.debug("Worker {} of {} is still processing its batch", worker, key);
+            }
+        }
+        if (sourceKeys.isEmpty()) {
+            return Mono.empty();
+        }
+
+        try {
+            long fetchStart = System.nanoTime();
+            List<List<byte[]>> moved = this.moveToProcessingLists(sourceKeys, processingLists, batchSize);
+            metrics.recordStage(CdrMetrics.FETCH, System.nanoTime() - fetchStart);
+            List<byte[]> batch = new ArrayList<>();
+            List<String> batchProcessingLists = new ArrayList<>();
+            for (int i = 0; i < moved.size(); i++) {
+                if (moved.get(i).isEmpty()) {
+                    busyProcessingLists.remove(processingLists.get(i));
+                } else {
+                    batch.addAll(moved.get(i));
+                    batchProcessingLists.add(processingLists.get(i));
+                }
+            }
+            if (batch.isEmpty()) {
+                return Mono.empty();
+            }
+
+            return this.decode(batch)
+                    .map(records -> new CdrBatch(listName, List.copyOf(batchProcessingLists), records))
+                    .doOnError(e -> batchProcessingLists.forEach(busyProcessingLists::remove));
+        } catch (RuntimeException e) {
+            processingLists.forEach(busyProcessingLists::remove);
+            return Mono.error(e);
+        }
+    }
+
+    /**
+     * Runs the move script on every key, with binary replies so the records reach the decoder as raw bytes.
+     */
+    private List<List<byte[]>> moveToProcessingLists(List<String> keys, List<String> processingLists, int batchSize) {
+        if (keys.size() == 1) {
+            return List.of(toRawList(jedisCluster.eval(MOVE_SCRIPT_BYTES,
+                    moveKeys(keys.getFirst(), processingLists.getFirst()), List.of(SafeEncoder.encode(String.valueOf(batchSize))))));
+        }
+
+        List<byte[]> perShard = List.of(SafeEncoder.encode(String.valueOf(Math.ceilDiv(batchSize, keys.size()))));
+        List<Response<Object>> responses = new ArrayList<>(keys.size());
+        try (ClusterPipeline pipeline = jedisCluster.pipelined()) {
+            for (int i = 0; i < keys.size(); i++) {
+                responses.add(pipeline.eval(MOVE_SCRIPT_BYTES, moveKeys(keys.get(i), processingLists.get(i)), perShard));
+            }
+            pipeline.sync();
+        }
+        return responses.stream().map(response -> toRawList(response.get())).toList();
+    }
+
+    private static List<byte[]> moveKeys(String key, String processingList) {
+        return List.of(SafeEncoder.encode(key), SafeEncoder.encode(processingList));
+    }
+
+    private ShardAssignment assignShards(String listName) {
+        List<String> keys = CdrShards.keys(listName, shards);
+        int workers = Math.max(1, appProperties.getCdrWorkers());
+        List<CdrShards.SlotRange> slotRanges = List.of();
+        try {
+            slotRanges = CdrShards.parseSlots(
+                    jedisCluster.sendCommand(keys.getFirst(), Protocol.Command.CLUSTER, Protocol.ClusterKeyword.SLOTS.name()));
+        } catch (RuntimeException e) {
+            log.warn("Unable to read the cluster slots, the shards of {} are not grouped by node", listName, e);
+        }
+
+        List<List<List<String>>> groups = CdrShards.assign(
+                keys, CdrShards.nodeResolver(slotRanges, JedisClusterCRC16::getSlot), workers);
+        log.info("Shards of {} assigned to {} workers: {}", listName, workers, groups);
+        return new ShardAssignment(groups, new AtomicIntegerArray(groups.size()));
+    }
+
+    /**
+     * Returns the prefix of the processing lists of this consumer for the given list.
+     * The processing lists must hash to the same cluster slot as the list, so the list name is used as hash tag
+     * unless it already has one.
+     *
+     * @param listName the Redis list name
+     * @return the processing list prefix, the worker number is appended to it
+     */
+    String processingListPrefix(String listName) {
+        String hashTagged = hasHashTag(listName) ? listName : "{" + listName + "}";
+        return hashTagged + ":processing:" + appProperties.getConsumerName() + ":";
+    }
+
+    private static boolean hasHashTag(String key) {
+        int start = key.indexOf('{');
+        int end = start < 0 ? -1 : key.indexOf('}', start + 1);
+        return end > start + 1;
+    }
+
+    private static List<byte[]> toRawList(Object result) {
+        if (!(result instanceof List<?> items)) {
+            return List.of();
+        }
+        List<byte[]> raw = new ArrayList<>(items.size());
+        for (Object item : items) {
+            if (item instanceof byte[] bytes) {
+                raw.add(bytes);
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * The node groups read by every worker, and the next group of every worker.
+     */
+    private record ShardAssignment(List<List<List<String>>> groups, AtomicIntegerArray rotation) {
+    }
+}
@@ -0,0 +1,252 @@
+package org.paic.insertdata.component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.util.AppProperties;
+import org.paic.insertdata.util.CdrOrdering;
+import org.paic.insertdata.util.CommonUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes batches of CDR records from a Redis stream with a consumer group.
+ * <p>
+ * Every worker is a consumer of the group {@code configuration.cdr-consumer-group}, named after
+ * {@code configuration.consumer-name} and the worker number, so several instances share the stream without reading an
+ * entry twice. Entries are read with XREADGROUP and acknowledged with XACK once the batch is committed:
+ * <ul>
+ *     <li>A released batch stays in the pending entries of its consumer and is read again on its next fetch, as are
+ *     the entries left pending by a previous run of the same consumer.</li>
+ *     <li>Entries pending for longer than {@code configuration.stream-claim-idle-millis} in any consumer, for example
+ *     one of an instance that is gone, are claimed with XAUTOCLAIM by one worker per claim period. XAUTOCLAIM scans
+ *     the pending entries a chunk at a time, so each claim goes on from the cursor returned by the previous one, and
+ *     the following chunks are claimed on the next fetches until Redis returns the cursor {@code 0-0}. The next scan
+ *     then starts from the first pending entry after the claim period.</li>
+ *     <li>With {@code configuration.stream-delete-acknowledged} the acknowledged entries are deleted from the stream.
+ *     Disable it when other consumer groups read the same stream, and trim it with MAXLEN on the producer instead.</li>
+ * </ul>
+ * Every entry holds one CDR as JSON in its {@code cdr} field, or in its only field.
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("'${configuration.cdr-source:list}'.strip().equalsIgnoreCase('stream')")
+public class RedisStreamCdrQueue implements CdrQueue {
+    public static final String CDR_FIELD = "cdr";
+    private static final StreamEntryID SCAN_START = new StreamEntryID();
+
+    private final JedisCluster jedisCluster;
+    private final AppProperties appProperties;
+    private final CdrOrdering ordering;
+    private final CdrMetrics metrics;
+    private final String group;
+    private final long claimIdleMillis;
+    private final boolean deleteAcknowledged;
+    private final Set<String> busyConsumers = ConcurrentHashMap.newKeySet();
+    private final Set<String> consumersWithoutPending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextClaimMillis = new AtomicLong();
+    private volatile StreamEntryID claimCursor = SCAN_START;
+
+    RedisStreamCdrQueue(JedisCluster jedisCluster, AppProperties appProperties) {
+        this(jedisCluster, appProperties, new CdrMetrics());
+    }
+
+    @Autowired
+    public RedisStreamCdrQueue(JedisCluster jedisCluster, AppProperties appProperties, CdrMetrics metrics) {
+        this.jedisCluster = jedisCluster;
+        this.appProperties = appProperties;
+        this.ordering = CdrOrdering.of(appProperties.getCdrOrdering());
+        this.metrics = metrics;
+        this.group = appProperties.getCdrConsumerGroup();
+        this.claimIdleMillis = appProperties.getStreamClaimIdleMillis();
+        this.deleteAcknowledged = appProperties.isStreamDeleteAcknowledged();
+    }
+
+    /**
+     * Creates the consumer group and the stream when they do not exist. A new group starts from the first entry of the
+     * stream, so records added before the first start are not lost.
+     */
+    @PostConstruct
+    public void createConsumerGroup() {
+        String stream = appProperties.getCdrListName();
+        try {
+            jedisCluster.xgroupCreate(stream, group, new StreamEntryID(), true);
+            log.info("Consumer group {} created for stream {}", group, stream);
+        } catch (JedisDataException e) {
+            if (!String.valueOf(e.getMessage()).startsWith("BUSYGROUP")) {
+                log.error("Error while creating the consumer group {} for stream {}", group, stream, e);
+            }
+        }
+    }
+
+    /**
+     * Takes the next batch of the given worker: entries claimed from idle consumers when a claim is due, then its own
+     * pending entries, then new entries.
+     *
+     * @param listName  the Redis stream name
+     * @param worker    the worker number
+     * @param batchSize the maximum number of records of the batch
+     * @return the batch decoded and sorted by record date, or empty when there are no entries to take
+     */
+    @Override
+    public Mono<CdrBatch> fetch(String listName, int worker, int batchSize) {
+        String consumer = appProperties.getConsumerName() + "-" + worker;
+        if (!busyConsumers.add(consumer)) {
+            log.debug("Consumer {} of {} is still processing its batch", consumer, listName);
+            return Mono.empty();
+        }
+
+        try {
+            long fetchStart = System.nanoTime();
+            List<StreamEntry> entries = this.claimIdleEntries(listName, consumer, batchSize);
+            if (entries.isEmpty() && !consumersWithoutPending.contains(consumer)) {
+                entries = this.readGroup(listName, consumer, batchSize, new StreamEntryID());
+                if (entries.isEmpty()) {
+                    consumersWithoutPending.add(consumer);
+                }
+            }
+            if (entries.isEmpty()) {
+                entries = this.readGroup(listName, consumer, batchSize, StreamEntryID.UNRECEIVED_ENTRY);
+            }
+            metrics.recordStage(CdrMetrics.FETCH, System.nanoTime() - fetchStart);
+            if (entries.isEmpty()) {
+                busyConsumers.remove(consumer);
+                return Mono.empty();
+            }
+
+            List<String> entryIds = new ArrayList<>(entries.size());
+            List<String> values = new ArrayList<>(entries.size());
+            for (StreamEntry entry : entries) {
+                entryIds.add(entry.getID().toString());
+                String value = cdrValue(entry.getFields());
+                if (Objects.nonNull(value)) {
+                    values.add(value);
+                }
+            }
+            return metrics.decode(values, ordering, raw -> CommonUtils.decodeCdrBatch(raw, CdrOrdering.NONE))
+                    .map(records -> new CdrBatch(listName, List.of(consumer), List.copyOf(entryIds), records))
+                    .doOnError(e -> busyConsumers.remove(consumer));
+        } catch (RuntimeException e) {
+            busyConsumers.remove(consumer);
+            return Mono.error(e);
+        }
+    }
+
+    /**
+     * Returns the length of the stream. With {@code configuration.stream-delete-acknowledged} it holds the entries not
+     * yet acknowledged, otherwise all the entries kept by the stream.
+     *
+     * @param listName the Redis stream name
+     * @return the length of the stream
+     */
+    @Override
+    public long backlog(String listName) {
+        return jedisCluster.xlen(listName);
+    }
+
+    /**
+     * Acknowledges the entries of a batch once they are committed, deleting them when configured.
+     *
+     * @param batch the processed batch
+     */
+    @Override
+    public void acknowledge(CdrBatch batch) {
+        if (batch.entryIds().isEmpty()) {
+            batch.processingLists().forEach(busyConsumers::remove);
+            return;
+        }
+
+        try {
+            StreamEntryID[] ids = batch.entryIds().stream().map(StreamEntryID::new).toArray(StreamEntryID[]::new);
+            jedisCluster.xack(batch.listName(), group, ids);
+            if (deleteAcknowledged) {
+                jedisCluster.xdel(batch.listName(), ids);
+            }
+        } finally {
+            batch.processingLists().forEach(busyConsumers::remove);
+        }
+    }
+
+    /**
+     * Frees the consumer of a batch that could not be processed. Its entries stay pending and are read again on the
+     * next fetch of the consumer.
+     *
+     * @param batch the failed batch
+     */
+    @Override
+    public void release(CdrBatch batch) {
+        log.warn("Releasing {} CDR entries pending for consumers {}", batch.entryIds().size(), batch.processingLists());
+        batch.processingLists().forEach(consumer -> {
+            consumersWithoutPending.remove(consumer);
+            busyConsumers.remove(consumer);
+        });
+    }
+
+    private List<StreamEntry> claimIdleEntries(String stream, String consumer, int batchSize) {
+        long now = System.currentTimeMillis();
+        long nextClaim = nextClaimMillis.get();
+        // the claim is held by a single worker until it has moved the cursor
+        if (claimIdleMillis <= 0 || now < nextClaim || !nextClaimMillis.compareAndSet(nextClaim, Long.MAX_VALUE)) {
+            return List.of();
+        }
+
+        StreamEntryID next = null;
+        try {
+            Map.Entry<StreamEntryID, List<StreamEntry>> claimed = jedisCluster.xautoclaim(stream, group, consumer,
+                    claimIdleMillis, claimCursor, new XAutoClaimParams().count(batchSize));
+            next = Objects.isNull(claimed) || Objects.isNull(claimed.getKey()) ? SCAN_START : claimed.getKey();
+            if (Objects.isNull(claimed) || Objects.isNull(claimed.getValue())) {
+                return List.of();
+            }
+
+            List<StreamEntry> entries = claimed.getValue().stream().filter(Objects::nonNull).toList();
+            if (!entries.isEmpty()) {
+                log.warn("Consumer {} claimed {} idle entries of stream {}", consumer, entries.size(), stream);
+            }
+            return entries;
+        } finally {
+            if (Objects.nonNull(next)) {
+                claimCursor = next;
+            }
+            // the rest of an unfinished scan is claimed on the next fetch, a new scan waits for the claim period
+            boolean scanning = Objects.nonNull(next) && !SCAN_START.equals(next);
+            nextClaimMillis.set(scanning ? now : now + claimIdleMillis);
+        }
+    }
+
+    private List<StreamEntry> readGroup(String stream, String consumer, int batchSize, StreamEntryID from) {
+        List<Map.Entry<String, List<StreamEntry>>> result = jedisCluster.xreadGroup(group, consumer,
+                XReadGroupParams.xReadGroupParams().count(batchSize), Map.of(stream, from));
+        if (Objects.isNull(result)) {
+            return List.of();
+        }
+        return result.stream()
+                .map(Map.Entry::getValue)
+                .filter(Objects::nonNull)
+                .flatMap(List::stream)
+                .toList();
+    }
+
+    private static String cdrValue(Map<String, String> fields) {
+        if (Objects.isNull(fields) || fields.isEmpty()) {
+            return null;
+        }
+        String value = fields.get(CDR_FIELD);
+        return Objects.nonNull(value) ? value : fields.values().iterator().next();
+    }
+}
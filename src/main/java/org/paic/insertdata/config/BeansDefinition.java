@@ -2,7 +2,6 @@ package org.paic.insertdata.config;
 
 import com.paicbd.smsc.utils.Generated;
 import lombok.RequiredArgsConstructor;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -31,7 +30,7 @@ public class BeansDefinition {
     }
 
     @Bean
-    @ConditionalOnProperty(name = "application.mode", havingValue = "database")
+    @ConditionalOnSink("database")
     public DataSource dataSource() {
         return DataSourceBuilder.create()
                 .url(appProperties.getDatasourceUrl())
@@ -0,0 +1,25 @@
+package org.paic.insertdata.config;
+
+import org.springframework.context.annotation.Conditional;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Registers the annotated component only when the given sink is one of the {@code application.sinks}, which default
+ * to {@code application.mode}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Conditional(OnSinkCondition.class)
+public @interface ConditionalOnSink {
+
+    /**
+     * @return the name of the sink, as written in {@code application.sinks}
+     */
+    String value();
+}
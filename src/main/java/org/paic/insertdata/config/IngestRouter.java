@@ -0,0 +1,25 @@
+package org.paic.insertdata.config;
+
+import org.paic.insertdata.component.CdrIngestHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+
+/**
+ * Serves the {@link CdrIngestHandler} on {@code server.port} when {@code application.http-ingest.enabled} is set.
+ */
+@Configuration
+@ConditionalOnProperty(name = "application.http-ingest.enabled", havingValue = "true")
+public class IngestRouter {
+    public static final String INGEST_PATH = "/cdr";
+
+    @Bean
+    public RouterFunction<ServerResponse> ingestRoute(CdrIngestHandler handler) {
+        return RouterFunctions.route(POST(INGEST_PATH), handler::ingest);
+    }
+}
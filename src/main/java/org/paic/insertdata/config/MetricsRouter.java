@@ -0,0 +1,30 @@
+package org.paic.insertdata.config;
+
+import org.paic.insertdata.component.CdrMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+
+/**
+ * Serves the {@link CdrMetrics} on {@code server.port}, at the path Prometheus scrapes Spring Boot applications on.
+ */
+@Configuration
+public class MetricsRouter {
+    public static final String METRICS_PATH = "/actuator/prometheus";
+    static final MediaType PROMETHEUS_TEXT = MediaType.parseMediaType("text/plain;version=0.0.4;charset=utf-8");
+
+    @Bean
+    public RouterFunction<ServerResponse> metricsRoute(CdrMetrics metrics) {
+        // the backlog is read from Redis, so the metrics are not rendered on the event loop
+        return RouterFunctions.route(GET(METRICS_PATH), request -> Mono.fromCallable(metrics::scrape)
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(body -> ServerResponse.ok().contentType(PROMETHEUS_TEXT).bodyValue(body)));
+    }
+}
@@ -0,0 +1,35 @@
+package org.paic.insertdata.config;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Matches when the sink of {@link ConditionalOnSink} is listed in {@code application.sinks}.
+ */
+class OnSinkCondition implements Condition {
+
+    @Override
+    public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+        Map<String, Object> attributes = metadata.getAnnotationAttributes(ConditionalOnSink.class.getName());
+        if (Objects.isNull(attributes)) {
+            return false;
+        }
+        String sink = (String) attributes.get("value");
+        return Arrays.stream(sinks(context.getEnvironment()))
+                .anyMatch(sink::equalsIgnoreCase);
+    }
+
+    private static String[] sinks(Environment environment) {
+        String sinks = environment.getProperty("application.sinks", environment.getProperty("application.mode", "logs"));
+        return Arrays.stream(sinks.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .toArray(String[]::new);
+    }
+}
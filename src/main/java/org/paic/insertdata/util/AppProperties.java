@@ -45,6 +45,12 @@ public class AppProperties {
     @Value("${configuration.cdr}")
     private String cdrListName;
 
+    @Value("${configuration.dead-letter-list:${configuration.cdr}:dead-letter}")
+    private String deadLetterListName;
+
+    @Value("${configuration.cdr-shards:0}")
+    private int cdrShards;
+
     @Value("${configuration.cdr-workers}")
     private int cdrWorkers;
 
@@ -54,15 +60,177 @@ public class AppProperties {
     @Value("${configuration.interval-millis}")
     private long intervalMillis;
 
+    @Value("${configuration.max-in-flight-batches:${configuration.cdr-workers}}")
+    private int maxInFlightBatches;
+
+    @Value("${configuration.idle-backoff-millis:10}")
+    private long idleBackoffMillis;
+
+    @Value("${configuration.adaptive-batching:false}")
+    private boolean adaptiveBatching;
+
+    @Value("${configuration.target-latency-millis:500}")
+    private long targetLatencyMillis;
+
+    @Value("${configuration.min-batch-size:1000}")
+    private int minBatchSize;
+
+    @Value("${configuration.max-batch-size:${configuration.cdr-batch-size}}")
+    private int maxBatchSize;
+
+    @Value("${configuration.cdr-source:list}")
+    private String cdrSource;
+
+    @Value("${configuration.cdr-consumer-group:${spring.application.name}}")
+    private String cdrConsumerGroup;
+
+    @Value("${configuration.stream-claim-idle-millis:60000}")
+    private long streamClaimIdleMillis;
+
+    @Value("${configuration.stream-delete-acknowledged:true}")
+    private boolean streamDeleteAcknowledged;
+
+    @Value("${configuration.dedup-enabled:false}")
+    private boolean dedupEnabled;
+
+    @Value("${configuration.dedup-window-millis:3600000}")
+    private long dedupWindowMillis;
+
+    @Value("${configuration.dedup-max-keys:1000000}")
+    private int dedupMaxKeys;
+
+    @Value("${configuration.cdr-ordering:batch}")
+    private String cdrOrdering;
+
+    @Value("${configuration.ordering-window-millis:100}")
+    private long orderingWindowMillis;
+
+    @Value("${configuration.cdr-consumption-mode:pop}")
+    private String cdrConsumptionMode;
+
+    @Value("${configuration.max-delivery-attempts:0}")
+    private int maxDeliveryAttempts;
+
+    @Value("${configuration.consumer-name:${spring.application.name}}")
+    private String consumerName;
+
     @Value("${application.mode:logs}")
     private String applicationMode;
 
+    @Value("#{'${application.sinks:${application.mode:logs}}'.split(',')}")
+    private List<String> sinks;
+
+    @Value("#{'${application.optional-sinks:}'.split(',')}")
+    private List<String> optionalSinks;
+
+    @Value("${application.sink-max-in-flight-batches:${configuration.max-in-flight-batches:${configuration.cdr-workers}}}")
+    private int sinkMaxInFlightBatches;
+
+    @Value("${application.http-ingest.batch-size:${configuration.cdr-batch-size}}")
+    private int httpIngestBatchSize;
+
+    @Value("${application.http-ingest.max-wait-millis:100}")
+    private long httpIngestMaxWaitMillis;
+
+    @Value("${application.http-ingest.max-line-bytes:1048576}")
+    private int httpIngestMaxLineBytes;
+
     @Value("${application.cdr.separator}")
     private String separator;
 
+    @Value("${application.cdr.location:./target/generated-sources/logs}")
+    private String cdrLocation;
+
+    @Value("${application.cdr.file-name:cdr}")
+    private String cdrFileName;
+
+    @Value("${application.cdr.max-file-size-mb:0}")
+    private int cdrMaxFileSizeMb;
+
+    @Value("${application.cdr.max-history:31}")
+    private int cdrMaxHistory;
+
+    @Value("${application.cdr.compression:none}")
+    private String cdrCompression;
+
+    @Value("${application.cdr.compression-level:1}")
+    private int cdrCompressionLevel;
+
+    @Value("${application.cdr.fsync:none}")
+    private String cdrFsync;
+
+    @Value("${application.cdr.fsync-interval-millis:1000}")
+    private long cdrFsyncIntervalMillis;
+
+    @Value("${application.parquet.location:./target/generated-sources/parquet}")
+    private String parquetLocation;
+
+    @Value("${application.parquet.compression:gzip}")
+    private String parquetCompression;
+
     @Value("${jdbc.max-retries:5}")
     private int maxRetries;
 
+    @Value("${jdbc.retry-backoff-millis:100}")
+    private long retryBackoffMillis;
+
+    @Value("${jdbc.retry-max-backoff-millis:5000}")
+    private long retryMaxBackoffMillis;
+
+    @Value("${jdbc.circuit-breaker-failures:3}")
+    private int circuitBreakerFailures;
+
+    @Value("${jdbc.circuit-breaker-open-millis:30000}")
+    private long circuitBreakerOpenMillis;
+
+    @Value("${jdbc.spill-enabled:false}")
+    private boolean spillEnabled;
+
+    @Value("${jdbc.spill-location:./target/spill}")
+    private String spillLocation;
+
+    @Value("${jdbc.spill-segment-size-mb:64}")
+    private int spillSegmentSizeMb;
+
+    @Value("${jdbc.spill-max-size-mb:10240}")
+    private long spillMaxSizeMb;
+
+    @Value("${jdbc.spill-replay-interval-millis:1000}")
+    private long spillReplayIntervalMillis;
+
+    @Value("${jdbc.write-strategy:batch}")
+    private String writeStrategy;
+
+    @Value("${jdbc.staging-merge-interval-millis:1000}")
+    private long stagingMergeIntervalMillis;
+
+    @Value("${jdbc.staging-merge-batch-size:50000}")
+    private int stagingMergeBatchSize;
+
+    @Value("${jdbc.staging-merge-max-batches:20}")
+    private int stagingMergeMaxBatches;
+
+    @Value("${jdbc.rollup-enabled:false}")
+    private boolean rollupEnabled;
+
+    @Value("${jdbc.rollup-flush-interval-millis:5000}")
+    private long rollupFlushIntervalMillis;
+
+    @Value("${jdbc.partition-interval:daily}")
+    private String partitionInterval;
+
+    @Value("${jdbc.partitions-ahead:3}")
+    private int partitionsAhead;
+
+    @Value("${jdbc.partition-maintenance-millis:3600000}")
+    private long partitionMaintenanceMillis;
+
+    @Value("${jdbc.partition-retention-days:0}")
+    private int partitionRetentionDays;
+
+    @Value("${jdbc.partition-retention-action:drop}")
+    private String partitionRetentionAction;
+
     @Value("${spring.datasource.url}")
     private String datasourceUrl;
 
@@ -0,0 +1,320 @@
+package org.paic.insertdata.util;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Encodes a {@link UtilsRecords.Cdr} as a line of logs mode straight into a {@link ByteBuffer}, with the same bytes as
+ * the UTF-8 encoding of {@link CommonUtils#createStringCdr}, without building the line nor any of its values as a String.
+ * <p>
+ * The dates are formatted with {@code yyyy-MM-dd'T'HH:mm:ss.SSS} in the system time zone by hand: the zone offset is
+ * cached until the next transition of the zone, and only years out of 1 to 9999 fall back to a cached
+ * {@link DateTimeFormatter}. As in {@link CommonUtils#createStringCdr}, a date that is not a number of milliseconds
+ * and a null value are written as {@code null}.
+ * <p>
+ * Instances are thread safe.
+ */
+public final class CdrLineEncoder {
+    /**
+     * Length of a date formatted in the fast path.
+     */
+    private static final int DATE_LENGTH = 23;
+    private static final int FIELDS = 46;
+    private static final int DATES = 3;
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private final byte[] separator;
+    private final ZoneRules rules;
+    private final DateTimeFormatter fallbackFormatter;
+    private final int fixedLength;
+    private volatile OffsetWindow offsetWindow;
+
+    /**
+     * @param separator the separator of the values, as in {@code application.cdr.separator}
+     */
+    public CdrLineEncoder(String separator) {
+        this(separator, ZoneId.systemDefault());
+    }
+
+    CdrLineEncoder(String separator, ZoneId zoneId) {
+        this.separator = separator.getBytes(StandardCharsets.UTF_8);
+        this.rules = zoneId.getRules();
+        this.fallbackFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(zoneId);
+        this.fixedLength = DATES * DATE_LENGTH + (FIELDS - 1) * this.separator.length;
+        this.offsetWindow = new OffsetWindow(0, -1, 0);
+    }
+
+    /**
+     * Returns an upper bound of the number of bytes {@link #encode} writes for the given record, so the caller can make
+     * room for it beforehand.
+     *
+     * @param cdr the record
+     * @return the maximum length of its line in bytes
+     */
+    public int maxLength(UtilsRecords.Cdr cdr) {
+        int text = maxLength(cdr.messageType()) + maxLength(cdr.messageId()) + maxLength(cdr.originationProtocol()) +
+                maxLength(cdr.originationNetworkId()) + maxLength(cdr.originationType()) +
+                maxLength(cdr.destinationProtocol()) + maxLength(cdr.destinationNetworkId()) +
+                maxLength(cdr.destinationType()) + maxLength(cdr.routingId()) + maxLength(cdr.status()) +
+                maxLength(cdr.statusCode()) + maxLength(cdr.comment()) + maxLength(cdr.dialogDuration()) +
+                maxLength(cdr.processingTime()) + maxLength(cdr.dataCoding()) + maxLength(cdr.validityPeriod()) +
+                maxLength(cdr.addrSrcDigits()) + maxLength(cdr.addrSrcTon()) + maxLength(cdr.addrSrcNpi()) +
+                maxLength(cdr.addrDstDigits()) + maxLength(cdr.addrDstTon()) + maxLength(cdr.addrDstNpi()) +
+                maxLength(cdr.remoteDialogId()) + maxLength(cdr.localDialogId()) + maxLength(cdr.localSpc()) +
+                maxLength(cdr.localSsn()) + maxLength(cdr.localGlobalTitleDigits()) + maxLength(cdr.remoteSpc()) +
+                maxLength(cdr.remoteSsn()) + maxLength(cdr.remoteGlobalTitleDigits()) + maxLength(cdr.imsi()) +
+                maxLength(cdr.nnnDigits()) + maxLength(cdr.originatorSccpAddress()) +
+                maxLength(cdr.mtServiceCenterAddress()) + maxLength(cdr.first20CharacterOfSms()) +
+                maxLength(cdr.esmClass()) + maxLength(cdr.udhi()) + maxLength(cdr.registeredDelivery()) +
+                maxLength(cdr.msgReferenceNumber()) + maxLength(cdr.totalSegment()) +
+                maxLength(cdr.segmentSequence()) + maxLength(cdr.retryNumber()) + maxLength(cdr.parentId());
+        // a date out of the fast path may be longer than 23 characters
+        return fixedLength + text + DATES * 8;
+    }
+
+    /**
+     * Writes the line of the given record, without line separator, at the position of the buffer.
+     *
+     * @param cdr    the record
+     * @param buffer the buffer, with at least {@link #maxLength} bytes remaining
+     */
+    public void encode(UtilsRecords.Cdr cdr, ByteBuffer buffer) {
+        this.putDate(buffer, cdr.recordDate());
+        buffer.put(separator);
+        this.putDate(buffer, cdr.submitDate());
+        buffer.put(separator);
+        this.putDate(buffer, cdr.deliveryDate());
+        buffer.put(separator);
+        putText(buffer, cdr.messageType());
+        buffer.put(separator);
+        putText(buffer, cdr.messageId());
+        buffer.put(separator);
+        putText(buffer, cdr.originationProtocol());
+        buffer.put(separator);
+        putText(buffer, cdr.originationNetworkId());
+        buffer.put(separator);
+        putText(buffer, cdr.originationType());
+        buffer.put(separator);
+        putText(buffer, cdr.destinationProtocol());
+        buffer.put(separator);
+        putText(buffer, cdr.destinationNetworkId());
+        buffer.put(separator);
+        putText(buffer, cdr.destinationType());
+        buffer.put(separator);
+        putText(buffer, cdr.routingId());
+        buffer.put(separator);
+        putText(buffer, cdr.status());
+        buffer.put(separator);
+        putText(buffer, cdr.statusCode());
+        buffer.put(separator);
+        putText(buffer, cdr.comment());
+        buffer.put(separator);
+        putText(buffer, cdr.dialogDuration());
+        buffer.put(separator);
+        putText(buffer, cdr.processingTime());
+        buffer.put(separator);
+        putText(buffer, cdr.dataCoding());
+        buffer.put(separator);
+        putText(buffer, cdr.validityPeriod());
+        buffer.put(separator);
+        putText(buffer, cdr.addrSrcDigits());
+        buffer.put(separator);
+        putText(buffer, cdr.addrSrcTon());
+        buffer.put(separator);
+        putText(buffer, cdr.addrSrcNpi());
+        buffer.put(separator);
+        putText(buffer, cdr.addrDstDigits());
+        buffer.put(separator);
+        putText(buffer, cdr.addrDstTon());
+        buffer.put(separator);
+        putText(buffer, cdr.addrDstNpi());
+        buffer.put(separator);
+        putText(buffer, cdr.remoteDialogId());
+        buffer.put(separator);
+        putText(buffer, cdr.localDialogId());
+        buffer.put(separator);
+        putText(buffer, cdr.localSpc());
+        buffer.put(separator);
+        putText(buffer, cdr.localSsn());
+        buffer.put(separator);
+        putText(buffer, cdr.localGlobalTitleDigits());
+        buffer.put(separator);
+        putText(buffer, cdr.remoteSpc());
+        buffer.put(separator);
+        putText(buffer, cdr.remoteSsn());
+        buffer.put(separator);
+        putText(buffer, cdr.remoteGlobalTitleDigits());
+        buffer.put(separator);
+        putText(buffer, cdr.imsi());
+        buffer.put(separator);
+        putText(buffer, cdr.nnnDigits());
+        buffer.put(separator);
+        putText(buffer, cdr.originatorSccpAddress());
+        buffer.put(separator);
+        putText(buffer, cdr.mtServiceCenterAddress());
+        buffer.put(separator);
+        putText(buffer, cdr.first20CharacterOfSms());
+        buffer.put(separator);
+        putText(buffer, cdr.esmClass());
+        buffer.put(separator);
+        putText(buffer, cdr.udhi());
+        buffer.put(separator);
+        putText(buffer, cdr.registeredDelivery());
+        buffer.put(separator);
+        putText(buffer, cdr.msgReferenceNumber());
+        buffer.put(separator);
+        putText(buffer, cdr.totalSegment());
+        buffer.put(separator);
+        putText(buffer, cdr.segmentSequence());
+        buffer.put(separator);
+        putText(buffer, cdr.retryNumber());
+        buffer.put(separator);
+        putText(buffer, cdr.parentId());
+    }
+
+    private static int maxLength(String value) {
+        // a char never takes more than three bytes in UTF-8, a surrogate pair takes four for two chars
+        return value == null ? NULL.length : value.length() * 3;
+    }
+
+    /**
+     * Writes the UTF-8 bytes of the value, replacing unpaired surrogates with '?' as {@link String#getBytes} does.
+     */
+    private static void putText(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.put(NULL);
+            return;
+        }
+
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put((byte) (0xF0 | codePoint >> 18))
+                            .put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                            .put((byte) (0x80 | codePoint >> 6 & 0x3F))
+                            .put((byte) (0x80 | codePoint & 0x3F));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private void putDate(ByteBuffer buffer, String milliseconds) {
+        if (!isLong(milliseconds)) {
+            buffer.put(NULL);
+            return;
+        }
+
+        long epochMillis;
+        try {
+            epochMillis = Long.parseLong(milliseconds);
+        } catch (NumberFormatException e) {
+            // only reached on overflow
+            buffer.put(NULL);
+            return;
+        }
+
+        long localSeconds = Math.floorDiv(epochMillis, 1000) + this.offsetSeconds(epochMillis);
+        long days = Math.floorDiv(localSeconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(localSeconds, SECONDS_PER_DAY);
+
+        // civil date from days since the epoch, in the proleptic Gregorian calendar
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 1 || year > 9999) {
+            buffer.put(fallbackFormatter.format(Instant.ofEpochMilli(epochMillis)).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+
+        putDigits(buffer, (int) year, 4);
+        buffer.put((byte) '-');
+        putDigits(buffer, month, 2);
+        buffer.put((byte) '-');
+        putDigits(buffer, day, 2);
+        buffer.put((byte) 'T');
+        putDigits(buffer, secondOfDay / 3600, 2);
+        buffer.put((byte) ':');
+        putDigits(buffer, secondOfDay / 60 % 60, 2);
+        buffer.put((byte) ':');
+        putDigits(buffer, secondOfDay % 60, 2);
+        buffer.put((byte) '.');
+        putDigits(buffer, (int) Math.floorMod(epochMillis, 1000), 3);
+    }
+
+    /**
+     * Checks the value has the shape {@link Long#parseLong} accepts, so invalid dates, usually empty, do not throw.
+     */
+    private static boolean isLong(String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+
+        int start = value.charAt(0) == '-' || value.charAt(0) == '+' ? 1 : 0;
+        if (start == value.length()) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putDigits(ByteBuffer buffer, int value, int digits) {
+        for (int divisor = digits == 4 ? 1000 : digits == 3 ? 100 : 10; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    private int offsetSeconds(long epochMillis) {
+        OffsetWindow window = offsetWindow;
+        if (epochMillis >= window.start && epochMillis < window.end) {
+            return window.offsetSeconds;
+        }
+
+        Instant instant = Instant.ofEpochMilli(epochMillis);
+        int offsetSeconds = rules.getOffset(instant).getTotalSeconds();
+        if (rules.isFixedOffset()) {
+            offsetWindow = new OffsetWindow(Long.MIN_VALUE, Long.MAX_VALUE, offsetSeconds);
+            return offsetSeconds;
+        }
+
+        ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1));
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        offsetWindow = new OffsetWindow(
+                previous == null ? Long.MIN_VALUE : previous.toEpochSecond() * 1000,
+                next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000,
+                offsetSeconds);
+        return offsetSeconds;
+    }
+
+    private record OffsetWindow(long start, long end, int offsetSeconds) {
+    }
+}
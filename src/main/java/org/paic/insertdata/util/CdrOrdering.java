@@ -0,0 +1,39 @@
+package org.paic.insertdata.util;
+
+/**
+ * Order of the CDR records handed to the writers, selected with {@code configuration.cdr-ordering}.
+ */
+public enum CdrOrdering {
+    /**
+     * Records keep the order they were taken from Redis in.
+     */
+    NONE,
+    /**
+     * Every batch is sorted by record date (default).
+     */
+    BATCH,
+    /**
+     * Every batch is sorted by record date, and in logs mode the batches written at the same time by the workers are
+     * merged, so the log file is ordered across workers.
+     */
+    GLOBAL;
+
+    /**
+     * Returns the ordering with the given name, ignoring case.
+     *
+     * @param name the configured ordering
+     * @return the ordering, {@link #BATCH} when the name is unknown
+     */
+    public static CdrOrdering of(String name) {
+        for (CdrOrdering ordering : values()) {
+            if (ordering.name().equalsIgnoreCase(name)) {
+                return ordering;
+            }
+        }
+        return BATCH;
+    }
+
+    public boolean isSorted() {
+        return this != NONE;
+    }
+}
@@ -1,26 +1,33 @@
 package org.paic.insertdata.util;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.paicbd.smsc.dto.UtilsRecords;
-import com.paicbd.smsc.utils.DataFetcher;
 import com.paicbd.smsc.utils.Generated;
 import lombok.extern.slf4j.Slf4j;
-import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
-import redis.clients.jedis.JedisCluster;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-
-import static com.paicbd.smsc.utils.Converter.stringToObject;
+import java.util.function.Function;
 
 @Slf4j
 public class CommonUtils {
     private static final ZoneId ZONE_ID = ZoneId.systemDefault();
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZONE_ID);
+    /**
+     * Reader of the records, failing on unknown properties as the former {@code Converter.stringToObject}, so a record
+     * of another format is discarded instead of being written with missing values.
+     */
+    private static final ObjectReader CDR_READER = new ObjectMapper().readerFor(UtilsRecords.Cdr.class);
+    private static final Comparator<KeyedCdr> KEYED_ORDER = Comparator.comparingLong(KeyedCdr::recordDate);
 
     @Generated
     private CommonUtils() {
@@ -87,69 +94,136 @@ public class CommonUtils {
     private static String convertMillisecondsToDateTimeString(String milliseconds) {
         try {
             long timestamp = Long.parseLong(milliseconds);
-            Instant instant = Instant.ofEpochMilli(timestamp);
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZONE_ID);
-            return formatter.format(instant);
+            return DATE_TIME_FORMATTER.format(Instant.ofEpochMilli(timestamp));
         } catch (NumberFormatException e) {
             return null;
         }
     }
 
-    public static void processCdr(
-            String mode, AppProperties appProperties, JedisCluster jedisCluster, TriConsumer<String, Integer, Integer> method) {
-        String configListName = appProperties.getCdrListName();
-        Map.Entry<Integer, Integer> workersAndBatch = CommonUtils.prepareCdrProcessing(
-                appProperties, jedisCluster, configListName, appProperties.getCdrWorkers(), appProperties.getCdrBatchSize());
+    /**
+     * Decodes the raw JSON records taken from Redis as bytes, discarding the ones that cannot be decoded,
+     * and sorts them by record date.
+     *
+     * @param batch the raw records, may be null when the list was empty
+     * @return the decoded records sorted by record date
+     */
+    public static Mono<List<UtilsRecords.Cdr>> decodeRawCdrBatch(List<byte[]> batch) {
+        return decodeRawCdrBatch(batch, CdrOrdering.BATCH);
+    }
+
+    /**
+     * Decodes the raw JSON records taken from Redis as bytes, discarding the ones that cannot be decoded.
+     * Every record is parsed straight from its bytes with a shared {@link ObjectReader}, without building a String,
+     * into a single list that is then sorted in place unless the ordering is {@link CdrOrdering#NONE}.
+     *
+     * @param batch    the raw records, may be null when the list was empty
+     * @param ordering the ordering of the records
+     * @return the decoded records
+     */
+    public static Mono<List<UtilsRecords.Cdr>> decodeRawCdrBatch(List<byte[]> batch, CdrOrdering ordering) {
+        return Mono.fromSupplier(() -> decode(batch, CommonUtils::readCdr, ordering));
+    }
+
+    /**
+     * Decodes the JSON records taken from Redis, discarding the ones that cannot be decoded,
+     * and sorts them by record date.
+     *
+     * @param batch the records, may be null when the list was empty
+     * @return the decoded records sorted by record date
+     */
+    public static Mono<List<UtilsRecords.Cdr>> decodeCdrBatch(List<String> batch) {
+        return decodeCdrBatch(batch, CdrOrdering.BATCH);
+    }
+
+    /**
+     * Decodes the JSON records taken from Redis, discarding the ones that cannot be decoded.
+     *
+     * @param batch    the records, may be null when the list was empty
+     * @param ordering the ordering of the records
+     * @return the decoded records
+     */
+    public static Mono<List<UtilsRecords.Cdr>> decodeCdrBatch(List<String> batch, CdrOrdering ordering) {
+        return Mono.fromSupplier(() -> decode(batch, CommonUtils::readCdr, ordering));
+    }
+
+    /**
+     * Sorts the given records in place by record date, oldest first. The epoch millis of every record are parsed once
+     * and compared as numbers. Records without a valid record date go last, keeping their order.
+     *
+     * @param records the records to sort, must be mutable
+     */
+    public static void sortByRecordDate(List<UtilsRecords.Cdr> records) {
+        int size = records.size();
+        if (size < 2) {
+            return;
+        }
+
+        KeyedCdr[] keyed = new KeyedCdr[size];
+        for (int i = 0; i < size; i++) {
+            UtilsRecords.Cdr cdr = records.get(i);
+            keyed[i] = new KeyedCdr(recordDateMillis(cdr), cdr);
+        }
+        Arrays.sort(keyed, KEYED_ORDER);
+        for (int i = 0; i < size; i++) {
+            records.set(i, keyed[i].cdr());
+        }
+    }
+
+    /**
+     * Returns the record date of the given record as epoch millis.
+     *
+     * @param cdr the record
+     * @return the record date, or {@link Long#MAX_VALUE} when it is missing or not a number
+     */
+    public static long recordDateMillis(UtilsRecords.Cdr cdr) {
+        String recordDate = cdr.recordDate();
+        if (Objects.isNull(recordDate) || recordDate.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Long.parseLong(recordDate);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
 
-        if (Objects.nonNull(workersAndBatch)) {
-            int workers = workersAndBatch.getKey();
-            int batchSize = workersAndBatch.getValue();
+    private static <T> List<UtilsRecords.Cdr> decode(List<T> batch, Function<T, UtilsRecords.Cdr> reader,
+                                                     CdrOrdering ordering) {
+        if (Objects.isNull(batch) || batch.isEmpty()) {
+            return List.of();
+        }
 
-            log.info("{} mode. Processing CDR with workers: {}, batchSize: {}", mode, workers, batchSize);
-            method.accept(configListName, batchSize, workers);
+        List<UtilsRecords.Cdr> records = new ArrayList<>(batch.size());
+        for (T raw : batch) {
+            UtilsRecords.Cdr cdr = reader.apply(raw);
+            if (Objects.nonNull(cdr)) {
+                records.add(cdr);
+            }
         }
+        if (ordering.isSorted()) {
+            sortByRecordDate(records);
+        }
+        return records;
     }
 
-    private static Map.Entry<Integer, Integer> prepareCdrProcessing(
-            AppProperties appProperties, JedisCluster jedisCluster, String configListName, long configWorkers, int configBatchSize) {
-        if (configWorkers < 1) {
-            log.error("Invalid number of workers: {}", configWorkers);
+    private static UtilsRecords.Cdr readCdr(byte[] raw) {
+        try {
+            return Objects.isNull(raw) ? null : CDR_READER.readValue(raw);
+        } catch (IOException e) {
+            log.warn("Discarding CDR record that cannot be decoded: {}", e.getMessage());
             return null;
         }
+    }
 
-        Map.Entry<Integer, Integer> workersAndBatch =
-                DataFetcher.calculateWorkersAndBatchSize(
-                        jedisCluster,
-                        configBatchSize,
-                        (int) appProperties.getIntervalMillis(),
-                        (int) configWorkers,
-                        configListName);
-
-        int workers = workersAndBatch.getKey();
-        if (workers == 0) {
-            log.debug("No CDR to process");
+    private static UtilsRecords.Cdr readCdr(String raw) {
+        try {
+            return Objects.isNull(raw) ? null : CDR_READER.readValue(raw);
+        } catch (IOException e) {
+            log.warn("Discarding CDR record that cannot be decoded: {}", e.getMessage());
             return null;
         }
-
-        return workersAndBatch;
     }
 
-    public static Flux<List<UtilsRecords.Cdr>> getCdrBatches(
-            JedisCluster jedisCluster, String listName, int batchSize, int workers) {
-        return Flux.range(0, workers)
-                .subscribeOn(Schedulers.boundedElastic())
-                .flatMap(worker -> {
-                    List<String> batch = jedisCluster.lpop(listName, batchSize);
-                    return Flux.fromIterable(batch)
-                            .parallel()
-                            .runOn(Schedulers.parallel())
-                            .map(msgRaw -> stringToObject(msgRaw, UtilsRecords.Cdr.class))
-                            .filter(Objects::nonNull)
-                            .sequential()
-                            .collectSortedList(Comparator.comparing(
-                                    UtilsRecords.Cdr::recordDate,
-                                    Comparator.nullsLast(Comparator.naturalOrder())
-                            ));
-                });
+    private record KeyedCdr(long recordDate, UtilsRecords.Cdr cdr) {
     }
 }
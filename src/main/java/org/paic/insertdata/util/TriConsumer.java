@@ -1,7 +0,0 @@
-package org.paic.insertdata.util;
-
-@FunctionalInterface
-public interface TriConsumer<T, U, V> {
-    void accept(T t, U u, V v);
-}
-
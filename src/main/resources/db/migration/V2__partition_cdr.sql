@@ -0,0 +1,176 @@
+-- Range partitioned cdr table.
+-- Partitions are named cdr_pYYYYMMDD (daily) or cdr_pYYYYMMDDHH (hourly) and are created ahead of time and dropped
+-- under the retention policy by the application (CdrPartitionManager). Rows without a partition, for example with
+-- no record_date, go to cdr_default.
+-- A primary key of a partitioned table must include record_date, which may be null, so id is an identity without it.
+ALTER TABLE cdr RENAME TO cdr_legacy;
+
+CREATE TABLE cdr
+(
+    id                         BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    record_date                TIMESTAMP,
+    submit_date                TIMESTAMP,
+    delivery_date              TIMESTAMP,
+    message_type               VARCHAR(10),
+    message_id                 VARCHAR(50),
+    origination_protocol       VARCHAR(20),
+    origination_network_id     VARCHAR(20),
+    origination_type           VARCHAR(5),
+    destination_type           VARCHAR(20),
+    destination_protocol       VARCHAR(20),
+    destination_network_id     VARCHAR(20),
+    routing_id                 INT,
+    status                     VARCHAR(50),
+    status_code                VARCHAR(50),
+    comment                    VARCHAR(50),
+    dialog_duration            BIGINT,
+    processing_time            BIGINT,
+    data_coding                INT,
+    validity_period            VARCHAR(50),
+    addr_src_digits            VARCHAR(50),
+    addr_src_ton               INT,
+    addr_src_npi               INT,
+    addr_dst_digits            VARCHAR(50),
+    addr_dst_ton               INT,
+    addr_dst_npi               INT,
+    remote_dialog_id           BIGINT,
+    local_dialog_id            BIGINT,
+    local_spc                  INT,
+    local_ssn                  INT,
+    local_global_title_digits  VARCHAR(255),
+    remote_spc                 INT,
+    remote_ssn                 INT,
+    remote_global_title_digits VARCHAR(50),
+    imsi                       VARCHAR(50),
+    nnn_digits                 VARCHAR(50),
+    originator_sccp_address    VARCHAR(50),
+    mt_service_center_address  VARCHAR(50),
+    first_20_character_of_sms  VARCHAR(20),
+    first_20_characters_of_sms VARCHAR(20),
+    esm_class                  VARCHAR(20),
+    udhi                       VARCHAR(20),
+    registered_delivery        INT,
+    msg_reference_number       VARCHAR(20),
+    total_segment              INT,
+    segment_sequence           INT,
+    retry_number               INT,
+    parent_id                  VARCHAR(50)
+) PARTITION BY RANGE (record_date);
+
+CREATE TABLE cdr_default PARTITION OF cdr DEFAULT;
+
+-- One daily partition for every day already stored, so the existing rows keep following the retention policy
+DO
+$$
+    DECLARE
+        day TIMESTAMP;
+    BEGIN
+        FOR day IN SELECT DISTINCT date_trunc('day', record_date) FROM cdr_legacy WHERE record_date IS NOT NULL
+            LOOP
+                EXECUTE format('CREATE TABLE %I PARTITION OF cdr FOR VALUES FROM (%L) TO (%L)',
+                               'cdr_p' || to_char(day, 'YYYYMMDD'), day, day + INTERVAL '1 day');
+            END LOOP;
+    END
+$$;
+
+INSERT INTO cdr (id,
+       record_date,
+       submit_date,
+       delivery_date,
+       message_type,
+       message_id,
+       origination_protocol,
+       origination_network_id,
+       origination_type,
+       destination_type,
+       destination_protocol,
+       destination_network_id,
+       routing_id,
+       status,
+       status_code,
+       comment,
+       dialog_duration,
+       processing_time,
+       data_coding,
+       validity_period,
+       addr_src_digits,
+       addr_src_ton,
+       addr_src_npi,
+       addr_dst_digits,
+       addr_dst_ton,
+       addr_dst_npi,
+       remote_dialog_id,
+       local_dialog_id,
+       local_spc,
+       local_ssn,
+       local_global_title_digits,
+       remote_spc,
+       remote_ssn,
+       remote_global_title_digits,
+       imsi,
+       nnn_digits,
+       originator_sccp_address,
+       mt_service_center_address,
+       first_20_character_of_sms,
+       first_20_characters_of_sms,
+       esm_class,
+       udhi,
+       registered_delivery,
+       msg_reference_number,
+       total_segment,
+       segment_sequence,
+       retry_number,
+       parent_id)
+SELECT id,
+       record_date,
+       submit_date,
+       delivery_date,
+       message_type,
+       message_id,
+       origination_protocol,
+       origination_network_id,
+       origination_type,
+       destination_type,
+       destination_protocol,
+       destination_network_id,
+       routing_id,
+       status,
+       status_code,
+       comment,
+       dialog_duration,
+       processing_time,
+       data_coding,
+       validity_period,
+       addr_src_digits,
+       addr_src_ton,
+       addr_src_npi,
+       addr_dst_digits,
+       addr_dst_ton,
+       addr_dst_npi,
+       remote_dialog_id,
+       local_dialog_id,
+       local_spc,
+       local_ssn,
+       local_global_title_digits,
+       remote_spc,
+       remote_ssn,
+       remote_global_title_digits,
+       imsi,
+       nnn_digits,
+       originator_sccp_address,
+       mt_service_center_address,
+       first_20_character_of_sms,
+       first_20_characters_of_sms,
+       esm_class,
+       udhi,
+       registered_delivery,
+       msg_reference_number,
+       total_segment,
+       segment_sequence,
+       retry_number,
+       parent_id
+FROM cdr_legacy;
+
+SELECT setval(pg_get_serial_sequence('cdr', 'id'), COALESCE((SELECT MAX(id) FROM cdr_legacy), 0) + 1, false);
+
+DROP TABLE cdr_legacy;
@@ -0,0 +1,309 @@
+-- Staging table of the staging write strategy (jdbc.write-strategy=staging).
+-- Batches are streamed into this UNLOGGED table with COPY, so writing them produces no WAL and updates no index of cdr,
+-- and CdrStagingMerger moves them into cdr in the background with cdr_merge_staging. The values are kept as text and
+-- converted to the column types by the merge. PostgreSQL empties an UNLOGGED table after a crash, so the rows not
+-- merged yet are lost then.
+CREATE UNLOGGED TABLE cdr_staging
+(
+    staged_id                  BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    record_date                TEXT,
+    submit_date                TEXT,
+    delivery_date              TEXT,
+    message_type               TEXT,
+    message_id                 TEXT,
+    origination_protocol       TEXT,
+    origination_network_id     TEXT,
+    origination_type           TEXT,
+    destination_type           TEXT,
+    destination_protocol       TEXT,
+    destination_network_id     TEXT,
+    routing_id                 TEXT,
+    status                     TEXT,
+    status_code                TEXT,
+    comment                    TEXT,
+    dialog_duration            TEXT,
+    processing_time            TEXT,
+    data_coding                TEXT,
+    validity_period            TEXT,
+    addr_src_digits            TEXT,
+    addr_src_ton               TEXT,
+    addr_src_npi               TEXT,
+    addr_dst_digits            TEXT,
+    addr_dst_ton               TEXT,
+    addr_dst_npi               TEXT,
+    remote_dialog_id           TEXT,
+    local_dialog_id            TEXT,
+    local_spc                  TEXT,
+    local_ssn                  TEXT,
+    local_global_title_digits  TEXT,
+    remote_spc                 TEXT,
+    remote_ssn                 TEXT,
+    remote_global_title_digits TEXT,
+    imsi                       TEXT,
+    nnn_digits                 TEXT,
+    originator_sccp_address    TEXT,
+    mt_service_center_address  TEXT,
+    first_20_character_of_sms  TEXT,
+    first_20_characters_of_sms TEXT,
+    esm_class                  TEXT,
+    udhi                       TEXT,
+    registered_delivery        TEXT,
+    msg_reference_number       TEXT,
+    total_segment              TEXT,
+    segment_sequence           TEXT,
+    retry_number               TEXT,
+    parent_id                  TEXT
+);
+
+-- Staged rows the cdr table rejected, for example with a value too long for its column, with the error.
+CREATE TABLE cdr_staging_rejected
+(
+    staged_id   BIGINT,
+    row_data    JSONB,
+    error       TEXT,
+    rejected_at TIMESTAMP DEFAULT now()
+);
+
+-- Inserts the given staged rows into cdr one by one, moving the rows cdr rejects to cdr_staging_rejected.
+CREATE FUNCTION cdr_merge_staging_rows(ids BIGINT[]) RETURNS VOID AS
+$$
+DECLARE
+    staged cdr_staging;
+BEGIN
+    FOR staged IN SELECT DISTINCT ON (COALESCE(message_id, staged_id::TEXT), message_type, status) *
+                  FROM cdr_staging
+                  WHERE staged_id = ANY (ids)
+                  ORDER BY COALESCE(message_id, staged_id::TEXT), message_type, status, staged_id
+        LOOP
+            BEGIN
+                INSERT INTO cdr (record_date,
+                                 submit_date,
+                                 delivery_date,
+                                 message_type,
+                                 message_id,
+                                 origination_protocol,
+                                 origination_network_id,
+                                 origination_type,
+                                 destination_type,
+                                 destination_protocol,
+                                 destination_network_id,
+                                 routing_id,
+                                 status,
+                                 status_code,
+                                 comment,
+                                 dialog_duration,
+                                 processing_time,
+                                 data_coding,
+                                 validity_period,
+                                 addr_src_digits,
+                                 addr_src_ton,
+                                 addr_src_npi,
+                                 addr_dst_digits,
+                                 addr_dst_ton,
+                                 addr_dst_npi,
+                                 remote_dialog_id,
+                                 local_dialog_id,
+                                 local_spc,
+                                 local_ssn,
+                                 local_global_title_digits,
+                                 remote_spc,
+                                 remote_ssn,
+                                 remote_global_title_digits,
+                                 imsi,
+                                 nnn_digits,
+                                 originator_sccp_address,
+                                 mt_service_center_address,
+                                 first_20_character_of_sms,
+                                 first_20_characters_of_sms,
+                                 esm_class,
+                                 udhi,
+                                 registered_delivery,
+                                 msg_reference_number,
+                                 total_segment,
+                                 segment_sequence,
+                                 retry_number,
+                                 parent_id)
+                VALUES (staged.record_date::TIMESTAMP,
+                        staged.submit_date::TIMESTAMP,
+                        staged.delivery_date::TIMESTAMP,
+                        staged.message_type,
+                        staged.message_id,
+                        staged.origination_protocol,
+                        staged.origination_network_id,
+                        staged.origination_type,
+                        staged.destination_type,
+                        staged.destination_protocol,
+                        staged.destination_network_id,
+                        staged.routing_id::INT,
+                        staged.status,
+                        staged.status_code,
+                        staged.comment,
+                        staged.dialog_duration::BIGINT,
+                        staged.processing_time::BIGINT,
+                        staged.data_coding::INT,
+                        staged.validity_period,
+                        staged.addr_src_digits,
+                        staged.addr_src_ton::INT,
+                        staged.addr_src_npi::INT,
+                        staged.addr_dst_digits,
+                        staged.addr_dst_ton::INT,
+                        staged.addr_dst_npi::INT,
+                        staged.remote_dialog_id::BIGINT,
+                        staged.local_dialog_id::BIGINT,
+                        staged.local_spc::INT,
+                        staged.local_ssn::INT,
+                        staged.local_global_title_digits,
+                        staged.remote_spc::INT,
+                        staged.remote_ssn::INT,
+                        staged.remote_global_title_digits,
+                        staged.imsi,
+                        staged.nnn_digits,
+                        staged.originator_sccp_address,
+                        staged.mt_service_center_address,
+                        staged.first_20_character_of_sms,
+                        staged.first_20_characters_of_sms,
+                        staged.esm_class,
+                        staged.udhi,
+                        staged.registered_delivery::INT,
+                        staged.msg_reference_number,
+                        staged.total_segment::INT,
+                        staged.segment_sequence::INT,
+                        staged.retry_number::INT,
+                        staged.parent_id);
+            EXCEPTION
+                WHEN data_exception OR integrity_constraint_violation THEN
+                    INSERT INTO cdr_staging_rejected (staged_id, row_data, error)
+                    VALUES (staged.staged_id, to_jsonb(staged), SQLERRM);
+            END;
+        END LOOP;
+END
+$$ LANGUAGE plpgsql;
+
+-- Moves up to max_rows of the oldest staged rows into cdr with one set-based INSERT and returns the number of rows
+-- taken from the staging table, 0 once it is empty. A row staged several times, with the same message_id,
+-- message_type and status, is inserted once. When cdr rejects a row the chunk is inserted row by row instead.
+-- SKIP LOCKED lets several instances merge at the same time without waiting for each other.
+CREATE FUNCTION cdr_merge_staging(max_rows INT) RETURNS INT AS
+$$
+DECLARE
+    ids BIGINT[];
+BEGIN
+    SELECT array_agg(staged_id)
+    INTO ids
+    FROM (SELECT staged_id
+          FROM cdr_staging
+          ORDER BY staged_id
+          LIMIT max_rows FOR UPDATE SKIP LOCKED) chunk;
+    IF ids IS NULL THEN
+        RETURN 0;
+    END IF;
+
+    BEGIN
+        INSERT INTO cdr (record_date,
+                         submit_date,
+                         delivery_date,
+                         message_type,
+                         message_id,
+                         origination_protocol,
+                         origination_network_id,
+                         origination_type,
+                         destination_type,
+                         destination_protocol,
+                         destination_network_id,
+                         routing_id,
+                         status,
+                         status_code,
+                         comment,
+                         dialog_duration,
+                         processing_time,
+                         data_coding,
+                         validity_period,
+                         addr_src_digits,
+                         addr_src_ton,
+                         addr_src_npi,
+                         addr_dst_digits,
+                         addr_dst_ton,
+                         addr_dst_npi,
+                         remote_dialog_id,
+                         local_dialog_id,
+                         local_spc,
+                         local_ssn,
+                         local_global_title_digits,
+                         remote_spc,
+                         remote_ssn,
+                         remote_global_title_digits,
+                         imsi,
+                         nnn_digits,
+                         originator_sccp_address,
+                         mt_service_center_address,
+                         first_20_character_of_sms,
+                         first_20_characters_of_sms,
+                         esm_class,
+                         udhi,
+                         registered_delivery,
+                         msg_reference_number,
+                         total_segment,
+                         segment_sequence,
+                         retry_number,
+                         parent_id)
+        SELECT record_date::TIMESTAMP,
+               submit_date::TIMESTAMP,
+               delivery_date::TIMESTAMP,
+               message_type,
+               message_id,
+               origination_protocol,
+               origination_network_id,
+               origination_type,
+               destination_type,
+               destination_protocol,
+               destination_network_id,
+               routing_id::INT,
+               status,
+               status_code,
+               comment,
+               dialog_duration::BIGINT,
+               processing_time::BIGINT,
+               data_coding::INT,
+               validity_period,
+               addr_src_digits,
+               addr_src_ton::INT,
+               addr_src_npi::INT,
+               addr_dst_digits,
+               addr_dst_ton::INT,
+               addr_dst_npi::INT,
+               remote_dialog_id::BIGINT,
+               local_dialog_id::BIGINT,
+               local_spc::INT,
+               local_ssn::INT,
+               local_global_title_digits,
+               remote_spc::INT,
+               remote_ssn::INT,
+               remote_global_title_digits,
+               imsi,
+               nnn_digits,
+               originator_sccp_address,
+               mt_service_center_address,
+               first_20_character_of_sms,
+               first_20_characters_of_sms,
+               esm_class,
+               udhi,
+               registered_delivery::INT,
+               msg_reference_number,
+               total_segment::INT,
+               segment_sequence::INT,
+               retry_number::INT,
+               parent_id
+        FROM (SELECT DISTINCT ON (COALESCE(message_id, staged_id::TEXT), message_type, status) *
+              FROM cdr_staging
+              WHERE staged_id = ANY (ids)
+              ORDER BY COALESCE(message_id, staged_id::TEXT), message_type, status, staged_id) unique_rows
+        ORDER BY staged_id;
+    EXCEPTION
+        WHEN data_exception OR integrity_constraint_violation THEN
+            PERFORM cdr_merge_staging_rows(ids);
+    END;
+
+    DELETE FROM cdr_staging WHERE staged_id = ANY (ids);
+    RETURN cardinality(ids);
+END
+$$ LANGUAGE plpgsql;
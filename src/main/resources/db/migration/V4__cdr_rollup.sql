@@ -0,0 +1,15 @@
+-- Per-minute counters of the cdr records, upserted by the application (CdrRollup) when jdbc.rollup-enabled is set, so
+-- the reports read them instead of grouping the rows of the cdr table. minute is the record_date truncated to the
+-- minute. Missing dimension values are stored as empty strings, as the dimensions are part of the primary key.
+CREATE TABLE cdr_rollup_minute
+(
+    minute                 TIMESTAMP NOT NULL,
+    status                 TEXT      NOT NULL,
+    origination_network_id TEXT      NOT NULL,
+    destination_network_id TEXT      NOT NULL,
+    message_type           TEXT      NOT NULL,
+    records                BIGINT    NOT NULL,
+    processing_time_sum    BIGINT    NOT NULL,
+    dialog_duration_sum    BIGINT    NOT NULL,
+    PRIMARY KEY (minute, status, origination_network_id, destination_network_id, message_type)
+);
@@ -0,0 +1,115 @@
+package org.paic.insertdata.benchmark;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.paic.insertdata.component.BulkInserter;
+import org.paic.insertdata.component.CdrColumnBinder;
+import org.paic.insertdata.component.ObjectsCreator;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the cost of turning one batch of CDR records into database rows, without a database.
+ * <ul>
+ *     <li>{@code bindRows}: every record bound to a PreparedStatement by the {@link CdrColumnBinder}, as the batch
+ *     write strategy does.</li>
+ *     <li>{@code copyRows}: every record encoded as a COPY text row, as the copy write strategy does.</li>
+ *     <li>{@code saveCdrBulk}: the batch write strategy of {@link BulkInserter} end to end through the
+ *     {@link JdbcTemplate}, down to {@code executeBatch}.</li>
+ * </ul>
+ * The PreparedStatement is a {@link StubJdbc} stub that only hands the values to a {@link Blackhole}. A Mockito mock records every
+ * invocation, so it would measure Mockito rather than the binding.
+ * Run it with the GC profiler to get the bytes allocated per batch ({@code gc.alloc.rate.norm}):
+ * {@code -Dbenchmark.args="-prof gc -rf json -rff target/jmh-result.json"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+public class BulkInserterBindBenchmark {
+    @Param({"1000", "15000"})
+    private int batchSize;
+
+    private List<UtilsRecords.Cdr> batch;
+    private CdrColumnBinder binder;
+    private PreparedStatement statement;
+    private OutputStream copyStream;
+    private BulkInserter bulkInserter;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(cdr);
+        }
+        binder = CdrColumnBinder.forCdr();
+        Connection connection = StubJdbc.connection(blackhole::consume, 0);
+        try {
+            statement = connection.prepareStatement("");
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        copyStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                blackhole.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                blackhole.consume(b);
+            }
+        };
+
+        AppProperties appProperties = mock(AppProperties.class);
+        when(appProperties.getWriteStrategy()).thenReturn(BulkInserter.BATCH_STRATEGY);
+        bulkInserter = new BulkInserter(new JdbcTemplate(new SingleConnectionDataSource(connection, true)), appProperties);
+    }
+
+    @Benchmark
+    public void bindRows() throws SQLException {
+        for (UtilsRecords.Cdr cdr : batch) {
+            binder.bind(statement, cdr);
+        }
+    }
+
+    @Benchmark
+    public void copyRows() throws IOException {
+        for (UtilsRecords.Cdr cdr : batch) {
+            binder.writeCopyRow(copyStream, cdr);
+        }
+    }
+
+    @Benchmark
+    public void saveCdrBulk() {
+        bulkInserter.saveCdrBulk(batch);
+    }
+}
@@ -0,0 +1,79 @@
+package org.paic.insertdata.benchmark;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.paic.insertdata.component.BulkInserter;
+import org.paic.insertdata.component.ObjectsCreator;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the COPY and the JDBC batch write strategies of {@link BulkInserter} against a real PostgreSQL database.
+ * The database is taken from the system properties {@code benchmark.datasource.url}, {@code benchmark.datasource.username}
+ * and {@code benchmark.datasource.password}, and must already contain the cdr table created by Flyway.
+ * The cdr table is truncated after every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class BulkInserterWriteBenchmark {
+    @Param({BulkInserter.BATCH_STRATEGY, BulkInserter.COPY_STRATEGY})
+    private String writeStrategy;
+
+    @Param({"1000", "15000"})
+    private int batchSize;
+
+    private JdbcTemplate jdbcTemplate;
+    private BulkInserter bulkInserter;
+    private List<UtilsRecords.Cdr> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                System.getProperty("benchmark.datasource.url", "jdbc:postgresql://localhost:5432/db_insert_data"),
+                System.getProperty("benchmark.datasource.username", "postgres"),
+                System.getProperty("benchmark.datasource.password", "1234"));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        AppProperties appProperties = mock(AppProperties.class);
+        when(appProperties.getWriteStrategy()).thenReturn(writeStrategy);
+        bulkInserter = new BulkInserter(jdbcTemplate, appProperties);
+        batch = Collections.nCopies(batchSize, ObjectsCreator.getDefaultCdr());
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() {
+        jdbcTemplate.execute("TRUNCATE TABLE cdr");
+    }
+
+    /**
+     * Writes one batch per invocation, the score is reported in batches per second.
+     */
+    @Benchmark
+    public void saveCdrBulk() {
+        bulkInserter.saveCdrBulk(batch);
+    }
+}
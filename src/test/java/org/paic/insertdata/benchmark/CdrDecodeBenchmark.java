@@ -0,0 +1,95 @@
+package org.paic.insertdata.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.paic.insertdata.component.ObjectsCreator;
+import org.paic.insertdata.util.CommonUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.paicbd.smsc.utils.Converter.stringToObject;
+
+/**
+ * Compares the allocation and the time needed to decode one batch of CDR records taken from Redis.
+ * <ul>
+ *     <li>{@code stringDecode}: the former path, Jedis String replies decoded with {@code Converter.stringToObject} in
+ *     parallel and collected again into a sorted list.</li>
+ *     <li>{@code rawDecode}: binary replies decoded with the shared reader of {@link CommonUtils#decodeRawCdrBatch}.</li>
+ * </ul>
+ * Run it with the GC profiler to get the bytes allocated per batch ({@code gc.alloc.rate.norm}):
+ * {@code -Dbenchmark.args="-prof gc -rf json -rff target/jmh-result.json"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CdrDecodeBenchmark {
+    @Param({"1000", "15000"})
+    private int batchSize;
+
+    private List<byte[]> rawBatch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JsonProcessingException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        rawBatch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            // distinct record dates, so the sort does real work
+            String recordDate = String.valueOf(Long.parseLong(cdr.recordDate()) + (i * 7919L) % batchSize);
+            rawBatch.add(objectMapper.writeValueAsString(cdr).replace(cdr.recordDate(), recordDate).getBytes());
+        }
+    }
+
+    /**
+     * Decodes one batch the way it was done before the binary reader, including the String built by Jedis for every
+     * record of its String replies.
+     */
+    @Benchmark
+    public List<UtilsRecords.Cdr> stringDecode() {
+        List<String> batch = new ArrayList<>(rawBatch.size());
+        for (byte[] raw : rawBatch) {
+            batch.add(SafeEncoder.encode(raw));
+        }
+
+        return Flux.fromIterable(batch)
+                .parallel()
+                .runOn(Schedulers.parallel())
+                .flatMap(msgRaw -> Mono.justOrEmpty(stringToObject(msgRaw, UtilsRecords.Cdr.class)))
+                .sequential()
+                .collectSortedList(Comparator.comparing(
+                        UtilsRecords.Cdr::recordDate,
+                        Comparator.nullsLast(Comparator.naturalOrder())))
+                .block();
+    }
+
+    /**
+     * Decodes one batch from the binary replies.
+     */
+    @Benchmark
+    public List<UtilsRecords.Cdr> rawDecode() {
+        return CommonUtils.decodeRawCdrBatch(rawBatch).block();
+    }
+}
@@ -0,0 +1,97 @@
+package org.paic.insertdata.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.paic.insertdata.component.CdrBatch;
+import org.paic.insertdata.component.CdrMetrics;
+import org.paic.insertdata.component.ObjectsCreator;
+import org.paic.insertdata.component.RedisCdrQueue;
+import org.paic.insertdata.util.AppProperties;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures one round of fetches of all the workers, from LPOP to the decoded and sorted batches, against an
+ * in-process stand-in of Redis that never runs out of records, through the {@link RedisCdrQueue} used by the pipeline,
+ * in pop mode, with its metrics.
+ * The stand-in returns the same raw records on every LPOP, shuffled once with a fixed seed, so every run decodes and
+ * sorts the same data. The network is left out on purpose: the score is the CPU cost of the client side.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+public class CdrFetchPipelineBenchmark {
+    private static final String LIST_NAME = "cdr";
+    private static final long SEED = 20240101L;
+
+    @Param({"1000", "15000"})
+    private int batchSize;
+
+    @Param({"1", "5"})
+    private int workers;
+
+    private JedisCluster jedisCluster;
+    private RedisCdrQueue redisCdrQueue;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JsonProcessingException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        String json = objectMapper.writeValueAsString(cdr);
+        Random random = new Random(SEED);
+        List<byte[]> records = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            // record dates spread over a minute and out of order, as several producers would push them
+            String recordDate = String.valueOf(Long.parseLong(cdr.recordDate()) + random.nextInt(60_000));
+            records.add(json.replace(cdr.recordDate(), recordDate).getBytes());
+        }
+        List<byte[]> batch = List.copyOf(records);
+
+        jedisCluster = mock(JedisCluster.class, withSettings().stubOnly());
+        when(jedisCluster.lpop(any(byte[].class), anyInt())).thenReturn(batch);
+
+        AppProperties appProperties = mock(AppProperties.class, withSettings().stubOnly());
+        when(appProperties.getCdrOrdering()).thenReturn("batch");
+        when(appProperties.getCdrConsumptionMode()).thenReturn("pop");
+        when(appProperties.getCdrListName()).thenReturn(LIST_NAME);
+        when(appProperties.getCdrWorkers()).thenReturn(workers);
+        redisCdrQueue = new RedisCdrQueue(jedisCluster, appProperties, new CdrMetrics());
+    }
+
+    @Benchmark
+    public List<CdrBatch> redisCdrQueue() {
+        return Flux.range(0, workers)
+                .flatMap(worker -> redisCdrQueue.fetch(LIST_NAME, worker, batchSize).subscribeOn(Schedulers.boundedElastic()), workers)
+                .doOnNext(redisCdrQueue::acknowledge)
+                .collectList()
+                .block();
+    }
+}
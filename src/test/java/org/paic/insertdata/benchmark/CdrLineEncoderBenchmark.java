@@ -0,0 +1,89 @@
+package org.paic.insertdata.benchmark;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.paic.insertdata.component.ObjectsCreator;
+import org.paic.insertdata.util.CdrLineEncoder;
+import org.paic.insertdata.util.CommonUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the allocation and the time needed to turn one batch of CDR records into the bytes of logs mode.
+ * <ul>
+ *     <li>{@code joinedString}: the former path, every line built with {@link CommonUtils#createStringCdr}, the lines
+ *     joined into one String and encoded to UTF-8 by the appender.</li>
+ *     <li>{@code lineEncoder}: every line encoded by the {@link CdrLineEncoder} into a reused buffer, as done by the
+ *     CDR file sink.</li>
+ * </ul>
+ * Run it with the GC profiler to get the bytes allocated per batch ({@code gc.alloc.rate.norm}):
+ * {@code -Dbenchmark.args="-prof gc -rf json -rff target/jmh-result.json"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CdrLineEncoderBenchmark {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1000", "15000"})
+    private int batchSize;
+
+    private List<UtilsRecords.Cdr> batch;
+    private CdrLineEncoder encoder;
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(cdr);
+        }
+        encoder = new CdrLineEncoder("|");
+        buffer = ByteBuffer.allocateDirect(256 * 1024);
+    }
+
+    @Benchmark
+    public byte[] joinedString() {
+        return batch.stream()
+                .map(cdr -> CommonUtils.createStringCdr(cdr, "|"))
+                .collect(Collectors.joining(System.lineSeparator()))
+                .concat(System.lineSeparator())
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int lineEncoder() {
+        int bytes = 0;
+        for (UtilsRecords.Cdr cdr : batch) {
+            if (buffer.remaining() < encoder.maxLength(cdr) + LINE_SEPARATOR.length) {
+                bytes += buffer.position();
+                buffer.clear();
+            }
+            encoder.encode(cdr, buffer);
+            buffer.put(LINE_SEPARATOR);
+        }
+        bytes += buffer.position();
+        buffer.clear();
+        return bytes;
+    }
+}
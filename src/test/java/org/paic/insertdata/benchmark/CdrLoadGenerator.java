@@ -0,0 +1,336 @@
+package org.paic.insertdata.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.paicbd.smsc.dto.UtilsRecords;
+import lombok.extern.slf4j.Slf4j;
+import org.paic.insertdata.component.BulkInserter;
+import org.paic.insertdata.component.CdrBatchWriter;
+import org.paic.insertdata.component.CdrDeadLetterQueue;
+import org.paic.insertdata.component.CdrMetrics;
+import org.paic.insertdata.component.CdrPipeline;
+import org.paic.insertdata.component.CdrSink;
+import org.paic.insertdata.component.DatabaseModeProcessor;
+import org.paic.insertdata.component.LogsModeProcessor;
+import org.paic.insertdata.component.ObjectsCreator;
+import org.paic.insertdata.component.RedisCdrQueue;
+import org.paic.insertdata.config.BeansDefinition;
+import org.paic.insertdata.util.AppProperties;
+import org.paic.insertdata.util.CommonUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.support.ResourcePropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import redis.clients.jedis.JedisCluster;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Fills the CDR list at a target rate while the full pipeline of the logs or the database mode drains it, and reports
+ * the sustained throughput, the end-to-end lag and the batch write latency.
+ * <p>
+ * The configuration is the one of the application, {@code application.properties} overridden by system properties,
+ * plus the {@code load.*} properties of the generator:
+ * <ul>
+ *     <li>{@code load.rate}: records pushed per second (default 50000).</li>
+ *     <li>{@code load.warmup-seconds} and {@code load.duration-seconds}: the measurement starts after the warmup
+ *     (default 10 and 60).</li>
+ *     <li>{@code load.redis}: {@code memory} for an in-process list standing in for Redis (default), or {@code cluster}
+ *     for the Redis cluster of {@code redis.cluster.nodes}.</li>
+ *     <li>{@code load.database}: {@code stub} for a JDBC stub taking {@code load.database-latency-millis} per batch
+ *     (default, with the batch write strategy), or {@code postgres} for the database of {@code spring.datasource.url},
+ *     whose cdr table must exist.</li>
+ * </ul>
+ * The sink is {@code application.mode}. Every record is generated with the current time as record date, so its lag
+ * is the time from its generation to the end of the write of its batch.
+ */
+@Slf4j
+public class CdrLoadGenerator {
+    private static final int PUSH_CHUNK = 1000;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SEED = 20240101L;
+    private static final String[] STATUSES = {"SENT", "SENT", "SENT", "SENT", "DELIVRD", "DELIVRD", "UNDELIV", "EXPIRED"};
+
+    private final AppProperties appProperties;
+    private final long rate;
+    private final long warmupSeconds;
+    private final long durationSeconds;
+    private final RecordingWriter recordingWriter = new RecordingWriter();
+    private final LongAdder produced = new LongAdder();
+    private volatile boolean generating = true;
+
+    CdrLoadGenerator(AppProperties appProperties, long rate, long warmupSeconds, long durationSeconds) {
+        this.appProperties = appProperties;
+        this.rate = rate;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String database = System.getProperty("load.database", "stub");
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.getEnvironment().getPropertySources().addLast(new ResourcePropertySource("classpath:application.properties"));
+            if ("stub".equals(database)) {
+                // the COPY protocol needs a real PostgreSQL connection
+                context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("load", Map.of("jdbc.write-strategy", BulkInserter.BATCH_STRATEGY)));
+            }
+            context.register(AppProperties.class);
+            context.refresh();
+
+            AppProperties appProperties = context.getBean(AppProperties.class);
+            new CdrLoadGenerator(appProperties, Long.getLong("load.rate", 50_000), Long.getLong("load.warmup-seconds", 10),
+                    Long.getLong("load.duration-seconds", 60))
+                    .run(System.getProperty("load.redis", "memory"), database);
+        }
+        System.exit(0);
+    }
+
+    void run(String redis, String database) throws InterruptedException {
+        JedisCluster jedisCluster = "cluster".equals(redis) ? new BeansDefinition(appProperties).jedisCluster() : inMemoryRedis();
+        CdrMetrics metrics = new CdrMetrics();
+        CdrSink sink = this.createSink(jedisCluster, database, metrics);
+        recordingWriter.delegate = sink;
+        CdrPipeline pipeline = new CdrPipeline(sink.name(), appProperties, new RedisCdrQueue(jedisCluster, appProperties, metrics),
+                recordingWriter, metrics);
+        String listName = appProperties.getCdrListName();
+
+        log.info("Load of {} records/s on {} ({} Redis), sink {} ({} database), warmup {}s, measurement {}s",
+                rate, listName, redis, sink.name(), database, warmupSeconds, durationSeconds);
+        Thread generator = Thread.ofPlatform().name("cdr-load-generator").start(() -> this.generate(jedisCluster, listName));
+        pipeline.start();
+
+        long start = System.nanoTime();
+        long lastWritten = 0;
+        long lastProduced = 0;
+        long measureStartWritten = 0;
+        for (long second = 1; second <= warmupSeconds + durationSeconds; second++) {
+            LockSupport.parkNanos(start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime());
+            long written = recordingWriter.written.sum();
+            long producedNow = produced.sum();
+            log.info("{}s {} | produced {}/s, written {}/s, backlog {}, lag p99 {} ms", second,
+                    second <= warmupSeconds ? "warmup" : "measure", producedNow - lastProduced, written - lastWritten,
+                    jedisCluster.llen(listName), recordingWriter.lag.percentile(0.99));
+            lastWritten = written;
+            lastProduced = producedNow;
+            if (second == warmupSeconds) {
+                measureStartWritten = written;
+                recordingWriter.reset();
+            }
+        }
+        long measured = recordingWriter.written.sum() - measureStartWritten;
+
+        generating = false;
+        generator.join();
+        pipeline.stop();
+        sink.close();
+        this.report(measured, jedisCluster.llen(listName));
+    }
+
+    private CdrSink createSink(JedisCluster jedisCluster, String database, CdrMetrics metrics) {
+        if (!"database".equalsIgnoreCase(appProperties.getApplicationMode())) {
+            return new LogsModeProcessor(appProperties);
+        }
+
+        DataSource dataSource = "postgres".equals(database)
+                ? new BeansDefinition(appProperties).dataSource()
+                : new SingleConnectionDataSource(StubJdbc.connection(value -> {
+        }, Long.getLong("load.database-latency-millis", 20)), true);
+        BulkInserter bulkInserter = new BulkInserter(new JdbcTemplate(dataSource), appProperties);
+        return new DatabaseModeProcessor(appProperties, bulkInserter, new CdrDeadLetterQueue(jedisCluster, appProperties), metrics);
+    }
+
+    /**
+     * Pushes the records in ticks of 10 ms, catching up when a tick took longer.
+     */
+    private void generate(JedisCluster jedisCluster, String listName) {
+        byte[] key = listName.getBytes();
+        RecordFactory records = new RecordFactory();
+        long start = System.nanoTime();
+        long pushed = 0;
+        while (generating) {
+            long due = (System.nanoTime() - start) * rate / TimeUnit.SECONDS.toNanos(1);
+            while (pushed < due && generating) {
+                int chunk = (int) Math.min(PUSH_CHUNK, due - pushed);
+                byte[][] values = new byte[chunk][];
+                for (int i = 0; i < chunk; i++) {
+                    values[i] = records.next();
+                }
+                jedisCluster.rpush(key, values);
+                pushed += chunk;
+                produced.add(chunk);
+            }
+            LockSupport.parkNanos(TICK_NANOS);
+        }
+    }
+
+    private void report(long measured, long backlog) {
+        LatencyHistogram lag = recordingWriter.lag;
+        LatencyHistogram write = recordingWriter.writeLatency;
+        log.info("Sustained throughput: {} records/s for a target of {} records/s, backlog left {}",
+                measured / Math.max(1, durationSeconds), rate, backlog);
+        log.info("End-to-end lag ms: p50 {}, p90 {}, p99 {}, p99.9 {}, max {}",
+                lag.percentile(0.5), lag.percentile(0.9), lag.percentile(0.99), lag.percentile(0.999), lag.max());
+        log.info("Batch write ms: p50 {}, p90 {}, p99 {}, max {}, batches {}, failed {}",
+                write.percentile(0.5), write.percentile(0.9), write.percentile(0.99), write.max(), write.count(),
+                recordingWriter.failed.sum());
+    }
+
+    /**
+     * Redis list standing in for the cluster, answering the commands the pipeline and the generator use.
+     */
+    private static JedisCluster inMemoryRedis() {
+        ConcurrentLinkedDeque<byte[]> list = new ConcurrentLinkedDeque<>();
+        JedisCluster jedisCluster = mock(JedisCluster.class, withSettings().stubOnly());
+        when(jedisCluster.rpush(any(byte[].class), any(byte[][].class))).thenAnswer(invocation -> {
+            for (byte[] value : (byte[][]) invocation.getRawArguments()[1]) {
+                list.addLast(value);
+            }
+            return (long) list.size();
+        });
+        when(jedisCluster.lpop(any(byte[].class), anyInt())).thenAnswer(invocation -> {
+            int count = invocation.getArgument(1);
+            List<byte[]> popped = new ArrayList<>(Math.min(count, PUSH_CHUNK * 16));
+            byte[] value;
+            while (popped.size() < count && (value = list.pollFirst()) != null) {
+                popped.add(value);
+            }
+            return popped.isEmpty() ? null : popped;
+        });
+        when(jedisCluster.llen(anyString())).thenAnswer(invocation -> (long) list.size());
+        return jedisCluster;
+    }
+
+    /**
+     * Builds CDR records with the shape of {@link ObjectsCreator#getDefaultCdr()}, the current time as record date and
+     * varying identifiers, addresses and status.
+     */
+    private static final class RecordFactory {
+        private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+        private final ObjectWriter writer = OBJECT_MAPPER.writer();
+        private final ObjectNode template = OBJECT_MAPPER.valueToTree(ObjectsCreator.getDefaultCdr());
+        private final Random random = new Random(SEED);
+        private final AtomicLong sequence = new AtomicLong();
+
+        private byte[] next() {
+            long now = System.currentTimeMillis();
+            String messageId = now + "-" + sequence.incrementAndGet();
+            template.put("record_date", String.valueOf(now))
+                    .put("submit_date", String.valueOf(now - random.nextInt(2000)))
+                    .put("delivery_date", String.valueOf(now))
+                    .put("message_id", messageId)
+                    .put("parent_id", messageId)
+                    .put("status", STATUSES[random.nextInt(STATUSES.length)])
+                    .put("addr_src_digits", String.valueOf(1_000_000_000L + random.nextInt(900_000_000)))
+                    .put("addr_dst_digits", String.valueOf(1_000_000_000L + random.nextInt(900_000_000)));
+            try {
+                return writer.writeValueAsBytes(template);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Writer between the pipeline and the sink, recording the lag of every written record and the write latency.
+     */
+    private static final class RecordingWriter implements CdrBatchWriter {
+        private final LongAdder written = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private volatile CdrBatchWriter delegate;
+        private volatile LatencyHistogram lag = new LatencyHistogram();
+        private volatile LatencyHistogram writeLatency = new LatencyHistogram();
+
+        @Override
+        public boolean write(List<UtilsRecords.Cdr> records) {
+            long start = System.nanoTime();
+            boolean ok = delegate.write(records);
+            long end = System.currentTimeMillis();
+            writeLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (!ok) {
+                failed.increment();
+                return false;
+            }
+            LatencyHistogram recordLag = lag;
+            for (UtilsRecords.Cdr cdr : records) {
+                recordLag.record(end - CommonUtils.recordDateMillis(cdr));
+            }
+            written.add(records.size());
+            return true;
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        private void reset() {
+            lag = new LatencyHistogram();
+            writeLatency = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Counts of latencies at millisecond resolution up to 10 minutes, the longer ones counted as 10 minutes.
+     */
+    private static final class LatencyHistogram {
+        private static final int MAX_MILLIS = 600_000;
+
+        private final AtomicLongArray counts = new AtomicLongArray(MAX_MILLIS + 1);
+        private final LongAdder count = new LongAdder();
+
+        private void record(long millis) {
+            counts.incrementAndGet((int) Math.clamp(millis, 0, MAX_MILLIS));
+            count.increment();
+        }
+
+        private long count() {
+            return count.sum();
+        }
+
+        private long percentile(double percentile) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int millis = 0; millis <= MAX_MILLIS; millis++) {
+                seen += counts.get(millis);
+                if (seen >= rank) {
+                    return millis;
+                }
+            }
+            return MAX_MILLIS;
+        }
+
+        private long max() {
+            for (int millis = MAX_MILLIS; millis >= 0; millis--) {
+                if (counts.get(millis) > 0) {
+                    return millis;
+                }
+            }
+            return 0;
+        }
+    }
+}
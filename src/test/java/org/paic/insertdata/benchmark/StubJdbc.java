@@ -0,0 +1,84 @@
+package org.paic.insertdata.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * JDBC connection standing in for PostgreSQL in the benchmarks, supporting the batch updates of the batch write strategy.
+ * The values bound to its statements are handed to a consumer and dropped, and every {@code executeBatch} takes a fixed
+ * time, as the round trip and the commit of a real database would.
+ */
+final class StubJdbc {
+    private static final int[] NO_UPDATES = new int[0];
+
+    private StubJdbc() {
+    }
+
+    /**
+     * Creates a connection whose statements pass every bound value to the given consumer.
+     *
+     * @param values              receives the bound values, a Blackhole in the benchmarks
+     * @param executeBatchMillis  the time taken by every executeBatch, 0 to return at once
+     * @return the connection
+     */
+    static Connection connection(Consumer<Object> values, long executeBatchMillis) {
+        Connection[] connection = new Connection[1];
+        PreparedStatement statement = proxy(PreparedStatement.class, (proxy, method, args) -> {
+            if (method.getName().startsWith("set") && args != null && args.length == 2) {
+                values.accept(args[1]);
+                return null;
+            }
+            return switch (method.getName()) {
+                case "executeBatch" -> {
+                    sleep(executeBatchMillis);
+                    yield NO_UPDATES;
+                }
+                case "getConnection" -> connection[0];
+                default -> defaultValue(method.getReturnType());
+            };
+        });
+        DatabaseMetaData metaData = proxy(DatabaseMetaData.class,
+                (proxy, method, args) -> method.getName().equals("supportsBatchUpdates") ? Boolean.TRUE : defaultValue(method.getReturnType()));
+        connection[0] = proxy(Connection.class, (proxy, method, args) -> switch (method.getName()) {
+            case "prepareStatement" -> statement;
+            case "getMetaData" -> metaData;
+            case "getAutoCommit" -> Boolean.TRUE;
+            default -> defaultValue(method.getReturnType());
+        });
+        return connection[0];
+    }
+
+    private static void sleep(long millis) throws SQLException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while executing the batch", e);
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StubJdbc.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
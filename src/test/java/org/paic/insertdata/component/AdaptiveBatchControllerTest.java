@@ -0,0 +1,154 @@
+package org.paic.insertdata.component;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.paic.insertdata.util.AppProperties;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class AdaptiveBatchControllerTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Mock
+    private AppProperties appProperties;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @BeforeEach
+    void setUp() {
+        when(appProperties.isAdaptiveBatching()).thenReturn(true);
+        when(appProperties.getCdrBatchSize()).thenReturn(10000);
+        when(appProperties.getMinBatchSize()).thenReturn(1000);
+        when(appProperties.getMaxBatchSize()).thenReturn(20000);
+        when(appProperties.getMaxInFlightBatches()).thenReturn(4);
+        when(appProperties.getCdrWorkers()).thenReturn(4);
+        when(appProperties.getTargetLatencyMillis()).thenReturn(500L);
+    }
+
+    @Test
+    @DisplayName("On written when writes are slower than the target then shrink the batch size before the concurrency")
+    void onWrittenWhenWritesAreSlowerThanTheTargetThenShrinkTheBatchSizeFirst() {
+        AdaptiveBatchController controller = new AdaptiveBatchController("Test", appProperties, clock::get);
+
+        this.written(controller, 10000, 2 * SECOND);
+        assertEquals(5000, controller.batchSize());
+        assertEquals(4, controller.concurrency());
+
+        this.written(controller, 5000, 2 * SECOND);
+        this.written(controller, 2500, 2 * SECOND);
+        this.written(controller, 1250, 2 * SECOND);
+        assertEquals(1000, controller.batchSize());
+        assertEquals(4, controller.concurrency());
+
+        this.written(controller, 1000, 2 * SECOND);
+        assertEquals(1000, controller.batchSize());
+        assertEquals(3, controller.concurrency());
+    }
+
+    @Test
+    @DisplayName("On written when writes are faster than the target with full batches then grow concurrency and batch size")
+    void onWrittenWhenWritesAreFasterThanTheTargetThenGrowConcurrencyAndBatchSize() {
+        AdaptiveBatchController controller = new AdaptiveBatchController("Test", appProperties, clock::get);
+        controller.onFailed();
+        assertEquals(2, controller.concurrency());
+
+        this.written(controller, 10000, TARGET / 10);
+        this.written(controller, 10000, TARGET / 10);
+        assertEquals(4, controller.concurrency());
+        assertEquals(10000, controller.batchSize());
+
+        this.written(controller, 10000, TARGET / 10);
+        assertEquals(12500, controller.batchSize());
+
+        for (int i = 0; i < 10; i++) {
+            this.written(controller, controller.batchSize(), TARGET / 10);
+        }
+        assertEquals(20000, controller.batchSize());
+    }
+
+    @Test
+    @DisplayName("On written when there are fewer workers than in-flight batches then grow the batch size once every worker writes")
+    void onWrittenWhenThereAreFewerWorkersThanInFlightBatchesThenGrowTheBatchSizeOnceEveryWorkerWrites() {
+        when(appProperties.getCdrWorkers()).thenReturn(2);
+        AdaptiveBatchController controller = new AdaptiveBatchController("Test", appProperties, clock::get);
+        assertEquals(2, controller.concurrency());
+
+        this.written(controller, 10000, TARGET / 10);
+
+        assertEquals(2, controller.concurrency());
+        assertEquals(12500, controller.batchSize());
+    }
+
+    @Test
+    @DisplayName("On written when batches are not full then keep the batch size")
+    void onWrittenWhenBatchesAreNotFullThenKeepTheBatchSize() {
+        AdaptiveBatchController controller = new AdaptiveBatchController("Test", appProperties, clock::get);
+
+        clock.addAndGet(SECOND);
+        controller.onWritten(10, 10000, 0, TARGET / 10);
+
+        assertEquals(10000, controller.batchSize());
+        assertEquals(4, controller.concurrency());
+    }
+
+    @Test
+    @DisplayName("On written when called within the target period then adjust only once")
+    void onWrittenWhenCalledWithinTheTargetPeriodThenAdjustOnlyOnce() {
+        AdaptiveBatchController controller = new AdaptiveBatchController("Test", appProperties, clock::get);
+
+        this.written(controller, 10000, 2 * SECOND);
+        controller.onWritten(5000, 5000, 0, 2 * SECOND);
+
+        assertEquals(5000, controller.batchSize());
+    }
+
+    @Test
+    @DisplayName("On failed when slots are held then the reduced limit applies once they are released")
+    void onFailedWhenSlotsAreHeldThenTheReducedLimitAppliesOnceReleased() throws InterruptedException {
+        AdaptiveBatchController controller = new AdaptiveBatchController("Test", appProperties, clock::get);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(controller.tryAcquireWriterSlot(0, TimeUnit.MILLISECONDS));
+        }
+
+        controller.onFailed();
+        controller.releaseWriterSlot();
+        controller.releaseWriterSlot();
+        assertFalse(controller.tryAcquireWriterSlot(0, TimeUnit.MILLISECONDS));
+
+        controller.releaseWriterSlot();
+        assertTrue(controller.tryAcquireWriterSlot(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    @DisplayName("On written when adaptive batching is disabled then keep the configured values")
+    void onWrittenWhenAdaptiveBatchingIsDisabledThenKeepTheConfiguredValues() {
+        when(appProperties.isAdaptiveBatching()).thenReturn(false);
+        AdaptiveBatchController controller = new AdaptiveBatchController("Test", appProperties, clock::get);
+
+        this.written(controller, 10000, 2 * SECOND);
+        controller.onFailed();
+
+        assertEquals(10000, controller.batchSize());
+        assertEquals(4, controller.concurrency());
+    }
+
+    private void written(AdaptiveBatchController controller, int records, long writeNanos) {
+        clock.addAndGet(SECOND);
+        controller.onWritten(records, records, 0, writeNanos);
+    }
+}
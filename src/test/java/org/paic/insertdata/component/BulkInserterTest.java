@@ -8,30 +8,53 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.paic.insertdata.util.AppProperties;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class BulkInserterTest {
     @Mock
     private JdbcTemplate jdbcTemplate;
 
+    @Mock
+    private AppProperties appProperties;
+
     private BulkInserter bulkInserter;
 
     @BeforeEach
     void setUp() {
-        bulkInserter = new BulkInserter(jdbcTemplate);
+        when(appProperties.getWriteStrategy()).thenReturn(BulkInserter.BATCH_STRATEGY);
+        bulkInserter = new BulkInserter(jdbcTemplate, appProperties);
     }
 
     @Test
@@ -71,4 +94,118 @@ class BulkInserterTest {
         System.out.println("batchSize = " + batchSize);
         System.out.println("setter = " + setter);
     }
-}
\ No newline at end of file
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Save cdr bulk when write strategy is copy then stream rows with copy manager")
+    void saveCdrBulkWhenWriteStrategyIsCopyThenStreamRowsWithCopyManager() throws SQLException {
+        when(appProperties.getWriteStrategy()).thenReturn(BulkInserter.COPY_STRATEGY);
+        bulkInserter = new BulkInserter(jdbcTemplate, appProperties);
+
+        Connection connection = mock(Connection.class);
+        PGConnection pgConnection = mock(PGConnection.class);
+        CopyManager copyManager = mock(CopyManager.class);
+        CopyIn copyIn = mock(CopyIn.class);
+        ByteArrayOutputStream copiedBytes = new ByteArrayOutputStream();
+        ArgumentCaptor<String> copyQueryCaptor = ArgumentCaptor.forClass(String.class);
+
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(copyManager.copyIn(copyQueryCaptor.capture())).thenReturn(copyIn);
+        when(copyIn.isActive()).thenReturn(true);
+        when(copyIn.endCopy()).thenAnswer(invocation -> {
+            when(copyIn.isActive()).thenReturn(false);
+            return 2L;
+        });
+        doAnswer(invocation -> {
+            copiedBytes.write(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+            return null;
+        }).when(copyIn).writeToCopy(any(byte[].class), anyInt(), anyInt());
+        when(jdbcTemplate.execute(any(ConnectionCallback.class)))
+                .thenAnswer(invocation -> invocation.<ConnectionCallback<Long>>getArgument(0).doInConnection(connection));
+
+        List<UtilsRecords.Cdr> cdrList = Arrays.asList(ObjectsCreator.getDefaultCdr(), ObjectsCreator.getDefaultCdr());
+        bulkInserter.saveCdrBulk(cdrList);
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(List.class), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        verify(copyIn).endCopy();
+        assertTrue(copyQueryCaptor.getValue().startsWith("COPY cdr ("));
+        assertTrue(copyQueryCaptor.getValue().endsWith(") FROM STDIN"));
+
+        String[] rows = copiedBytes.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, rows.length);
+        String[] columns = rows[0].split("\t", -1);
+        assertEquals(46, columns.length);
+        assertEquals("MESSAGE", columns[3]);
+        assertEquals("\\N", columns[12]);
+        assertEquals("1773", columns[15]);
+        assertEquals("First 20 chars", columns[37]);
+        assertEquals("1734454582187-9026385306105", columns[45]);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Save cdr bulk when write strategy is staging then copy rows into the staging table")
+    void saveCdrBulkWhenWriteStrategyIsStagingThenCopyRowsIntoTheStagingTable() throws SQLException {
+        when(appProperties.getWriteStrategy()).thenReturn(BulkInserter.STAGING_STRATEGY);
+        bulkInserter = new BulkInserter(jdbcTemplate, appProperties);
+
+        Connection connection = mock(Connection.class);
+        PGConnection pgConnection = mock(PGConnection.class);
+        CopyManager copyManager = mock(CopyManager.class);
+        CopyIn copyIn = mock(CopyIn.class);
+        ArgumentCaptor<String> copyQueryCaptor = ArgumentCaptor.forClass(String.class);
+
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(copyManager.copyIn(copyQueryCaptor.capture())).thenReturn(copyIn);
+        when(copyIn.isActive()).thenReturn(true);
+        when(copyIn.endCopy()).thenAnswer(invocation -> {
+            when(copyIn.isActive()).thenReturn(false);
+            return 1L;
+        });
+        when(jdbcTemplate.execute(any(ConnectionCallback.class)))
+                .thenAnswer(invocation -> invocation.<ConnectionCallback<Long>>getArgument(0).doInConnection(connection));
+
+        bulkInserter.saveCdrBulk(List.of(ObjectsCreator.getDefaultCdr()));
+
+        verify(copyIn).endCopy();
+        assertTrue(copyQueryCaptor.getValue().startsWith("COPY cdr_staging (record_date, "));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Save cdr bulk when a value cannot be converted then fail the batch instead of binding a partial row")
+    void saveCdrBulkWhenAValueCannotBeConvertedThenFailTheBatchInsteadOfBindingAPartialRow() {
+        UtilsRecords.Cdr invalid = ObjectsCreator.withRecordDate(ObjectsCreator.getDefaultCdr(), "not a date");
+        ArgumentCaptor<ParameterizedPreparedStatementSetter<UtilsRecords.Cdr>> setterCaptor =
+                ArgumentCaptor.forClass(ParameterizedPreparedStatementSetter.class);
+
+        bulkInserter.saveCdrBulk(List.of(invalid));
+        verify(jdbcTemplate).batchUpdate(anyString(), any(List.class), anyInt(), setterCaptor.capture());
+
+        SQLException error = assertThrows(SQLException.class,
+                () -> setterCaptor.getValue().setValues(mock(PreparedStatement.class), invalid));
+        assertEquals("22P02", error.getSQLState());
+        assertInstanceOf(NumberFormatException.class, error.getCause());
+    }
+
+    @Test
+    @DisplayName("Save cdr bulk when write strategy is not set then use batch inserts")
+    void saveCdrBulkWhenWriteStrategyIsNotSetThenUseBatchInserts() {
+        when(appProperties.getWriteStrategy()).thenReturn(" ");
+        BulkInserter defaultInserter = new BulkInserter(jdbcTemplate, appProperties);
+
+        defaultInserter.saveCdrBulk(List.of(ObjectsCreator.getDefaultCdr()));
+
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO cdr ("), anyList(), eq(1), any());
+    }
+
+    @Test
+    @DisplayName("Create bulk inserter when write strategy is unknown then fail")
+    void createBulkInserterWhenWriteStrategyIsUnknownThenFail() {
+        when(appProperties.getWriteStrategy()).thenReturn("coppy");
+
+        assertThrows(IllegalArgumentException.class, () -> new BulkInserter(jdbcTemplate, appProperties));
+    }
+}
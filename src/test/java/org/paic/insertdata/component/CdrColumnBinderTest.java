@@ -0,0 +1,171 @@
+package org.paic.insertdata.component;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.Invocation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.verify;
+
+class CdrColumnBinderTest {
+    private final CdrColumnBinder binder = CdrColumnBinder.forCdr();
+
+    @Test
+    @DisplayName("Column names when binder is created then follow the json properties of cdr")
+    void columnNamesWhenBinderIsCreatedThenFollowTheJsonPropertiesOfCdr() {
+        List<String> expected = Arrays.stream(UtilsRecords.Cdr.class.getDeclaredFields())
+                .map(field -> field.getAnnotation(JsonProperty.class))
+                .filter(Objects::nonNull)
+                .map(JsonProperty::value)
+                .toList();
+
+        assertEquals(expected, binder.columnNames());
+        assertEquals(46, binder.size());
+    }
+
+    @Test
+    @DisplayName("Bind when cdr has values and empty fields then bind the same as the reflective implementation")
+    void bindWhenCdrHasValuesAndEmptyFieldsThenBindTheSameAsTheReflectiveImplementation() throws Exception {
+        assertSameBinding(ObjectsCreator.getDefaultCdr());
+        assertSameBinding(cdrWithValue("", "1734454595605"));
+        assertSameBinding(cdrWithValue(null, "1734454595605"));
+    }
+
+    @Test
+    @DisplayName("Bind when cdr has typed values then set them with their sql types")
+    void bindWhenCdrHasTypedValuesThenSetThemWithTheirSqlTypes() throws SQLException {
+        PreparedStatement ps = mock(PreparedStatement.class);
+        binder.bind(ps, ObjectsCreator.getDefaultCdr());
+
+        verify(ps).setObject(1, Instant.ofEpochMilli(1734454595605L).atZone(ZoneId.systemDefault()).toLocalDateTime());
+        verify(ps).setString(4, "MESSAGE");
+        verify(ps).setInt(12, 1);
+        verify(ps).setNull(13, Types.VARCHAR);
+        verify(ps).setLong(16, 1773L);
+        verify(ps).setNull(26, Types.BIGINT);
+    }
+
+    @Test
+    @DisplayName("Bind when record date is empty then throw number format exception")
+    void bindWhenRecordDateIsEmptyThenThrowNumberFormatException() {
+        PreparedStatement ps = mock(PreparedStatement.class);
+        UtilsRecords.Cdr cdr = cdrWithValue("1", "");
+
+        assertThrows(NumberFormatException.class, () -> binder.bind(ps, cdr));
+    }
+
+    @Test
+    @DisplayName("Write copy row when record date is null or empty then reject the row as bind does")
+    void writeCopyRowWhenRecordDateIsNullOrEmptyThenRejectTheRowAsBindDoes() {
+        for (String recordDate : Arrays.asList("", null)) {
+            UtilsRecords.Cdr cdr = cdrWithValue("1", recordDate);
+
+            assertThrows(NumberFormatException.class, () -> binder.bind(mock(PreparedStatement.class), cdr));
+            assertThrows(NumberFormatException.class, () -> binder.writeCopyRow(new ByteArrayOutputStream(), cdr));
+        }
+    }
+
+    @Test
+    @DisplayName("Write copy row when value has special characters then escape them")
+    void writeCopyRowWhenValueHasSpecialCharactersThenEscapeThem() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        binder.writeCopyRow(out, cdrWithValue("a\tb\\c\nd", "1734454595605"));
+
+        String[] columns = out.toString(StandardCharsets.UTF_8).split("\t", -1);
+        assertEquals(46, columns.length);
+        assertEquals("a\\tb\\\\c\\nd", columns[3]);
+        assertEquals("\\N", columns[25]);
+        assertEquals("1734454582187-9026385306105\n", columns[45]);
+    }
+
+    private void assertSameBinding(UtilsRecords.Cdr cdr) throws Exception {
+        PreparedStatement expected = mock(PreparedStatement.class);
+        PreparedStatement actual = mock(PreparedStatement.class);
+
+        reflectiveBind(expected, cdr);
+        binder.bind(actual, cdr);
+
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    private static List<String> describe(PreparedStatement ps) {
+        return mockingDetails(ps).getInvocations().stream()
+                .map(Invocation.class::cast)
+                .map(invocation -> invocation.getMethod().getName() + Arrays.toString(invocation.getArguments()))
+                .toList();
+    }
+
+    /**
+     * Copy of the reflective binding previously done by BulkInserter, kept as the reference behavior.
+     */
+    private static void reflectiveBind(PreparedStatement ps, UtilsRecords.Cdr cdr) throws Exception {
+        int index = 1;
+        for (Field field : UtilsRecords.Cdr.class.getDeclaredFields()) {
+            if (field.getAnnotation(JsonProperty.class) == null) {
+                continue;
+            }
+            Method getter = cdr.getClass().getMethod(field.getName());
+            Object value = getter.invoke(cdr);
+            switch (field.getName()) {
+                case "recordDate","submitDate","deliveryDate" -> ps.setObject(index,
+                        Instant.ofEpochMilli(Long.parseLong((String) value)).atZone(ZoneId.systemDefault()).toLocalDateTime());
+                case "dialogDuration","processingTime","remoteDialogId","localDialogId" -> {
+                    if (value != null && !value.equals("")) {
+                        ps.setLong(index, Long.parseLong((String) value));
+                    } else {
+                        ps.setNull(index, Types.BIGINT);
+                    }
+                }
+                case "localSpc","localSsn","remoteSpc","remoteSsn","registeredDelivery","totalSegment","segmentSequence","retryNumber","routingId",
+                     "dataCoding","addrSrcTon","addrSrcNpi","addrDstTon","addrDstNpi" -> {
+                    if (value != null && !value.equals("")) {
+                        ps.setInt(index, Integer.parseInt((String) value));
+                    } else {
+                        ps.setNull(index, Types.INTEGER);
+                    }
+                }
+                default -> {
+                    if (value != null && !value.equals("")) {
+                        ps.setString(index, (String) value);
+                    } else {
+                        ps.setNull(index, Types.VARCHAR);
+                    }
+                }
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Returns the default cdr replacing every VARCHAR and numeric value by the given value, and the dates by the given date.
+     */
+    private static UtilsRecords.Cdr cdrWithValue(String text, String date) {
+        String number = isNumber(text) ? text : null;
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        return ObjectsCreator.with(cdr, "recordDate", date, "submitDate", date, "deliveryDate", date, "messageType", text,
+                "dataCoding", number != null ? number : cdr.dataCoding(), "addrSrcDigits", text, "remoteDialogId", number);
+    }
+
+    private static boolean isNumber(String text) {
+        return text != null && !text.isEmpty() && text.chars().allMatch(Character::isDigit);
+    }
+}
@@ -0,0 +1,84 @@
+package org.paic.insertdata.component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.paic.insertdata.util.AppProperties;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CdrDeadLetterQueueTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    JedisCluster jedisCluster;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Test
+    @DisplayName("Send when the record is rejected then push it with the reason to the dead-letter list")
+    void sendWhenTheRecordIsRejectedThenPushItWithTheReasonToTheDeadLetterList() throws IOException {
+        when(appProperties.getDeadLetterListName()).thenReturn("cdr:dead-letter");
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(1734454600000L), ZoneId.of("UTC"));
+        CdrDeadLetterQueue deadLetterQueue = new CdrDeadLetterQueue(jedisCluster, appProperties, clock);
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        ArgumentCaptor<String> entry = ArgumentCaptor.forClass(String.class);
+
+        assertTrue(deadLetterQueue.send("database", cdr, "value too long"));
+
+        verify(jedisCluster).rpush(eq("cdr:dead-letter"), entry.capture());
+        JsonNode json = objectMapper.readTree(entry.getValue());
+        assertEquals("database", json.get("sink").asText());
+        assertEquals(1734454600000L, json.get("failedAt").asLong());
+        assertEquals("value too long", json.get("reason").asText());
+        assertEquals(cdr, objectMapper.treeToValue(json.get("cdr"), UtilsRecords.Cdr.class));
+    }
+
+    @Test
+    @DisplayName("Send all when a batch is given then push its records with a single command")
+    void sendAllWhenABatchIsGivenThenPushItsRecordsWithASingleCommand() throws IOException {
+        when(appProperties.getDeadLetterListName()).thenReturn("cdr:dead-letter");
+        CdrDeadLetterQueue deadLetterQueue = new CdrDeadLetterQueue(jedisCluster, appProperties);
+        ArgumentCaptor<String[]> entries = ArgumentCaptor.forClass(String[].class);
+
+        assertTrue(deadLetterQueue.sendAll("database", List.of(ObjectsCreator.getDefaultCdr("1"), ObjectsCreator.getDefaultCdr("2")),
+                "Not written after 5 delivery attempts"));
+        assertTrue(deadLetterQueue.sendAll("database", List.of(), "Not written after 5 delivery attempts"));
+
+        verify(jedisCluster).rpush(eq("cdr:dead-letter"), entries.capture());
+        assertEquals(2, entries.getValue().length);
+        assertEquals("2", objectMapper.readTree(entries.getValue()[1]).get("cdr").get("message_id").asText());
+    }
+
+    @Test
+    @DisplayName("Send when redis fails then return false")
+    void sendWhenRedisFailsThenReturnFalse() {
+        when(appProperties.getDeadLetterListName()).thenReturn("cdr:dead-letter");
+        when(jedisCluster.rpush(eq("cdr:dead-letter"), anyString())).thenThrow(new JedisConnectionException("Error"));
+        CdrDeadLetterQueue deadLetterQueue = new CdrDeadLetterQueue(jedisCluster, appProperties);
+
+        assertFalse(deadLetterQueue.send("database", ObjectsCreator.getDefaultCdr(), "Invalid"));
+    }
+}
@@ -0,0 +1,177 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.paic.insertdata.util.AppProperties;
+import org.paic.insertdata.util.CommonUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class CdrFileSinkTest {
+    private static final ZoneId ZONE = ZoneId.of("UTC");
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    AppProperties appProperties;
+
+    private final Clock clock = mock(Clock.class);
+    private CdrFileSink sink;
+
+    @BeforeEach
+    void setUp() {
+        when(appProperties.getCdrLocation()).thenReturn(directory.toString());
+        when(appProperties.getCdrFileName()).thenReturn("cdr");
+        when(appProperties.getSeparator()).thenReturn("|");
+        when(clock.getZone()).thenReturn(ZONE);
+        this.setTime(LocalDateTime.of(2024, 12, 17, 10, 0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (sink != null) {
+            sink.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Write when batches are written concurrently then write every line in the logback format")
+    void writeWhenBatchesAreWrittenConcurrentlyThenWriteEveryLineInTheLogbackFormat() throws IOException {
+        when(appProperties.getCdrFsync()).thenReturn("batch");
+        sink = new CdrFileSink(appProperties, clock);
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        String line = CommonUtils.createStringCdr(cdr, "|");
+
+        List<CompletableFuture<Boolean>> writes = IntStream.range(0, 4)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> sink.write(Collections.nCopies(5000, cdr))))
+                .toList();
+
+        writes.forEach(write -> assertTrue(write.join()));
+        String expected = String.join(System.lineSeparator(), Collections.nCopies(20000, line)) + System.lineSeparator();
+        assertEquals(expected, Files.readString(directory.resolve("cdr.log")));
+    }
+
+    @Test
+    @DisplayName("Write when the day changes or the file is full then rotate the active file")
+    void writeWhenTheDayChangesOrTheFileIsFullThenRotateTheActiveFile() throws IOException {
+        when(appProperties.getCdrMaxFileSizeMb()).thenReturn(1);
+        sink = new CdrFileSink(appProperties, clock);
+        List<UtilsRecords.Cdr> batch = Collections.nCopies(3000, ObjectsCreator.getDefaultCdr());
+
+        assertTrue(sink.write(batch));
+        assertTrue(sink.write(batch));
+        this.setTime(LocalDateTime.of(2024, 12, 18, 0, 1));
+        assertTrue(sink.write(List.of(ObjectsCreator.getDefaultCdr())));
+
+        assertTrue(Files.exists(directory.resolve("cdr.2024-12-17.log")));
+        assertTrue(Files.exists(directory.resolve("cdr.2024-12-17.1.log")));
+        assertTrue(Files.size(directory.resolve("cdr.2024-12-17.log")) <= 1024 * 1024);
+        assertEquals(1, Files.readAllLines(directory.resolve("cdr.log")).size());
+    }
+
+    @Test
+    @DisplayName("Write when rotated files are older than the history then delete them")
+    void writeWhenRotatedFilesAreOlderThanTheHistoryThenDeleteThem() throws IOException {
+        when(appProperties.getCdrMaxHistory()).thenReturn(2);
+        Files.writeString(directory.resolve("cdr.2024-12-10.log"), "old");
+        Files.writeString(directory.resolve("cdr.2024-12-16.3.log"), "recent");
+        Files.writeString(directory.resolve("other.2024-12-10.log"), "other");
+        sink = new CdrFileSink(appProperties, clock);
+
+        assertTrue(sink.write(List.of(ObjectsCreator.getDefaultCdr())));
+        this.setTime(LocalDateTime.of(2024, 12, 18, 0, 1));
+        assertTrue(sink.write(List.of(ObjectsCreator.getDefaultCdr())));
+
+        assertFalse(Files.exists(directory.resolve("cdr.2024-12-10.log")));
+        assertTrue(Files.exists(directory.resolve("cdr.2024-12-16.3.log")));
+        assertTrue(Files.exists(directory.resolve("other.2024-12-10.log")));
+        assertTrue(Files.exists(directory.resolve("cdr.2024-12-17.log")));
+    }
+
+    @Test
+    @DisplayName("Write when compression is gzip then write complete gzip segments with the same lines")
+    void writeWhenCompressionIsGzipThenWriteCompleteGzipSegmentsWithTheSameLines() throws IOException {
+        when(appProperties.getCdrCompression()).thenReturn("gzip");
+        when(appProperties.getCdrCompressionLevel()).thenReturn(1);
+        when(appProperties.getCdrFsync()).thenReturn("batch");
+        when(appProperties.getCdrMaxFileSizeMb()).thenReturn(1);
+        sink = new CdrFileSink(appProperties, clock);
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        String line = CommonUtils.createStringCdr(cdr, "|") + System.lineSeparator();
+
+        List<CompletableFuture<Boolean>> writes = IntStream.range(0, 4)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> sink.write(Collections.nCopies(5000, cdr))))
+                .toList();
+        writes.forEach(write -> assertTrue(write.join()));
+        this.setTime(LocalDateTime.of(2024, 12, 18, 0, 1));
+        assertTrue(sink.write(List.of(cdr)));
+        sink.close();
+
+        assertEquals(line.repeat(20000), gunzip(directory.resolve("cdr.2024-12-17.log.gz")));
+        assertEquals(line, gunzip(directory.resolve("cdr.log.gz")));
+    }
+
+    @Test
+    @DisplayName("Write when compression is gzip and a file was cut by a crash then rotate it and write the members before returning")
+    void writeWhenCompressionIsGzipAndAFileWasCutByACrashThenRotateItAndWriteTheMembersBeforeReturning() throws IOException {
+        when(appProperties.getCdrCompression()).thenReturn("gzip");
+        when(appProperties.getCdrCompressionLevel()).thenReturn(1);
+        when(appProperties.getCdrFsync()).thenReturn("none");
+        ByteArrayOutputStream member = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(member)) {
+            out.write("cut line".getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] cut = Arrays.copyOf(member.toByteArray(), member.size() - 4);
+        Files.write(directory.resolve("cdr.log.gz"), cut);
+        sink = new CdrFileSink(appProperties, clock);
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+
+        assertTrue(sink.write(List.of(cdr)));
+
+        assertEquals(CommonUtils.createStringCdr(cdr, "|") + System.lineSeparator(), gunzip(directory.resolve("cdr.log.gz")));
+        assertArrayEquals(cut, Files.readAllBytes(directory.resolve("cdr.2024-12-17.log.gz")));
+    }
+
+    private static String gunzip(Path file) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void setTime(LocalDateTime time) {
+        when(clock.instant()).thenReturn(time.atZone(ZONE).toInstant());
+    }
+}
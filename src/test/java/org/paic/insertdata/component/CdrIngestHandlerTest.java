@@ -0,0 +1,175 @@
+package org.paic.insertdata.component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.paic.insertdata.config.IngestRouter;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class CdrIngestHandlerTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Mock
+    private CdrSinkProcessor sinkProcessor;
+
+    @Mock
+    private AppProperties appProperties;
+
+    private CdrIngestHandler handler;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        when(appProperties.getCdrOrdering()).thenReturn("none");
+        when(appProperties.getHttpIngestBatchSize()).thenReturn(2);
+        when(appProperties.getHttpIngestMaxWaitMillis()).thenReturn(1000L);
+        when(appProperties.getHttpIngestMaxLineBytes()).thenReturn(4096);
+        handler = new CdrIngestHandler(sinkProcessor, new CdrMetrics(), appProperties);
+        client = WebTestClient.bindToRouterFunction(new IngestRouter().ingestRoute(handler)).build();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Ingest when the body holds NDJSON records then write them in batches and return the lines written")
+    void ingestWhenTheBodyHoldsNdjsonRecordsThenWriteThemInBatchesAndReturnTheLinesWritten() {
+        when(sinkProcessor.write(anyList())).thenReturn(true);
+
+        this.post(json("1") + "\n" + json("2") + "\r\n\n" + "{\n" + json("3"))
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.lines").isEqualTo(4)
+                .jsonPath("$.records").isEqualTo(3);
+
+        ArgumentCaptor<List<UtilsRecords.Cdr>> batches = ArgumentCaptor.forClass(List.class);
+        verify(sinkProcessor, times(2)).write(batches.capture());
+        assertEquals(List.of("1", "2"), batches.getAllValues().get(0).stream().map(UtilsRecords.Cdr::messageId).toList());
+        assertEquals(List.of("3"), batches.getAllValues().get(1).stream().map(UtilsRecords.Cdr::messageId).toList());
+    }
+
+    @Test
+    @DisplayName("Ingest when a batch cannot be written then stop and return the lines written before it")
+    void ingestWhenABatchCannotBeWrittenThenStopAndReturnTheLinesWrittenBeforeIt() {
+        when(sinkProcessor.write(anyList())).thenReturn(true, false);
+
+        this.post(json("1") + "\n" + json("2") + "\n" + json("3") + "\n" + json("4") + "\n" + json("5") + "\n")
+                .expectStatus().isEqualTo(503)
+                .expectBody()
+                .jsonPath("$.lines").isEqualTo(2);
+
+        verify(sinkProcessor, times(2)).write(anyList());
+    }
+
+    @Test
+    @DisplayName("Ingest when a line is longer than the limit then reject the request")
+    void ingestWhenALineIsLongerThanTheLimitThenRejectTheRequest() {
+        this.post("x".repeat(5000))
+                .expectStatus().isEqualTo(413);
+
+        verify(sinkProcessor, never()).write(anyList());
+    }
+
+    @Test
+    @DisplayName("Ingest when a line longer than the limit ends within one buffer then reject the request")
+    void ingestWhenALineLongerThanTheLimitEndsWithinOneBufferThenRejectTheRequest() {
+        this.post(json("1") + "\n" + "x".repeat(5000) + "\n" + json("2") + "\n")
+                .expectStatus().isEqualTo(413);
+
+        verify(sinkProcessor, never()).write(anyList());
+    }
+
+    @Test
+    @DisplayName("Ingest when a batch is being written then read only a few buffers of the body ahead")
+    void ingestWhenABatchIsBeingWrittenThenReadOnlyAFewBuffersOfTheBodyAhead() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(sinkProcessor.write(anyList())).thenAnswer(invocation -> {
+            writing.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        AtomicLong read = new AtomicLong();
+        DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> body = Flux.range(0, 100)
+                .<DataBuffer>map(i -> factory.wrap((json(String.valueOf(i)) + "\n").getBytes(StandardCharsets.UTF_8)))
+                .doOnNext(buffer -> read.incrementAndGet());
+
+        StepVerifier.create(handler.ingest(MockServerRequest.builder().body(body)))
+                .then(() -> {
+                    assertTrue(await(writing));
+                    // the body is not read further while the batch is being written
+                    Awaitility.await().during(300, TimeUnit.MILLISECONDS).atMost(1, TimeUnit.SECONDS)
+                            .until(() -> read.get() < 10);
+                    release.countDown();
+                })
+                .assertNext(response -> assertEquals(200, response.statusCode().value()))
+                .verifyComplete();
+        verify(sinkProcessor, times(50)).write(anyList());
+    }
+
+    @Test
+    @DisplayName("Lines when a line spans several buffers then join it")
+    void linesWhenALineSpansSeveralBuffersThenJoinIt() {
+        DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> body = Flux.just("ab", "c\nd", "e\n\nf").map(chunk -> factory.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+
+        StepVerifier.create(handler.lines(body).map(line -> new String(line, StandardCharsets.UTF_8)))
+                .expectNext("abc", "de", "f")
+                .verifyComplete();
+    }
+
+    private WebTestClient.ResponseSpec post(String body) {
+        return client.post().uri(IngestRouter.INGEST_PATH)
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange();
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String json(String messageId) {
+        try {
+            return MAPPER.writeValueAsString(ObjectsCreator.getDefaultCdr(messageId));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
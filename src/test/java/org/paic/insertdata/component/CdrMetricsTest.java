@@ -0,0 +1,90 @@
+package org.paic.insertdata.component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.paic.insertdata.config.MetricsRouter;
+import org.paic.insertdata.util.CdrOrdering;
+import org.paic.insertdata.util.CommonUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CdrMetricsTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    @DisplayName("Decode when the batch is sorted then count the records and time the decode and sort stages")
+    void decodeWhenTheBatchIsSortedThenCountTheRecordsAndTimeTheDecodeAndSortStages() throws Exception {
+        CdrMetrics metrics = new CdrMetrics();
+        List<byte[]> raw = List.of(objectMapper.writeValueAsBytes(ObjectsCreator.getDefaultCdr()), "{".getBytes(),
+                objectMapper.writeValueAsBytes(ObjectsCreator.getDefaultCdr()));
+
+        StepVerifier.create(metrics.decode(raw, CdrOrdering.BATCH, batch -> CommonUtils.decodeRawCdrBatch(batch, CdrOrdering.NONE)))
+                .expectNextMatches(records -> records.size() == 2)
+                .verifyComplete();
+
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("cdr_records_fetched_total 3\n"));
+        assertTrue(scrape.contains("cdr_records_decoded_total 2\n"));
+        assertTrue(scrape.contains("cdr_stage_seconds_count{stage=\"decode\"} 1\n"));
+        assertTrue(scrape.contains("cdr_stage_seconds_count{stage=\"sort\"} 1\n"));
+    }
+
+    @Test
+    @DisplayName("Scrape when batches are written and failed then render the counters, gauges and histograms")
+    void scrapeWhenBatchesAreWrittenAndFailedThenRenderTheCountersGaugesAndHistograms() {
+        CdrMetrics metrics = new CdrMetrics();
+        metrics.backlog(() -> 42);
+        metrics.batching(() -> 15000, () -> 5);
+
+        metrics.onBatchTaken(800);
+        metrics.onBatchTaken(15000);
+        assertEquals(2, metrics.inFlightBatches());
+        metrics.onBatchDone(800, true, 2_000_000);
+        metrics.onBatchDone(15000, false, 3_000_000_000L);
+        metrics.onRetry();
+
+        String scrape = metrics.scrape();
+        assertEquals(0, metrics.inFlightBatches());
+        assertEquals(800, metrics.recordsWritten());
+        assertTrue(scrape.contains("# TYPE cdr_records_written_total counter\ncdr_records_written_total 800\n"));
+        assertTrue(scrape.contains("cdr_batches_failed_total 1\n"));
+        assertTrue(scrape.contains("cdr_write_retries_total 1\n"));
+        assertTrue(scrape.contains("cdr_redis_backlog 42\n"));
+        assertTrue(scrape.contains("cdr_writer_slots 5\n"));
+        assertTrue(scrape.contains("cdr_stage_seconds_bucket{stage=\"write\",le=\"0.005\"} 1\n"));
+        assertTrue(scrape.contains("cdr_stage_seconds_bucket{stage=\"write\",le=\"2.5\"} 1\n"));
+        assertTrue(scrape.contains("cdr_stage_seconds_bucket{stage=\"write\",le=\"5\"} 2\n"));
+        assertTrue(scrape.contains("cdr_stage_seconds_count{stage=\"write\"} 2\n"));
+        assertTrue(scrape.contains("cdr_batch_size_bucket{le=\"1000\"} 1\n"));
+        assertTrue(scrape.contains("cdr_batch_size_bucket{le=\"+Inf\"} 2\n"));
+        assertTrue(scrape.contains("cdr_batch_size_sum 15800\n"));
+    }
+
+    @Test
+    @DisplayName("Metrics route when the backlog cannot be read then serve the metrics with an unknown backlog")
+    void metricsRouteWhenTheBacklogCannotBeReadThenServeTheMetricsWithAnUnknownBacklog() {
+        CdrMetrics metrics = new CdrMetrics();
+        metrics.backlog(() -> {
+            throw new IllegalStateException("Redis is down");
+        });
+        metrics.onBatchTaken(1);
+        metrics.onBatchDone(1, true, 1000);
+        WebTestClient client = WebTestClient.bindToRouterFunction(new MetricsRouter().metricsRoute(metrics)).build();
+
+        client.get().uri(MetricsRouter.METRICS_PATH)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith("text/plain")
+                .expectBody(String.class)
+                .value(body -> {
+                    assertTrue(body.contains("cdr_records_written_total 1\n"));
+                    assertTrue(body.contains("cdr_redis_backlog NaN\n"));
+                });
+    }
+}
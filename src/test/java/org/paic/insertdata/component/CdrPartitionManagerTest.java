@@ -0,0 +1,157 @@
+package org.paic.insertdata.component;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class CdrPartitionManagerTest {
+    private static final ZoneId ZONE = ZoneId.of("UTC");
+    private static final Clock CLOCK = Clock.fixed(LocalDateTime.of(2024, 12, 31, 22, 30).atZone(ZONE).toInstant(), ZONE);
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private AppProperties appProperties;
+
+    @Test
+    @DisplayName("Maintain partitions when interval is daily then create the current and upcoming days")
+    void maintainPartitionsWhenIntervalIsDailyThenCreateTheCurrentAndUpcomingDays() {
+        when(appProperties.getPartitionInterval()).thenReturn("daily");
+        when(appProperties.getPartitionsAhead()).thenReturn(1);
+
+        new CdrPartitionManager(jdbcTemplate, appProperties, CLOCK).maintainPartitions();
+
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS cdr_p20241231 PARTITION OF cdr "
+                + "FOR VALUES FROM ('2024-12-31 00:00:00') TO ('2025-01-01 00:00:00')");
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS cdr_p20250101 PARTITION OF cdr "
+                + "FOR VALUES FROM ('2025-01-01 00:00:00') TO ('2025-01-02 00:00:00')");
+        verify(jdbcTemplate, never()).queryForList(CdrPartitionManager.PARTITIONS_QUERY, String.class);
+    }
+
+    @Test
+    @DisplayName("Maintain partitions when there is a default partition then move the rows of the new partition out of it")
+    void maintainPartitionsWhenThereIsADefaultPartitionThenMoveTheRowsOfTheNewPartitionOutOfIt() {
+        when(appProperties.getPartitionInterval()).thenReturn("daily");
+        when(jdbcTemplate.queryForList(CdrPartitionManager.DEFAULT_PARTITION_QUERY, String.class)).thenReturn(List.of("cdr_default"));
+
+        new CdrPartitionManager(jdbcTemplate, appProperties, CLOCK).maintainPartitions();
+
+        verify(jdbcTemplate).execute("DO $$ BEGIN IF to_regclass('cdr_p20241231') IS NULL THEN "
+                + "LOCK TABLE cdr_default IN SHARE ROW EXCLUSIVE MODE; "
+                + "CREATE TABLE cdr_p20241231 (LIKE cdr INCLUDING DEFAULTS INCLUDING CONSTRAINTS); "
+                + "WITH moved AS (DELETE FROM cdr_default WHERE record_date >= '2024-12-31 00:00:00' AND record_date < '2025-01-01 00:00:00' "
+                + "RETURNING *) INSERT INTO cdr_p20241231 SELECT * FROM moved; "
+                + "ALTER TABLE cdr ATTACH PARTITION cdr_p20241231 FOR VALUES FROM ('2024-12-31 00:00:00') TO ('2025-01-01 00:00:00'); "
+                + "END IF; END $$");
+    }
+
+    @Test
+    @DisplayName("Maintain partitions when a partition cannot be created then keep creating the next ones")
+    void maintainPartitionsWhenAPartitionCannotBeCreatedThenKeepCreatingTheNextOnes() {
+        when(appProperties.getPartitionInterval()).thenReturn("hourly");
+        when(appProperties.getPartitionsAhead()).thenReturn(1);
+        doThrow(new DataIntegrityViolationException("overlaps")).when(jdbcTemplate)
+                .execute(startsWith("CREATE TABLE IF NOT EXISTS cdr_p2024123122 "));
+
+        new CdrPartitionManager(jdbcTemplate, appProperties, CLOCK).maintainPartitions();
+
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS cdr_p2024123123 PARTITION OF cdr "
+                + "FOR VALUES FROM ('2024-12-31 23:00:00') TO ('2025-01-01 00:00:00')");
+    }
+
+    @Test
+    @DisplayName("Maintain partitions when partitions are expired then drop or detach only them with a lock timeout")
+    void maintainPartitionsWhenPartitionsAreExpiredThenDropOrDetachOnlyThemWithALockTimeout() {
+        when(appProperties.getPartitionRetentionDays()).thenReturn(2);
+        when(appProperties.getPartitionRetentionAction()).thenReturn("drop");
+        when(jdbcTemplate.queryForList(CdrPartitionManager.DEFAULT_PARTITION_QUERY, String.class)).thenReturn(List.of("cdr_default"));
+        when(jdbcTemplate.queryForList(CdrPartitionManager.PARTITIONS_QUERY, String.class))
+                .thenReturn(List.of("cdr_default", "cdr_p20241228", "cdr_p2024122921", "cdr_p2024122922", "cdr_p20241230"));
+        CdrPartitionManager manager = new CdrPartitionManager(jdbcTemplate, appProperties, CLOCK);
+
+        manager.maintainPartitions();
+
+        verify(jdbcTemplate).execute(removal("DROP TABLE cdr_p20241228; "));
+        verify(jdbcTemplate).execute(removal("DROP TABLE cdr_p2024122921; "));
+        verify(jdbcTemplate, never()).execute(contains("cdr_p2024122922;"));
+        verify(jdbcTemplate, never()).execute(contains("TABLE cdr_default;"));
+        verify(jdbcTemplate).update("DELETE FROM cdr_default WHERE record_date < ?", Timestamp.valueOf(LocalDateTime.of(2024, 12, 29, 22, 30)));
+
+        when(appProperties.getPartitionRetentionAction()).thenReturn("detach");
+        new CdrPartitionManager(jdbcTemplate, appProperties, CLOCK).maintainPartitions();
+
+        verify(jdbcTemplate).execute(removal("ALTER TABLE cdr DETACH PARTITION cdr_p20241228; "));
+        verify(jdbcTemplate, times(1)).update(anyString(), any(Timestamp.class));
+    }
+
+    @Test
+    @DisplayName("Maintain partitions when the default partition was dropped then detach the expired ones concurrently before dropping them")
+    void maintainPartitionsWhenTheDefaultPartitionWasDroppedThenDetachTheExpiredOnesConcurrentlyBeforeDroppingThem() {
+        when(appProperties.getPartitionRetentionDays()).thenReturn(2);
+        when(appProperties.getPartitionRetentionAction()).thenReturn("drop");
+        when(jdbcTemplate.queryForList(CdrPartitionManager.PARTITIONS_QUERY, String.class)).thenReturn(List.of("cdr_p20241228"));
+
+        new CdrPartitionManager(jdbcTemplate, appProperties, CLOCK).maintainPartitions();
+
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).execute("ALTER TABLE cdr DETACH PARTITION cdr_p20241228 CONCURRENTLY");
+        inOrder.verify(jdbcTemplate).execute("DROP TABLE cdr_p20241228");
+        verify(jdbcTemplate, never()).update(anyString(), any(Timestamp.class));
+    }
+
+    @Test
+    @DisplayName("Create manager when the interval or the retention action is unknown then fail")
+    void createManagerWhenTheIntervalOrTheRetentionActionIsUnknownThenFail() {
+        when(appProperties.getPartitionInterval()).thenReturn("hour");
+        assertThrows(IllegalArgumentException.class, () -> new CdrPartitionManager(jdbcTemplate, appProperties, CLOCK));
+
+        when(appProperties.getPartitionInterval()).thenReturn("Hourly");
+        when(appProperties.getPartitionRetentionAction()).thenReturn("detatch");
+        assertThrows(IllegalArgumentException.class, () -> new CdrPartitionManager(jdbcTemplate, appProperties, CLOCK));
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    private static String removal(String statement) {
+        return "DO $$ BEGIN PERFORM set_config('lock_timeout', '" + CdrPartitionManager.LOCK_TIMEOUT + "', true); " + statement + "END $$";
+    }
+
+    @Test
+    @DisplayName("Partition end when name holds a day or an hour then return the end of its range")
+    void partitionEndWhenNameHoldsADayOrAnHourThenReturnTheEndOfItsRange() {
+        assertEquals(LocalDateTime.of(2025, 1, 1, 0, 0), CdrPartitionManager.partitionEnd("cdr_p20241231"));
+        assertEquals(LocalDateTime.of(2024, 12, 31, 23, 0), CdrPartitionManager.partitionEnd("cdr_p2024123122"));
+        assertNull(CdrPartitionManager.partitionEnd("cdr_default"));
+        assertNull(CdrPartitionManager.partitionEnd("cdr_p2024x231"));
+    }
+}
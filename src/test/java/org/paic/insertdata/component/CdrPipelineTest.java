@@ -0,0 +1,171 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.paic.insertdata.util.AppProperties;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class CdrPipelineTest {
+    @Mock
+    private AppProperties appProperties;
+
+    @Mock
+    private RedisCdrQueue redisCdrQueue;
+
+    private CdrPipeline cdrPipeline;
+
+    @BeforeEach
+    void setUp() {
+        when(appProperties.getCdrListName()).thenReturn("cdr");
+        when(appProperties.getCdrWorkers()).thenReturn(4);
+        when(appProperties.getCdrBatchSize()).thenReturn(10);
+        when(appProperties.getIdleBackoffMillis()).thenReturn(10L);
+        when(appProperties.getIntervalMillis()).thenReturn(200L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cdrPipeline.stop();
+    }
+
+    @Test
+    @DisplayName("Start when writers are slow then never exceed the max in flight batches")
+    void startWhenWritersAreSlowThenNeverExceedTheMaxInFlightBatches() {
+        when(appProperties.getMaxInFlightBatches()).thenReturn(2);
+        when(redisCdrQueue.fetch(eq("cdr"), anyInt(), eq(10)))
+                .thenAnswer(invocation -> Mono.just(new CdrBatch("cdr", List.of(), List.of(ObjectsCreator.getDefaultCdr()))));
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        cdrPipeline = new CdrPipeline("Test", appProperties, redisCdrQueue, records -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sleep(50);
+            inFlight.decrementAndGet();
+            written.incrementAndGet();
+            return true;
+        });
+
+        cdrPipeline.start();
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> written.get() >= 10);
+        assertTrue(maxInFlight.get() <= 2);
+        verify(redisCdrQueue, atLeast(10)).acknowledge(any());
+    }
+
+    @Test
+    @DisplayName("Write when records do not come from redis then write them only while the pipeline runs")
+    void writeWhenRecordsDoNotComeFromRedisThenWriteThemOnlyWhileThePipelineRuns() {
+        when(appProperties.getMaxInFlightBatches()).thenReturn(1);
+        when(redisCdrQueue.fetch(eq("cdr"), anyInt(), eq(10))).thenReturn(Mono.empty());
+        AtomicInteger written = new AtomicInteger();
+        cdrPipeline = new CdrPipeline("Test", appProperties, redisCdrQueue, records -> written.addAndGet(records.size()) > 0);
+        List<UtilsRecords.Cdr> records = List.of(ObjectsCreator.getDefaultCdr());
+
+        assertFalse(cdrPipeline.write(records));
+        cdrPipeline.start();
+        assertTrue(cdrPipeline.write(records));
+
+        assertEquals(1, written.get());
+        verify(redisCdrQueue, never()).acknowledge(any());
+    }
+
+    @Test
+    @DisplayName("Start when redis is empty then back off without writing")
+    void startWhenRedisIsEmptyThenBackOffWithoutWriting() {
+        when(appProperties.getMaxInFlightBatches()).thenReturn(4);
+        when(redisCdrQueue.fetch(eq("cdr"), anyInt(), eq(10))).thenReturn(Mono.empty());
+        CountDownLatch writes = new CountDownLatch(1);
+        cdrPipeline = new CdrPipeline("Test", appProperties, redisCdrQueue, records -> {
+            writes.countDown();
+            return true;
+        });
+
+        cdrPipeline.start();
+
+        // 4 workers backing off 10, 20, 40, 80, 160, 200... ms poll a few times each in one second, not a busy loop
+        verify(redisCdrQueue, after(1000).atMost(60)).fetch(eq("cdr"), anyInt(), eq(10));
+        verify(redisCdrQueue, atLeast(8)).fetch(eq("cdr"), anyInt(), eq(10));
+        assertEquals(1, writes.getCount());
+    }
+
+    @Test
+    @DisplayName("Start when writer fails then release the batch")
+    void startWhenWriterFailsThenReleaseTheBatch() {
+        when(appProperties.getMaxInFlightBatches()).thenReturn(4);
+        when(redisCdrQueue.fetch(eq("cdr"), anyInt(), eq(10)))
+                .thenReturn(Mono.just(new CdrBatch("cdr", List.of("{cdr}:processing:test:0"), List.of(ObjectsCreator.getDefaultCdr()))))
+                .thenReturn(Mono.empty());
+        cdrPipeline = new CdrPipeline("Test", appProperties, redisCdrQueue, records -> {
+            throw new IllegalStateException("Write failed");
+        });
+
+        cdrPipeline.start();
+
+        verify(redisCdrQueue, after(500)).release(any());
+        verify(redisCdrQueue, never()).acknowledge(any());
+    }
+
+    @Test
+    @DisplayName("Start when writer is not ready then take nothing until it is")
+    void startWhenWriterIsNotReadyThenTakeNothingUntilItIs() {
+        when(appProperties.getMaxInFlightBatches()).thenReturn(4);
+        when(redisCdrQueue.fetch(eq("cdr"), anyInt(), eq(10))).thenReturn(Mono.empty());
+        AtomicBoolean ready = new AtomicBoolean(false);
+        cdrPipeline = new CdrPipeline("Test", appProperties, redisCdrQueue, new CdrBatchWriter() {
+            @Override
+            public boolean write(List<UtilsRecords.Cdr> records) {
+                return true;
+            }
+
+            @Override
+            public boolean isReady() {
+                return ready.get();
+            }
+        });
+
+        cdrPipeline.start();
+
+        verify(redisCdrQueue, after(500).never()).fetch(eq("cdr"), anyInt(), eq(10));
+        ready.set(true);
+        verify(redisCdrQueue, timeout(1000).atLeast(1)).fetch(eq("cdr"), anyInt(), eq(10));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
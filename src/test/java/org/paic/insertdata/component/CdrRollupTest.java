@@ -0,0 +1,81 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CdrRollupTest {
+    private static final Timestamp MINUTE = Timestamp.valueOf(
+            Instant.ofEpochMilli(1734454560000L).atZone(ZoneId.systemDefault()).toLocalDateTime());
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Flush when records were written then upsert one row per minute and dimensions")
+    void flushWhenRecordsWereWrittenThenUpsertOneRowPerMinuteAndDimensions() {
+        CdrRollup rollup = new CdrRollup(jdbcTemplate, transactionManager);
+
+        rollup.add(List.of(ObjectsCreator.getDefaultCdr("1", "DELIVERED"), ObjectsCreator.getDefaultCdr("2", "DELIVERED")));
+        rollup.add(List.of(ObjectsCreator.getDefaultCdr("3", "FAILED")));
+
+        assertEquals(2, rollup.flush());
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(eq(CdrRollup.UPSERT_QUERY), rows.capture());
+        assertArrayEquals(new Object[]{MINUTE, "DELIVERED", "3", "2", "MESSAGE", 2L, 3550L, 3546L}, rows.getValue().get(0));
+        assertArrayEquals(new Object[]{MINUTE, "FAILED", "3", "2", "MESSAGE", 1L, 1775L, 1773L}, rows.getValue().get(1));
+        assertEquals(0, rollup.flush());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Flush when the upsert fails then roll it back and add the counters to the next flush")
+    void flushWhenTheUpsertFailsThenRollItBackAndAddTheCountersToTheNextFlush() {
+        TransactionStatus status = mock(TransactionStatus.class);
+        when(transactionManager.getTransaction(any())).thenReturn(status);
+        CdrRollup rollup = new CdrRollup(jdbcTemplate, transactionManager);
+        List<UtilsRecords.Cdr> batch = List.of(ObjectsCreator.getDefaultCdr("1", "DELIVERED"));
+        when(jdbcTemplate.batchUpdate(eq(CdrRollup.UPSERT_QUERY), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("Connection refused"))
+                .thenReturn(new int[]{1});
+
+        rollup.add(batch);
+        assertEquals(0, rollup.flush());
+        rollup.add(batch);
+        assertEquals(1, rollup.flush());
+
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(2)).batchUpdate(eq(CdrRollup.UPSERT_QUERY), rows.capture());
+        assertEquals(2L, rows.getValue().getFirst()[5]);
+        verify(transactionManager).rollback(status);
+        verify(transactionManager).commit(status);
+    }
+}
@@ -0,0 +1,65 @@
+package org.paic.insertdata.component;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CdrShardsTest {
+    private static final List<String> KEYS = List.of("cdr:{0}", "cdr:{1}", "cdr:{2}", "cdr:{3}");
+    private static final Function<String, String> NODE_OF = Map.of(
+            "cdr:{0}", "a", "cdr:{1}", "b", "cdr:{2}", "a", "cdr:{3}", "c")::get;
+
+    @Test
+    @DisplayName("Keys when shards is 0 then return the list name alone")
+    void keysWhenShardsIsZeroThenReturnTheListName() {
+        assertEquals(List.of("cdr"), CdrShards.keys("cdr", 0));
+        assertEquals(KEYS, CdrShards.keys("cdr", 4));
+    }
+
+    @Test
+    @DisplayName("Assign when workers are more than nodes then every worker reads one node")
+    void assignWhenWorkersAreMoreThanNodesThenEveryWorkerReadsOneNode() {
+        List<List<List<String>>> assignment = CdrShards.assign(KEYS, NODE_OF, 4);
+
+        assertEquals(List.of(List.of(List.of("cdr:{0}", "cdr:{2}")), List.of(List.of("cdr:{1}")),
+                List.of(List.of("cdr:{3}")), List.of(List.of("cdr:{0}", "cdr:{2}"))), assignment);
+    }
+
+    @Test
+    @DisplayName("Assign when workers are fewer than nodes then every worker reads several nodes")
+    void assignWhenWorkersAreFewerThanNodesThenEveryWorkerReadsSeveralNodes() {
+        List<List<List<String>>> assignment = CdrShards.assign(KEYS, NODE_OF, 2);
+
+        assertEquals(List.of(List.of(List.of("cdr:{0}", "cdr:{2}"), List.of("cdr:{3}")),
+                List.of(List.of("cdr:{1}"))), assignment);
+    }
+
+    @Test
+    @DisplayName("Node resolver when cluster slots are parsed then resolve the master of every key")
+    void nodeResolverWhenClusterSlotsAreParsedThenResolveTheMasterOfEveryKey() {
+        Object reply = List.of(
+                List.of(0L, 8191L, List.of(bytes("10.0.0.1"), 7000L, bytes("id-1")), List.of(bytes("10.0.0.4"), 7003L)),
+                List.of(8192L, 16383L, List.of(bytes("10.0.0.2"), 7001L, bytes("id-2"))));
+
+        List<CdrShards.SlotRange> slotRanges = CdrShards.parseSlots(reply);
+        Function<String, String> nodeOf = CdrShards.nodeResolver(slotRanges, JedisClusterCRC16::getSlot);
+
+        assertEquals(2, slotRanges.size());
+        for (String key : CdrShards.keys("cdr", 16)) {
+            String expected = JedisClusterCRC16.getSlot(key) <= 8191 ? "10.0.0.1:7000" : "10.0.0.2:7001";
+            assertEquals(expected, nodeOf.apply(key));
+        }
+        assertEquals(CdrShards.UNKNOWN_NODE, CdrShards.nodeResolver(List.of(), JedisClusterCRC16::getSlot).apply("cdr"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
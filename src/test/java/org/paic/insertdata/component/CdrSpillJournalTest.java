@@ -0,0 +1,123 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CdrSpillJournalTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Peek when batches are appended across segments then return them in order and delete the replayed segments")
+    void peekWhenBatchesAreAppendedAcrossSegmentsThenReturnThemInOrderAndDeleteTheReplayedSegments() throws IOException {
+        try (CdrSpillJournal journal = new CdrSpillJournal(directory, SEGMENT_SIZE, 0)) {
+            for (int i = 0; i < 20; i++) {
+                journal.append(batch("message-" + i));
+            }
+            assertTrue(this.segmentCount() > 1);
+
+            for (int i = 0; i < 20; i++) {
+                CdrSpillJournal.Entry entry = journal.peek();
+                assertEquals("message-" + i, entry.records().getFirst().messageId());
+                journal.remove(entry);
+            }
+
+            assertTrue(journal.isEmpty());
+            assertNull(journal.peek());
+            assertEquals(0, this.segmentCount());
+
+            journal.append(batch("message-20"));
+            assertEquals("message-20", journal.peek().records().getFirst().messageId());
+        }
+    }
+
+    @Test
+    @DisplayName("Open when the journal holds batches then resume after the last removed one")
+    void openWhenTheJournalHoldsBatchesThenResumeAfterTheLastRemovedOne() throws IOException {
+        try (CdrSpillJournal journal = new CdrSpillJournal(directory, SEGMENT_SIZE, 0)) {
+            for (int i = 0; i < 3; i++) {
+                journal.append(batch("message-" + i));
+            }
+            journal.remove(journal.peek());
+        }
+
+        try (CdrSpillJournal journal = new CdrSpillJournal(directory, SEGMENT_SIZE, 0)) {
+            assertEquals("message-1", journal.peek().records().getFirst().messageId());
+            journal.remove(journal.peek());
+            journal.append(batch("message-3"));
+            assertEquals("message-2", journal.peek().records().getFirst().messageId());
+            journal.remove(journal.peek());
+            assertEquals("message-3", journal.peek().records().getFirst().messageId());
+        }
+    }
+
+    @Test
+    @DisplayName("Open when the last entry is cut then ignore it")
+    void openWhenTheLastEntryIsCutThenIgnoreIt() throws IOException {
+        try (CdrSpillJournal journal = new CdrSpillJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.append(batch("message-0"));
+            journal.append(batch("message-1"));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.getFileName().toString().endsWith(".seg")).findFirst().orElseThrow();
+        }
+        // corrupts the payload of the second entry, as a crash in the middle of the write would
+        int secondEntry = ByteBuffer.wrap(Files.readAllBytes(segment)).getInt(0) + 2 * Integer.BYTES;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'x', 'x'}), secondEntry + 3 * Integer.BYTES);
+        }
+
+        try (CdrSpillJournal journal = new CdrSpillJournal(directory, SEGMENT_SIZE, 0)) {
+            CdrSpillJournal.Entry entry = journal.peek();
+            assertEquals("message-0", entry.records().getFirst().messageId());
+            journal.remove(entry);
+            assertTrue(journal.isEmpty());
+            assertNull(journal.peek());
+        }
+    }
+
+    @Test
+    @DisplayName("Is full when the pending batches reach the maximum size then be full until they are removed")
+    void isFullWhenThePendingBatchesReachTheMaximumSizeThenBeFullUntilTheyAreRemoved() throws IOException {
+        try (CdrSpillJournal journal = new CdrSpillJournal(directory, SEGMENT_SIZE, 1024)) {
+            while (!journal.isFull()) {
+                journal.append(batch("message"));
+            }
+
+            while (!journal.isEmpty()) {
+                journal.remove(journal.peek());
+            }
+
+            assertFalse(journal.isFull());
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+
+    private static List<UtilsRecords.Cdr> batch(String messageId) {
+        return List.of(ObjectsCreator.getDefaultCdr(messageId));
+    }
+}
@@ -0,0 +1,62 @@
+package org.paic.insertdata.component;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.paic.insertdata.util.AppProperties;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CdrStagingMergerTest {
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private AppProperties appProperties;
+
+    private CdrStagingMerger merger;
+
+    @BeforeEach
+    void setUp() {
+        when(appProperties.getStagingMergeBatchSize()).thenReturn(100);
+        when(appProperties.getStagingMergeMaxBatches()).thenReturn(3);
+        merger = new CdrStagingMerger(jdbcTemplate, appProperties);
+    }
+
+    @Test
+    @DisplayName("Merge staged when the chunks are full then merge until a chunk is not full")
+    void mergeStagedWhenTheChunksAreFullThenMergeUntilAChunkIsNotFull() {
+        when(jdbcTemplate.queryForObject(CdrStagingMerger.MERGE_QUERY, Integer.class, 100)).thenReturn(100, 40);
+
+        assertEquals(140, merger.mergeStaged());
+        verify(jdbcTemplate, times(2)).queryForObject(CdrStagingMerger.MERGE_QUERY, Integer.class, 100);
+    }
+
+    @Test
+    @DisplayName("Merge staged when the backlog exceeds the maximum chunks then leave the rest for the next run")
+    void mergeStagedWhenTheBacklogExceedsTheMaximumChunksThenLeaveTheRestForTheNextRun() {
+        when(jdbcTemplate.queryForObject(CdrStagingMerger.MERGE_QUERY, Integer.class, 100)).thenReturn(100);
+
+        assertEquals(300, merger.mergeStaged());
+        verify(jdbcTemplate, times(3)).queryForObject(CdrStagingMerger.MERGE_QUERY, Integer.class, 100);
+    }
+
+    @Test
+    @DisplayName("Merge staged when the merge fails then keep what was merged and retry on the next run")
+    void mergeStagedWhenTheMergeFailsThenKeepWhatWasMergedAndRetryOnTheNextRun() {
+        when(jdbcTemplate.queryForObject(CdrStagingMerger.MERGE_QUERY, Integer.class, 100))
+                .thenReturn(100)
+                .thenThrow(new DataAccessResourceFailureException("Connection refused"));
+
+        assertEquals(100, merger.mergeStaged());
+    }
+}
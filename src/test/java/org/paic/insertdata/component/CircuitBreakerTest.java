@@ -0,0 +1,63 @@
+package org.paic.insertdata.component;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    @DisplayName("On failure when the threshold is reached then refuse batches until the open period has elapsed")
+    void onFailureWhenTheThresholdIsReachedThenRefuseBatchesUntilTheOpenPeriodHasElapsed() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("database", 2, 1000, nanos::get);
+
+        circuitBreaker.onFailure();
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.state());
+        assertFalse(circuitBreaker.isReady());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        this.advance(1000);
+        assertTrue(circuitBreaker.isReady());
+        assertTrue(circuitBreaker.tryAcquire());
+        assertFalse(circuitBreaker.tryAcquire());
+        assertFalse(circuitBreaker.isReady());
+
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    @DisplayName("On failure when the trial batch fails then open again and never open when disabled")
+    void onFailureWhenTheTrialBatchFailsThenOpenAgainAndNeverOpenWhenDisabled() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("database", 1, 1000, nanos::get);
+        circuitBreaker.onFailure();
+        this.advance(1000);
+        assertTrue(circuitBreaker.tryAcquire());
+
+        circuitBreaker.onFailure();
+        this.advance(999);
+        assertFalse(circuitBreaker.isReady());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.state());
+
+        CircuitBreaker disabled = new CircuitBreaker("database", 0, 1000, nanos::get);
+        for (int i = 0; i < 100; i++) {
+            disabled.onFailure();
+        }
+        assertTrue(disabled.tryAcquire());
+    }
+
+    private void advance(long millis) {
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -3,36 +3,55 @@ package org.paic.insertdata.component;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.paicbd.smsc.dto.UtilsRecords;
 import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
 import org.paic.insertdata.util.AppProperties;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
 import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.util.SafeEncoder;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
 class DatabaseModeProcessorTest {
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -45,25 +64,41 @@ class DatabaseModeProcessorTest {
     @Mock
     private BulkInserter bulkInserter;
 
-    @InjectMocks
+    @Mock
+    private CdrDeadLetterQueue deadLetterQueue;
+
     private DatabaseModeProcessor databaseModeProcessor;
+    private CdrSinkProcessor cdrSinkProcessor;
 
-    @Test
-    @SuppressWarnings("unchecked")
-    @DisplayName("Process CDR in database when data is ok then execute bulk inserter")
-    void processCdrInDbWhenDataIsOkThenExecuteBulkInserter() throws IOException {
+    @AfterEach
+    void tearDown() {
+        if (cdrSinkProcessor != null) {
+            cdrSinkProcessor.stopProcessing();
+        }
+    }
+
+    private void createProcessor(int maxRetries) throws IOException {
         when(appProperties.getCdrListName()).thenReturn("testList");
         when(appProperties.getCdrWorkers()).thenReturn(5);
         when(appProperties.getCdrBatchSize()).thenReturn(1000);
+        when(appProperties.getMaxInFlightBatches()).thenReturn(5);
+        when(appProperties.getIdleBackoffMillis()).thenReturn(10L);
         when(appProperties.getIntervalMillis()).thenReturn(1000L);
-        when(jedisCluster.llen("testList")).thenReturn(1L);
-        when(jedisCluster.lpop("testList", 1)).thenReturn(Collections.singletonList(objectMapper.writeValueAsString(ObjectsCreator.getDefaultCdr())));
-        when(appProperties.getMaxRetries()).thenReturn(3);
-        assertDoesNotThrow(() -> databaseModeProcessor.processCdrInDatabase());
-        try (ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor()) {
-            scheduledExecutorService.schedule(() -> {
-            }, 1, TimeUnit.SECONDS);
-        }
+        when(appProperties.getMaxRetries()).thenReturn(maxRetries);
+        when(jedisCluster.lpop(eq(SafeEncoder.encode("testList")), anyInt()))
+                .thenReturn(Collections.singletonList(objectMapper.writeValueAsBytes(ObjectsCreator.getDefaultCdr())))
+                .thenReturn(Collections.emptyList());
+        when(appProperties.getSinks()).thenReturn(List.of("database"));
+        databaseModeProcessor = new DatabaseModeProcessor(appProperties, bulkInserter, deadLetterQueue);
+        cdrSinkProcessor = new CdrSinkProcessor(appProperties, new RedisCdrQueue(jedisCluster, appProperties), List.of(databaseModeProcessor));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Process CDR in database when data is ok then execute bulk inserter")
+    void processCdrInDbWhenDataIsOkThenExecuteBulkInserter() throws IOException {
+        createProcessor(3);
+        cdrSinkProcessor.processCdr();
 
         ArgumentCaptor<List<UtilsRecords.Cdr>> captor = ArgumentCaptor.forClass(List.class);
         Awaitility.await()
@@ -77,46 +112,204 @@ class DatabaseModeProcessorTest {
 
         UtilsRecords.Cdr cdr = cdrList.getFirst();
         assertNotNull(cdr);
+        verify(jedisCluster, after(500).atLeast(2)).lpop(SafeEncoder.encode("testList"), 1000);
     }
 
     @Test
     @DisplayName("Process CDR in database when retries is zero then not execute bulk inserter")
     void processCdrInDbWhenRetriesIsZeroThenNotExecuteBulkInserter() throws IOException {
-        when(appProperties.getCdrListName()).thenReturn("testList");
-        when(appProperties.getCdrWorkers()).thenReturn(5);
-        when(appProperties.getCdrBatchSize()).thenReturn(1000);
-        when(appProperties.getIntervalMillis()).thenReturn(1000L);
-        when(jedisCluster.llen("testList")).thenReturn(1L);
-        when(jedisCluster.lpop("testList", 1)).thenReturn(Collections.singletonList(objectMapper.writeValueAsString(ObjectsCreator.getDefaultCdr())));
-        when(appProperties.getMaxRetries()).thenReturn(0);
-        assertDoesNotThrow(() -> databaseModeProcessor.processCdrInDatabase());
-        try (ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor()) {
-            scheduledExecutorService.schedule(() -> {
-            }, 1, TimeUnit.SECONDS);
-        }
+        createProcessor(0);
+        cdrSinkProcessor.processCdr();
 
+        verify(jedisCluster, after(500).atLeast(1)).lpop(SafeEncoder.encode("testList"), 1000);
         verify(bulkInserter, never()).saveCdrBulk(anyList());
     }
 
     @Test
     @DisplayName("Process CDR in database when bulk inserter throws exception then retry the max retries number")
     void processCdrInDbWhenBulkInserterThrowsExceptionThenRetryTheMaxRetriesNumber() throws IOException {
-        when(appProperties.getCdrListName()).thenReturn("testList");
-        when(appProperties.getCdrWorkers()).thenReturn(5);
-        when(appProperties.getCdrBatchSize()).thenReturn(1000);
-        when(appProperties.getIntervalMillis()).thenReturn(1000L);
-        when(jedisCluster.llen("testList")).thenReturn(1L);
-        when(jedisCluster.lpop("testList", 1)).thenReturn(Collections.singletonList(objectMapper.writeValueAsString(ObjectsCreator.getDefaultCdr())));
-        when(appProperties.getMaxRetries()).thenReturn(3);
+        createProcessor(3);
         doThrow(new DataAccessException("Error") {
         }).when(bulkInserter).saveCdrBulk(anyList());
 
-        databaseModeProcessor.processCdrInDatabase();
-        try (ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor()) {
-            scheduledExecutorService.schedule(() -> {
-            }, 1, TimeUnit.SECONDS);
-        }
+        cdrSinkProcessor.processCdr();
+
+        verify(bulkInserter, after(1000).times(3)).saveCdrBulk(anyList());
+    }
+
+    @Test
+    @DisplayName("Insert into database when bulk inserter always fails then return false")
+    void insertIntoDatabaseWhenBulkInserterAlwaysFailsThenReturnFalse() throws IOException {
+        createProcessor(2);
+        doThrow(new DataAccessException("Error") {
+        }).when(bulkInserter).saveCdrBulk(anyList());
+
+        assertFalse(databaseModeProcessor.insertIntoDatabase(List.of(ObjectsCreator.getDefaultCdr())));
+        verify(bulkInserter, times(2)).saveCdrBulk(anyList());
+    }
+
+    @Test
+    @DisplayName("Insert into database when some records are invalid then bisect the batch and move only them to the dead-letter list")
+    void insertIntoDatabaseWhenSomeRecordsAreInvalidThenBisectTheBatchAndMoveOnlyThemToTheDeadLetterList() throws IOException {
+        createProcessor(3);
+        UtilsRecords.Cdr valid = ObjectsCreator.getDefaultCdr();
+        UtilsRecords.Cdr invalid = mock(UtilsRecords.Cdr.class);
+        List<UtilsRecords.Cdr> batch = new ArrayList<>(Collections.nCopies(10, valid));
+        batch.set(3, invalid);
+        batch.set(8, invalid);
+        List<UtilsRecords.Cdr> inserted = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<UtilsRecords.Cdr> records = invocation.getArgument(0);
+            if (records.contains(invalid)) {
+                throw new DataIntegrityViolationException("value too long for type character varying(10)");
+            }
+            inserted.addAll(records);
+            return null;
+        }).when(bulkInserter).saveCdrBulk(anyList());
+        when(deadLetterQueue.send(eq(DatabaseModeProcessor.SINK_NAME), eq(invalid), anyString())).thenReturn(true);
+
+        assertTrue(databaseModeProcessor.insertIntoDatabase(batch));
+
+        assertEquals(8, inserted.size());
+        assertFalse(inserted.contains(invalid));
+        verify(deadLetterQueue, times(2)).send(DatabaseModeProcessor.SINK_NAME, invalid, "value too long for type character varying(10)");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Insert into database when the rollup is enabled then count only the records inserted and flush them on close")
+    void insertIntoDatabaseWhenTheRollupIsEnabledThenCountOnlyTheRecordsInsertedAndFlushThemOnClose() throws IOException {
+        createProcessor(3);
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        DatabaseModeProcessor processor = new DatabaseModeProcessor(appProperties, bulkInserter, deadLetterQueue,
+                new CdrMetrics(), new CdrRollup(jdbcTemplate, mock(PlatformTransactionManager.class)));
+        UtilsRecords.Cdr invalid = ObjectsCreator.getDefaultCdr("3", "FAILED");
+        doAnswer(invocation -> {
+            List<UtilsRecords.Cdr> records = invocation.getArgument(0);
+            if (records.contains(invalid)) {
+                throw new DataIntegrityViolationException("Invalid");
+            }
+            return null;
+        }).when(bulkInserter).saveCdrBulk(anyList());
+        when(deadLetterQueue.send(eq(DatabaseModeProcessor.SINK_NAME), eq(invalid), anyString())).thenReturn(true);
+
+        assertTrue(processor.insertIntoDatabase(List.of(ObjectsCreator.getDefaultCdr("1", "DELIVERED"),
+                ObjectsCreator.getDefaultCdr("2", "DELIVERED"), invalid)));
+        processor.close();
+
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(eq(CdrRollup.UPSERT_QUERY), rows.capture());
+        assertEquals(1, rows.getValue().size());
+        assertEquals("DELIVERED", rows.getValue().getFirst()[1]);
+        assertEquals(2L, rows.getValue().getFirst()[5]);
+    }
+
+    @Test
+    @DisplayName("Insert into database when an invalid record cannot be moved to the dead-letter list then return false")
+    void insertIntoDatabaseWhenAnInvalidRecordCannotBeMovedToTheDeadLetterListThenReturnFalse() throws IOException {
+        createProcessor(3);
+        doThrow(new DataIntegrityViolationException("Invalid")).when(bulkInserter).saveCdrBulk(anyList());
+
+        assertFalse(databaseModeProcessor.insertIntoDatabase(List.of(ObjectsCreator.getDefaultCdr(), ObjectsCreator.getDefaultCdr())));
+        verify(bulkInserter, times(3)).saveCdrBulk(anyList());
+        verify(deadLetterQueue, times(2)).send(eq(DatabaseModeProcessor.SINK_NAME), any(), eq("Invalid"));
+    }
+
+    @Test
+    @DisplayName("Insert into database when the database fails while bisecting then spill only the records not committed")
+    void insertIntoDatabaseWhenTheDatabaseFailsWhileBisectingThenSpillOnlyTheRecordsNotCommitted(@TempDir Path spillLocation) throws IOException {
+        when(appProperties.isSpillEnabled()).thenReturn(true);
+        when(appProperties.getSpillLocation()).thenReturn(spillLocation.toString());
+        when(appProperties.getSpillSegmentSizeMb()).thenReturn(1);
+        when(appProperties.getSpillReplayIntervalMillis()).thenReturn(50L);
+        createProcessor(1);
+        UtilsRecords.Cdr invalid = ObjectsCreator.getDefaultCdr("invalid");
+        List<UtilsRecords.Cdr> batch = List.of(ObjectsCreator.getDefaultCdr("a"), ObjectsCreator.getDefaultCdr("b"),
+                invalid, ObjectsCreator.getDefaultCdr("d"));
+        List<String> inserted = Collections.synchronizedList(new ArrayList<>());
+        boolean[] databaseDown = {false};
+        doAnswer(invocation -> {
+            List<UtilsRecords.Cdr> records = invocation.getArgument(0);
+            if (records.size() == 2 && records.contains(invalid) && !databaseDown[0]) {
+                databaseDown[0] = true;
+                throw new CannotCreateTransactionException("Could not open JDBC Connection for transaction");
+            }
+            if (records.contains(invalid)) {
+                throw new DataIntegrityViolationException("Invalid");
+            }
+            records.forEach(cdr -> inserted.add(cdr.messageId()));
+            return null;
+        }).when(bulkInserter).saveCdrBulk(anyList());
+        when(deadLetterQueue.send(eq(DatabaseModeProcessor.SINK_NAME), eq(invalid), anyString())).thenReturn(true);
+
+        assertTrue(databaseModeProcessor.insertIntoDatabase(batch));
+        assertEquals(List.of("a", "b"), inserted);
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> inserted.size() == 3);
+        assertEquals(List.of("a", "b", "d"), inserted);
+        verify(deadLetterQueue).send(DatabaseModeProcessor.SINK_NAME, invalid, "Invalid");
+    }
+
+    @Test
+    @DisplayName("Insert into database when the database keeps failing then stop retrying permanent errors and open the circuit breaker")
+    void insertIntoDatabaseWhenTheDatabaseKeepsFailingThenStopRetryingPermanentErrorsAndOpenTheCircuitBreaker() throws IOException {
+        when(appProperties.getCircuitBreakerFailures()).thenReturn(2);
+        when(appProperties.getCircuitBreakerOpenMillis()).thenReturn(60000L);
+        createProcessor(3);
+        doThrow(new BadSqlGrammarException("insert", "INSERT INTO cdr", new SQLException("relation cdr does not exist")))
+                .when(bulkInserter).saveCdrBulk(anyList());
+        List<UtilsRecords.Cdr> batch = List.of(ObjectsCreator.getDefaultCdr());
+
+        assertFalse(databaseModeProcessor.insertIntoDatabase(batch));
+        assertTrue(databaseModeProcessor.isReady());
+        assertFalse(databaseModeProcessor.insertIntoDatabase(batch));
+        assertFalse(databaseModeProcessor.isReady());
+        assertFalse(databaseModeProcessor.insertIntoDatabase(batch));
+
+        verify(bulkInserter, times(2)).saveCdrBulk(anyList());
+    }
+
+    @Test
+    @DisplayName("Insert into database when no connection can be taken for the transaction then retry and open the circuit breaker")
+    void insertIntoDatabaseWhenNoConnectionCanBeTakenForTheTransactionThenRetryAndOpenTheCircuitBreaker() throws IOException {
+        when(appProperties.getCircuitBreakerFailures()).thenReturn(1);
+        when(appProperties.getCircuitBreakerOpenMillis()).thenReturn(60000L);
+        createProcessor(3);
+        doThrow(new CannotCreateTransactionException("Could not open JDBC Connection for transaction"))
+                .when(bulkInserter).saveCdrBulk(anyList());
+
+        assertFalse(databaseModeProcessor.insertIntoDatabase(List.of(ObjectsCreator.getDefaultCdr())));
 
         verify(bulkInserter, times(3)).saveCdrBulk(anyList());
+        assertFalse(databaseModeProcessor.isReady());
+    }
+
+    @Test
+    @DisplayName("Insert into database when the spill journal is enabled and the database is down then spill the batches and insert the new ones directly once it is back")
+    void insertIntoDatabaseWhenTheSpillJournalIsEnabledAndTheDatabaseIsDownThenSpillTheBatchesAndInsertTheNewOnesDirectlyOnceItIsBack(@TempDir Path spillLocation) throws IOException {
+        when(appProperties.isSpillEnabled()).thenReturn(true);
+        when(appProperties.getSpillLocation()).thenReturn(spillLocation.toString());
+        when(appProperties.getSpillSegmentSizeMb()).thenReturn(1);
+        when(appProperties.getSpillReplayIntervalMillis()).thenReturn(50L);
+        List<String> inserted = Collections.synchronizedList(new ArrayList<>());
+        boolean[] databaseUp = {false};
+        doAnswer(invocation -> {
+            if (!databaseUp[0]) {
+                throw new CannotCreateTransactionException("Could not open JDBC Connection for transaction");
+            }
+            List<UtilsRecords.Cdr> records = invocation.getArgument(0);
+            records.forEach(cdr -> inserted.add(cdr.messageId()));
+            return null;
+        }).when(bulkInserter).saveCdrBulk(anyList());
+        createProcessor(1);
+
+        assertTrue(databaseModeProcessor.insertIntoDatabase(List.of(ObjectsCreator.getDefaultCdr("first"))));
+        databaseUp[0] = true;
+        assertTrue(databaseModeProcessor.insertIntoDatabase(List.of(ObjectsCreator.getDefaultCdr("second"))));
+        assertTrue(inserted.contains("second"));
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> inserted.size() == 2);
+        assertTrue(inserted.contains("first"));
+        assertTrue(databaseModeProcessor.isReady());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeduplicatingCdrBatchWriterTest {
+    private static final long WINDOW_MILLIS = 1000;
+
+    private final List<List<UtilsRecords.Cdr>> writes = new ArrayList<>();
+    private final AtomicLong nanos = new AtomicLong();
+    private final CdrMetrics metrics = new CdrMetrics();
+
+    @Test
+    @DisplayName("Write when a batch repeats records written before then write only the new ones")
+    void writeWhenABatchRepeatsRecordsWrittenBeforeThenWriteOnlyTheNewOnes() {
+        DeduplicatingCdrBatchWriter writer = this.writer(records -> true, 1000);
+
+        assertTrue(writer.write(List.of(cdr("1"), cdr("2"), cdr("1"))));
+        assertTrue(writer.write(List.of(cdr("2"), cdr("3"))));
+        assertTrue(writer.write(List.of(cdr("3"))));
+
+        assertEquals(List.of(List.of(cdr("1"), cdr("2")), List.of(cdr("3"))), writes);
+        assertTrue(metrics.scrape().contains("cdr_records_duplicate_total 3\n"));
+    }
+
+    @Test
+    @DisplayName("Write when the status of a message changes then write every status")
+    void writeWhenTheStatusOfAMessageChangesThenWriteEveryStatus() {
+        DeduplicatingCdrBatchWriter writer = this.writer(records -> true, 1000);
+
+        writer.write(List.of(ObjectsCreator.getDefaultCdr("1", "ENQUEUED")));
+        writer.write(List.of(ObjectsCreator.getDefaultCdr("1", "SENT")));
+
+        assertEquals(2, writes.size());
+    }
+
+    @Test
+    @DisplayName("Write when the delegate fails then write the whole batch again on the next try")
+    void writeWhenTheDelegateFailsThenWriteTheWholeBatchAgainOnTheNextTry() {
+        AtomicLong attempts = new AtomicLong();
+        DeduplicatingCdrBatchWriter writer = this.writer(records -> attempts.incrementAndGet() > 1, 1000);
+        List<UtilsRecords.Cdr> batch = List.of(cdr("1"), cdr("2"));
+
+        assertFalse(writer.write(batch));
+        assertEquals(0, writer.rememberedKeys());
+        assertTrue(writer.write(batch));
+
+        assertEquals(List.of(batch, batch), writes);
+    }
+
+    @Test
+    @DisplayName("Write when a record is older than the window or above the maximum keys then write it again")
+    void writeWhenARecordIsOlderThanTheWindowOrAboveTheMaximumKeysThenWriteItAgain() {
+        DeduplicatingCdrBatchWriter writer = this.writer(records -> true, 2);
+
+        writer.write(List.of(cdr("1")));
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(WINDOW_MILLIS));
+        writer.write(List.of(cdr("1")));
+        assertEquals(2, writes.size());
+
+        writer.write(List.of(cdr("2"), cdr("3")));
+        assertEquals(2, writer.rememberedKeys());
+        writer.write(List.of(cdr("1"), cdr("3")));
+        assertEquals(List.of(cdr("1")), writes.getLast());
+    }
+
+    private DeduplicatingCdrBatchWriter writer(CdrBatchWriter delegate, int maxKeys) {
+        return new DeduplicatingCdrBatchWriter(records -> {
+            writes.add(records);
+            return delegate.write(records);
+        }, WINDOW_MILLIS, maxKeys, metrics, nanos::get);
+    }
+
+    private static UtilsRecords.Cdr cdr(String messageId) {
+        return ObjectsCreator.getDefaultCdr(messageId);
+    }
+}
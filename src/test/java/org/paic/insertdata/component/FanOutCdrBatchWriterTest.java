@@ -0,0 +1,131 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FanOutCdrBatchWriterTest {
+    private static final List<UtilsRecords.Cdr> BATCH = List.of(ObjectsCreator.getDefaultCdr());
+
+    @Test
+    @DisplayName("Write when there are several sinks then write the batch to all of them in parallel")
+    void writeWhenThereAreSeveralSinksThenWriteTheBatchToAllOfThemInParallel() {
+        CountDownLatch bothWriting = new CountDownLatch(2);
+        FanOutCdrBatchWriter writer = new FanOutCdrBatchWriter(List.of(
+                sink("database", records -> awaitOther(bothWriting)),
+                sink("logs", records -> awaitOther(bothWriting))), Set.of(), 1);
+
+        assertTrue(writer.write(BATCH));
+    }
+
+    @Test
+    @DisplayName("Write when a required sink fails then fail the batch after every sink is done")
+    void writeWhenARequiredSinkFailsThenFailTheBatchAfterEverySinkIsDone() {
+        AtomicInteger written = new AtomicInteger();
+        FanOutCdrBatchWriter writer = new FanOutCdrBatchWriter(List.of(
+                sink("database", records -> {
+                    throw new IllegalStateException("Error");
+                }),
+                sink("logs", records -> {
+                    sleep(100);
+                    written.incrementAndGet();
+                    return true;
+                })), Set.of(), 1);
+
+        assertFalse(writer.write(BATCH));
+        assertEquals(1, written.get());
+    }
+
+    @Test
+    @DisplayName("Write when a batch failed on one required sink then deliver it again only to that sink")
+    void writeWhenABatchFailedOnOneRequiredSinkThenDeliverItAgainOnlyToThatSink() {
+        AtomicInteger databaseWrites = new AtomicInteger();
+        AtomicInteger logsWrites = new AtomicInteger();
+        AtomicInteger parquetWrites = new AtomicInteger();
+        FanOutCdrBatchWriter writer = new FanOutCdrBatchWriter(List.of(
+                sink("database", records -> databaseWrites.incrementAndGet() > 1),
+                sink("logs", records -> logsWrites.incrementAndGet() > 0),
+                sink("parquet", records -> parquetWrites.incrementAndGet() > 0)), Set.of("parquet"), 1);
+
+        assertFalse(writer.write(BATCH));
+        // delivered again with the same records, decoded anew
+        assertTrue(writer.write(List.of(ObjectsCreator.getDefaultCdr())));
+        assertTrue(writer.write(List.of(ObjectsCreator.getDefaultCdr("other"))));
+
+        assertEquals(3, databaseWrites.get());
+        assertEquals(2, logsWrites.get());
+        Awaitility.await().atMost(1, TimeUnit.SECONDS).until(() -> parquetWrites.get() == 2);
+    }
+
+    @Test
+    @DisplayName("Write when an optional sink is failing or busy then acknowledge the batch without waiting for it")
+    void writeWhenAnOptionalSinkIsFailingOrBusyThenAcknowledgeTheBatchWithoutWaitingForIt() {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger optionalWrites = new AtomicInteger();
+        AtomicInteger requiredWrites = new AtomicInteger();
+        FanOutCdrBatchWriter writer = new FanOutCdrBatchWriter(List.of(
+                sink("database", records -> requiredWrites.incrementAndGet() > 0),
+                sink("parquet", records -> {
+                    optionalWrites.incrementAndGet();
+                    await(release);
+                    return false;
+                })), Set.of("parquet"), 1);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.write(BATCH));
+        }
+        release.countDown();
+
+        assertEquals(5, requiredWrites.get());
+        Awaitility.await().atMost(1, TimeUnit.SECONDS).until(() -> optionalWrites.get() == 1);
+        assertTrue(writer.write(BATCH));
+        Awaitility.await().atMost(1, TimeUnit.SECONDS).until(() -> optionalWrites.get() == 2);
+    }
+
+    private static CdrSink sink(String name, CdrBatchWriter writer) {
+        return new CdrSink() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public boolean write(List<UtilsRecords.Cdr> records) {
+                return writer.write(records);
+            }
+        };
+    }
+
+    private static boolean awaitOther(CountDownLatch latch) {
+        latch.countDown();
+        return await(latch);
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,23 +2,28 @@ package org.paic.insertdata.component;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.io.FileUtils;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.paic.insertdata.util.AppProperties;
 import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.util.SafeEncoder;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -31,29 +36,41 @@ class LogsModeProcessorTest {
     @Mock
     AppProperties appProperties;
 
-    @InjectMocks
-    LogsModeProcessor logsModeProcessor;
+    CdrSinkProcessor cdrSinkProcessor;
 
-    @Test
-    @DisplayName("Process CDR in log when all is ok then verify and read the resulted file and the content")
-    void processCdrInLogWhenAllIsOkThenVerifyAndReadTheResultedFileAndTheContent() throws IOException {
+    @BeforeEach
+    void setUp() {
         when(appProperties.getCdrListName()).thenReturn("testList");
         when(appProperties.getCdrWorkers()).thenReturn(5);
         when(appProperties.getCdrBatchSize()).thenReturn(1000);
+        when(appProperties.getMaxInFlightBatches()).thenReturn(5);
+        when(appProperties.getIdleBackoffMillis()).thenReturn(10L);
         when(appProperties.getIntervalMillis()).thenReturn(1000L);
+        when(appProperties.getCdrLocation()).thenReturn("./target/generated-sources/logs");
+        when(appProperties.getCdrFileName()).thenReturn("cdr");
         when(appProperties.getSeparator()).thenReturn("|");
-        when(jedisCluster.llen("testList")).thenReturn(1L);
-        when(jedisCluster.lpop("testList", 1)).thenReturn(Collections.singletonList(objectMapper.writeValueAsString(ObjectsCreator.getDefaultCdr())));
-        assertDoesNotThrow(() -> logsModeProcessor.processCdrInLogsFile());
-        try (ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor()) {
-            scheduledExecutorService.schedule(() -> {
-            }, 2, java.util.concurrent.TimeUnit.SECONDS);
-        }
+        when(appProperties.getSinks()).thenReturn(List.of("logs"));
+        cdrSinkProcessor = new CdrSinkProcessor(appProperties, new RedisCdrQueue(jedisCluster, appProperties),
+                List.of(new LogsModeProcessor(appProperties)));
+    }
 
-        File file = new File("./target/generated-sources/logs/cdr.log");
-        assertTrue(file.exists());
+    @AfterEach
+    void tearDown() {
+        cdrSinkProcessor.stopProcessing();
+    }
 
-        String content = FileUtils.readFileToString(file, "UTF-8");
-        assertTrue(content.contains("200|8|55566768|730169999999212|55566768||22220|First 20 chars|0||0|||||1734454582187-9026385306105"));
+    @Test
+    @DisplayName("Process CDR in log when all is ok then verify and read the resulted file and the content")
+    void processCdrInLogWhenAllIsOkThenVerifyAndReadTheResultedFileAndTheContent() throws IOException {
+        when(jedisCluster.lpop(eq(SafeEncoder.encode("testList")), anyInt()))
+                .thenReturn(Collections.singletonList(objectMapper.writeValueAsBytes(ObjectsCreator.getDefaultCdr())))
+                .thenReturn(Collections.emptyList());
+        assertDoesNotThrow(() -> cdrSinkProcessor.processCdr());
+
+        File file = new File("./target/generated-sources/logs/cdr.log");
+        Awaitility.await()
+                .atMost(5, TimeUnit.SECONDS)
+                .untilAsserted(() -> assertTrue(file.exists()
+                        && FileUtils.readFileToString(file, "UTF-8").contains("200|8|55566768|730169999999212|55566768||22220|First 20 chars|0||0|||||1734454582187-9026385306105")));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,97 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MergingCdrBatchWriterTest {
+
+    @Test
+    @DisplayName("Merge when batches are sorted then return all the records sorted by record date")
+    void mergeWhenBatchesAreSortedThenReturnAllTheRecordsSorted() {
+        List<UtilsRecords.Cdr> merged = MergingCdrBatchWriter.merge(List.of(
+                cdrs("1", "4", "7"), cdrs(), cdrs("2", "5", "", "x"), cdrs("3", "6", "8", "9")));
+
+        assertEquals(List.of("1", "2", "3", "4", "5", "6", "7", "8", "9"), recordDates(merged).subList(0, 9));
+        assertEquals(11, merged.size());
+    }
+
+    @Test
+    @DisplayName("Write when every party writes then merge the round into one write")
+    void writeWhenEveryPartyWritesThenMergeTheRoundIntoOneWrite() {
+        List<List<String>> writes = new CopyOnWriteArrayList<>();
+        MergingCdrBatchWriter writer = new MergingCdrBatchWriter(records -> writes.add(recordDates(records)), 3, 5000);
+
+        List<CompletableFuture<Boolean>> results = List.of(
+                CompletableFuture.supplyAsync(() -> writer.write(cdrs("1", "4"))),
+                CompletableFuture.supplyAsync(() -> writer.write(cdrs("2", "5"))),
+                CompletableFuture.supplyAsync(() -> writer.write(cdrs("3", "6"))));
+
+        results.forEach(result -> assertTrue(result.orTimeout(2, TimeUnit.SECONDS).join()));
+        assertEquals(List.of(List.of("1", "2", "3", "4", "5", "6")), writes);
+    }
+
+    @Test
+    @DisplayName("Write when the window is over then write the batches of the round")
+    void writeWhenTheWindowIsOverThenWriteTheBatchesOfTheRound() {
+        List<List<String>> writes = new CopyOnWriteArrayList<>();
+        MergingCdrBatchWriter writer = new MergingCdrBatchWriter(records -> writes.add(recordDates(records)), 5, 50);
+
+        assertTrue(writer.write(cdrs("2", "1")));
+
+        assertEquals(List.of(List.of("2", "1")), writes);
+    }
+
+    @Test
+    @DisplayName("Write when the number of writers goes down then close the rounds without waiting for the window")
+    void writeWhenTheNumberOfWritersGoesDownThenCloseTheRoundsWithoutWaitingForTheWindow() {
+        List<List<String>> writes = new CopyOnWriteArrayList<>();
+        AtomicInteger parties = new AtomicInteger(3);
+        MergingCdrBatchWriter writer = new MergingCdrBatchWriter(records -> writes.add(recordDates(records)), parties::get, 5000);
+
+        parties.set(1);
+        long start = System.nanoTime();
+        assertTrue(writer.write(cdrs("1")));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(List.of(List.of("1")), writes);
+    }
+
+    @Test
+    @DisplayName("Write when the merged write fails then fail every batch of the round")
+    void writeWhenTheMergedWriteFailsThenFailEveryBatchOfTheRound() {
+        MergingCdrBatchWriter writer = new MergingCdrBatchWriter(records -> {
+            throw new IllegalStateException("Write failed");
+        }, 2, 5000);
+
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> writer.write(cdrs("1")));
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> writer.write(cdrs("2")));
+
+        assertFalse(first.orTimeout(2, TimeUnit.SECONDS).join());
+        assertFalse(second.orTimeout(2, TimeUnit.SECONDS).join());
+    }
+
+    private static List<UtilsRecords.Cdr> cdrs(String... recordDates) {
+        UtilsRecords.Cdr template = ObjectsCreator.getDefaultCdr();
+        List<UtilsRecords.Cdr> records = new ArrayList<>();
+        for (String recordDate : recordDates) {
+            records.add(ObjectsCreator.withRecordDate(template, recordDate));
+        }
+        return records;
+    }
+
+    private static List<String> recordDates(List<UtilsRecords.Cdr> records) {
+        return records.stream().map(UtilsRecords.Cdr::recordDate).toList();
+    }
+}
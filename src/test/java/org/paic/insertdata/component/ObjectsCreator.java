@@ -2,17 +2,28 @@ package org.paic.insertdata.component;
 
 import com.paicbd.smsc.dto.UtilsRecords;
 
+import java.lang.reflect.RecordComponent;
+import java.util.Arrays;
+
 public class ObjectsCreator {
     private ObjectsCreator() {
     }
 
     public static UtilsRecords.Cdr getDefaultCdr() {
+        return getDefaultCdr("1734454582187-9026385306105");
+    }
+
+    public static UtilsRecords.Cdr getDefaultCdr(String messageId) {
+        return getDefaultCdr(messageId, "");
+    }
+
+    public static UtilsRecords.Cdr getDefaultCdr(String messageId, String status) {
         return new UtilsRecords.Cdr(
                 "1734454595605",
                 "1734454593830",
                 "1734454595603",
                 "MESSAGE",
-                "1734454582187-9026385306105",
+                messageId,
                 "HTTP",
                 "3",
                 "SP",
@@ -20,7 +31,7 @@ public class ObjectsCreator {
                 "2",
                 "GW",
                 "1",
-                "",
+                status,
                 "SENT",
                 "",
                 "1773",
@@ -56,4 +67,40 @@ public class ObjectsCreator {
                 "1734454582187-9026385306105"
         );
     }
+
+    public static UtilsRecords.Cdr withRecordDate(UtilsRecords.Cdr cdr, String recordDate) {
+        return with(cdr, "recordDate", recordDate);
+    }
+
+    /**
+     * Returns a copy of the given cdr with the given fields replaced.
+     *
+     * @param cdr            the cdr to copy
+     * @param namesAndValues pairs of record component name and value, the value may be null
+     */
+    public static UtilsRecords.Cdr with(UtilsRecords.Cdr cdr, String... namesAndValues) {
+        RecordComponent[] components = UtilsRecords.Cdr.class.getRecordComponents();
+        Object[] values = new Object[components.length];
+        try {
+            for (int i = 0; i < components.length; i++) {
+                values[i] = components[i].getAccessor().invoke(cdr);
+            }
+            for (int i = 0; i < namesAndValues.length; i += 2) {
+                values[indexOf(components, namesAndValues[i])] = namesAndValues[i + 1];
+            }
+            Class<?>[] types = Arrays.stream(components).map(RecordComponent::getType).toArray(Class<?>[]::new);
+            return UtilsRecords.Cdr.class.getDeclaredConstructor(types).newInstance(values);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int indexOf(RecordComponent[] components, String name) {
+        for (int i = 0; i < components.length; i++) {
+            if (components[i].getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cdr field " + name);
+    }
 }
@@ -0,0 +1,301 @@
+package org.paic.insertdata.component;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.paic.insertdata.util.AppProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ParquetCdrSinkTest {
+    private static final ZoneId ZONE = ZoneId.of("UTC");
+    private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    AppProperties appProperties;
+
+    private final Clock clock = mock(Clock.class);
+
+    @BeforeEach
+    void setUp() {
+        when(appProperties.getParquetLocation()).thenReturn(directory.toString());
+        when(clock.getZone()).thenReturn(ZONE);
+        when(clock.millis()).thenReturn(1734454595605L);
+    }
+
+    @Test
+    @DisplayName("Write when records have different dates then write one file per date directory")
+    void writeWhenRecordsHaveDifferentDatesThenWriteOneFilePerDateDirectory() throws IOException {
+        ParquetCdrSink sink = new ParquetCdrSink(appProperties, clock);
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+
+        assertTrue(sink.write(List.of(
+                ObjectsCreator.withRecordDate(cdr, millis(2024, 12, 17, 10)),
+                ObjectsCreator.withRecordDate(cdr, millis(2024, 12, 18, 1)),
+                ObjectsCreator.withRecordDate(cdr, ""),
+                ObjectsCreator.withRecordDate(cdr, millis(2024, 12, 17, 23)))));
+
+        assertEquals(2, rowCount(singleFile("record_date=2024-12-17")));
+        assertEquals(1, rowCount(singleFile("record_date=2024-12-18")));
+        assertEquals(1, rowCount(singleFile("record_date=" + ParquetCdrSink.DEFAULT_PARTITION)));
+        try (Stream<Path> files = Files.walk(directory)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    @DisplayName("Write when the file of a date fails then keep none of the files of the batch")
+    void writeWhenTheFileOfADateFailsThenKeepNoneOfTheFilesOfTheBatch() throws IOException {
+        ParquetCdrSink sink = new ParquetCdrSink(appProperties, clock);
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        List<UtilsRecords.Cdr> batch = List.of(ObjectsCreator.withRecordDate(cdr, millis(2024, 12, 17, 10)), ObjectsCreator.withRecordDate(cdr, millis(2024, 12, 18, 1)));
+        // the directory of the second date cannot be created
+        Path blocked = Files.createFile(directory.resolve("record_date=2024-12-18"));
+
+        assertFalse(sink.write(batch));
+        try (Stream<Path> files = Files.list(directory.resolve("record_date=2024-12-17"))) {
+            assertEquals(0, files.count());
+        }
+
+        Files.delete(blocked);
+        assertTrue(sink.write(batch));
+        assertEquals(1, rowCount(singleFile("record_date=2024-12-17")));
+        assertEquals(1, rowCount(singleFile("record_date=2024-12-18")));
+    }
+
+    @Test
+    @DisplayName("Write when compression is gzip then write the cdr table schema and values")
+    void writeWhenCompressionIsGzipThenWriteTheCdrTableSchemaAndValues() throws IOException {
+        when(appProperties.getParquetCompression()).thenReturn("gzip");
+        ParquetCdrSink sink = new ParquetCdrSink(appProperties, clock);
+        CdrColumnBinder binder = CdrColumnBinder.forCdr();
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        List<UtilsRecords.Cdr> records = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String recordDate = String.valueOf(Long.parseLong(millis(2024, 12, 17, 10)) + i);
+            // some null submit dates, so the definition levels are bit-packed
+            records.add(ObjectsCreator.with(cdr, "recordDate", recordDate, "submitDate", i % 3 == 0 ? "" : recordDate));
+        }
+
+        assertTrue(sink.write(records));
+
+        byte[] file = Files.readAllBytes(singleFile("record_date=2024-12-17"));
+        Map<Integer, Object> metadata = footer(file);
+        List<?> schema = (List<?>) metadata.get(2);
+        List<String> names = schema.stream().skip(1).map(element -> string(((Map<?, ?>) element).get(4))).toList();
+        assertEquals(binder.columnNames(), names);
+        assertEquals(20L, metadata.get(3));
+
+        List<?> chunks = (List<?>) ((Map<?, ?>) ((List<?>) metadata.get(4)).getFirst()).get(1);
+        for (int column = 0; column < binder.size(); column++) {
+            Map<?, ?> chunkMetadata = (Map<?, ?>) ((Map<?, ?>) chunks.get(column)).get(3);
+            assertEquals(2L, chunkMetadata.get(4));
+            List<Object> values = readValues(file, chunkMetadata, binder.type(column));
+            for (int row = 0; row < records.size(); row++) {
+                assertEquals(expected(binder, column, records.get(row)), values.get(row), binder.columnNames().get(column));
+            }
+        }
+    }
+
+    private static Object expected(CdrColumnBinder binder, int column, UtilsRecords.Cdr cdr) {
+        String value = binder.value(column, cdr);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return switch (binder.type(column)) {
+            case TIMESTAMP, BIGINT -> Long.parseLong(value);
+            case INTEGER -> (long) Integer.parseInt(value);
+            case VARCHAR -> value;
+        };
+    }
+
+    /**
+     * Decodes the single data page of a column chunk, null for the undefined values.
+     */
+    private static List<Object> readValues(byte[] file, Map<?, ?> chunkMetadata, CdrColumnBinder.ColumnType type) throws IOException {
+        CompactReader reader = new CompactReader(file, Math.toIntExact((Long) chunkMetadata.get(9)));
+        Map<Integer, Object> header = reader.readStruct();
+        int compressedSize = Math.toIntExact((Long) header.get(3));
+        int numValues = Math.toIntExact((Long) ((Map<?, ?>) header.get(5)).get(1));
+        byte[] compressed = Arrays.copyOfRange(file, reader.position, reader.position + compressedSize);
+        byte[] page;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            page = in.readAllBytes();
+        }
+        assertEquals(Math.toIntExact((Long) header.get(2)), page.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(page).order(ByteOrder.LITTLE_ENDIAN);
+        int levelsEnd = buffer.getInt() + buffer.position();
+        boolean[] defined = new boolean[numValues];
+        CompactReader levels = new CompactReader(page, buffer.position());
+        for (int row = 0; row < numValues; ) {
+            long runHeader = levels.readVarint();
+            if ((runHeader & 1) == 0) {
+                boolean value = page[levels.position++] == 1;
+                for (long i = 0; i < runHeader >>> 1; i++) {
+                    defined[row++] = value;
+                }
+            } else {
+                for (long group = 0; group < runHeader >>> 1; group++) {
+                    int bits = page[levels.position++];
+                    for (int i = 0; i < 8 && row < numValues; i++) {
+                        defined[row++] = (bits >> i & 1) == 1;
+                    }
+                }
+            }
+        }
+
+        buffer.position(levelsEnd);
+        List<Object> values = new ArrayList<>();
+        for (boolean isDefined : defined) {
+            if (!isDefined) {
+                values.add(null);
+                continue;
+            }
+            values.add(switch (type) {
+                case TIMESTAMP, BIGINT -> buffer.getLong();
+                case INTEGER -> (long) buffer.getInt();
+                case VARCHAR -> {
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    yield new String(bytes, StandardCharsets.UTF_8);
+                }
+            });
+        }
+        assertEquals(page.length, buffer.position());
+        return values;
+    }
+
+    private static long rowCount(Path file) throws IOException {
+        return (Long) footer(Files.readAllBytes(file)).get(3);
+    }
+
+    private static Map<Integer, Object> footer(byte[] file) {
+        assertArrayEquals(MAGIC, Arrays.copyOfRange(file, 0, 4));
+        assertArrayEquals(MAGIC, Arrays.copyOfRange(file, file.length - 4, file.length));
+        int footerLength = ByteBuffer.wrap(file, file.length - 8, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        CompactReader reader = new CompactReader(file, file.length - 8 - footerLength);
+        Map<Integer, Object> metadata = reader.readStruct();
+        assertEquals(file.length - 8, reader.position);
+        return metadata;
+    }
+
+    private Path singleFile(String partition) throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve(partition))) {
+            List<Path> list = files.toList();
+            assertEquals(1, list.size());
+            assertTrue(list.getFirst().getFileName().toString().matches("cdr-1734454595605-[0-9a-f-]{36}\\.parquet"));
+            return list.getFirst();
+        }
+    }
+
+    private static String string(Object value) {
+        return new String((byte[]) value, StandardCharsets.UTF_8);
+    }
+
+    private static String millis(int year, int month, int day, int hour) {
+        return String.valueOf(LocalDateTime.of(year, month, day, hour, 0).atZone(ZONE).toInstant().toEpochMilli());
+    }
+
+    /**
+     * Reads Thrift compact protocol structs into maps by field id, independently of the writer.
+     */
+    private static final class CompactReader {
+        private final byte[] data;
+        private int position;
+
+        private CompactReader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        private Map<Integer, Object> readStruct() {
+            Map<Integer, Object> fields = new HashMap<>();
+            int lastFieldId = 0;
+            while (true) {
+                int header = data[position++] & 0xFF;
+                if (header == 0) {
+                    return fields;
+                }
+                int delta = header >>> 4;
+                int fieldId = delta == 0 ? (int) zigzag(this.readVarint()) : lastFieldId + delta;
+                fields.put(fieldId, this.readValue(header & 0x0F));
+                lastFieldId = fieldId;
+            }
+        }
+
+        private Object readValue(int type) {
+            return switch (type) {
+                case 1 -> true;
+                case 2 -> false;
+                case 5, 6 -> zigzag(this.readVarint());
+                case 8 -> {
+                    int length = (int) this.readVarint();
+                    position += length;
+                    yield Arrays.copyOfRange(data, position - length, position);
+                }
+                case 9 -> {
+                    int header = data[position++] & 0xFF;
+                    int size = header >>> 4 == 15 ? (int) this.readVarint() : header >>> 4;
+                    List<Object> elements = new ArrayList<>();
+                    for (int i = 0; i < size; i++) {
+                        elements.add(this.readValue(header & 0x0F));
+                    }
+                    yield elements;
+                }
+                case 12 -> this.readStruct();
+                default -> throw new IllegalStateException("Unexpected compact type " + type);
+            };
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private static long zigzag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
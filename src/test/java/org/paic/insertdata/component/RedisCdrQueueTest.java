@@ -0,0 +1,240 @@
+package org.paic.insertdata.component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.paic.insertdata.util.AppProperties;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RedisCdrQueueTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String PROCESSING_LIST = "{cdr}:processing:insert-data-1:0";
+
+    @Mock
+    private JedisCluster jedisCluster;
+
+    @Mock
+    private AppProperties appProperties;
+
+    private byte[] cdrBytes;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cdrBytes = objectMapper.writeValueAsBytes(ObjectsCreator.getDefaultCdr());
+    }
+
+    @Test
+    @DisplayName("Fetch when mode is pop then pop the records and return batches without processing list")
+    void fetchWhenModeIsPopThenPopTheRecords() {
+        when(appProperties.getCdrConsumptionMode()).thenReturn("pop");
+        when(jedisCluster.lpop(SafeEncoder.encode("cdr"), 2)).thenReturn(List.of(cdrBytes, cdrBytes));
+        RedisCdrQueue queue = new RedisCdrQueue(jedisCluster, appProperties);
+
+        CdrBatch batch = queue.fetch("cdr", 0, 2).block();
+
+        assertNotNull(batch);
+        assertEquals(2, batch.records().size());
+        assertTrue(batch.processingLists().isEmpty());
+        assertFalse(batch.isReliable());
+        verify(jedisCluster, never()).eval(any(byte[].class), anyList(), anyList());
+    }
+
+    @Test
+    @DisplayName("Create queue when consumption mode or source is unknown then fail")
+    void createQueueWhenConsumptionModeOrSourceIsUnknownThenFail() {
+        when(appProperties.getCdrConsumptionMode()).thenReturn("relaible");
+        IllegalArgumentException mode = assertThrows(IllegalArgumentException.class,
+                () -> new RedisCdrQueue(jedisCluster, appProperties));
+        assertTrue(mode.getMessage().contains("'relaible'"));
+
+        when(appProperties.getCdrSource()).thenReturn("lsit");
+        IllegalArgumentException source = assertThrows(IllegalArgumentException.class,
+                () -> new RedisCdrQueue(jedisCluster, appProperties));
+        assertTrue(source.getMessage().contains("'lsit'"));
+
+        assertFalse(RedisCdrQueue.isReliable(null));
+        assertFalse(RedisCdrQueue.isReliable(" POP "));
+        assertTrue(RedisCdrQueue.isReliable("Reliable"));
+        RedisCdrQueue.checkSource("");
+        RedisCdrQueue.checkSource("List");
+    }
+
+    @Test
+    @DisplayName("Fetch when mode is reliable then move the records to the worker processing list")
+    @SuppressWarnings("unchecked")
+    void fetchWhenModeIsReliableThenMoveTheRecordsToTheWorkerProcessingList() {
+        when(appProperties.getCdrConsumptionMode()).thenReturn(RedisCdrQueue.RELIABLE_MODE);
+        when(appProperties.getConsumerName()).thenReturn("insert-data-1");
+        when(jedisCluster.eval(any(byte[].class), argThat(encodes("cdr", PROCESSING_LIST)), argThat(encodes("10"))))
+                .thenReturn(List.of(cdrBytes));
+        RedisCdrQueue queue = new RedisCdrQueue(jedisCluster, appProperties);
+
+        CdrBatch batch = queue.fetch("cdr", 0, 10).block();
+
+        assertNotNull(batch);
+        assertTrue(batch.isReliable());
+        assertEquals(List.of(PROCESSING_LIST), batch.processingLists());
+        assertEquals(1, batch.records().size());
+        verify(jedisCluster, never()).lpop(any(byte[].class), anyInt());
+
+        ArgumentCaptor<List<byte[]>> keysCaptor = ArgumentCaptor.forClass(List.class);
+        verify(jedisCluster).eval(any(byte[].class), keysCaptor.capture(), anyList());
+        assertEquals(List.of("cdr", PROCESSING_LIST), keysCaptor.getValue().stream().map(SafeEncoder::encode).toList());
+    }
+
+    @Test
+    @DisplayName("Fetch when worker batch is not acknowledged then skip the worker until it is released")
+    void fetchWhenWorkerBatchIsNotAcknowledgedThenSkipTheWorker() {
+        when(appProperties.getCdrConsumptionMode()).thenReturn(RedisCdrQueue.RELIABLE_MODE);
+        when(appProperties.getConsumerName()).thenReturn("insert-data-1");
+        when(jedisCluster.eval(any(byte[].class), anyList(), anyList())).thenReturn(List.of(cdrBytes));
+        RedisCdrQueue queue = new RedisCdrQueue(jedisCluster, appProperties);
+
+        CdrBatch batch = queue.fetch("cdr", 0, 10).block();
+        assertNotNull(batch);
+        assertNull(queue.fetch("cdr", 0, 10).block());
+
+        queue.release(batch);
+        assertNotNull(queue.fetch("cdr", 0, 10).block());
+        verify(jedisCluster, times(2)).eval(any(byte[].class), anyList(), anyList());
+        verify(jedisCluster, never()).del(PROCESSING_LIST);
+    }
+
+    @Test
+    @DisplayName("Release when the batch reached the maximum delivery attempts then move it to the dead-letter list")
+    void releaseWhenTheBatchReachedTheMaximumDeliveryAttemptsThenMoveItToTheDeadLetterList() {
+        when(appProperties.getCdrConsumptionMode()).thenReturn(RedisCdrQueue.RELIABLE_MODE);
+        when(appProperties.getConsumerName()).thenReturn("insert-data-1");
+        when(appProperties.getMaxDeliveryAttempts()).thenReturn(2);
+        when(appProperties.getSinks()).thenReturn(List.of("database"));
+        when(jedisCluster.eval(any(byte[].class), anyList(), anyList())).thenReturn(List.of(cdrBytes));
+        CdrDeadLetterQueue deadLetterQueue = mock(CdrDeadLetterQueue.class);
+        when(deadLetterQueue.sendAll(eq("database"), anyList(), eq("Not written after 2 delivery attempts"))).thenReturn(true);
+        RedisCdrQueue queue = new RedisCdrQueue(jedisCluster, appProperties, new CdrMetrics(), deadLetterQueue);
+
+        CdrBatch batch = queue.fetch("cdr", 0, 10).block();
+        assertNotNull(batch);
+        queue.release(batch);
+        verify(deadLetterQueue, never()).sendAll(anyString(), anyList(), anyString());
+        verify(jedisCluster, never()).del(PROCESSING_LIST);
+
+        CdrBatch retried = queue.fetch("cdr", 0, 10).block();
+        assertNotNull(retried);
+        queue.release(retried);
+
+        verify(deadLetterQueue).sendAll("database", retried.records(), "Not written after 2 delivery attempts");
+        verify(jedisCluster).del(PROCESSING_LIST);
+        assertNotNull(queue.fetch("cdr", 0, 10).block());
+    }
+
+    @Test
+    @DisplayName("Acknowledge when batch is reliable then delete the processing list")
+    void acknowledgeWhenBatchIsReliableThenDeleteTheProcessingList() {
+        RedisCdrQueue queue = new RedisCdrQueue(jedisCluster, appProperties);
+
+        queue.acknowledge(new CdrBatch("cdr", List.of(PROCESSING_LIST), List.of(ObjectsCreator.getDefaultCdr())));
+        queue.acknowledge(new CdrBatch("cdr", List.of(), List.of(ObjectsCreator.getDefaultCdr())));
+
+        verify(jedisCluster, times(1)).del(anyString());
+        verify(jedisCluster).del(PROCESSING_LIST);
+    }
+
+    @Test
+    @DisplayName("Reclaim processing lists when lists are left by a previous run then move them back to the list")
+    void reclaimProcessingListsWhenListsAreLeftThenMoveThemBackToTheList() {
+        when(appProperties.getCdrListName()).thenReturn("cdr");
+        when(appProperties.getConsumerName()).thenReturn("insert-data-1");
+        ArgumentCaptor<ScanParams> paramsCaptor = ArgumentCaptor.forClass(ScanParams.class);
+        when(jedisCluster.scan(eq(ScanParams.SCAN_POINTER_START), paramsCaptor.capture()))
+                .thenReturn(new ScanResult<>("7", List.of(PROCESSING_LIST)));
+        when(jedisCluster.scan(eq("7"), paramsCaptor.capture()))
+                .thenReturn(new ScanResult<>(ScanParams.SCAN_POINTER_START, List.of("{cdr}:processing:insert-data-1:1")));
+        RedisCdrQueue queue = new RedisCdrQueue(jedisCluster, appProperties);
+
+        queue.reclaimProcessingLists();
+
+        assertEquals("{cdr}:processing:insert-data-1:*", paramsCaptor.getValue().match());
+        verify(jedisCluster).eval(anyString(), eq(List.of("cdr", PROCESSING_LIST)), eq(List.of()));
+        verify(jedisCluster).eval(anyString(), eq(List.of("cdr", "{cdr}:processing:insert-data-1:1")), eq(List.of()));
+    }
+
+    @Test
+    @DisplayName("Processing list prefix when list has hash tag then keep it")
+    void processingListPrefixWhenListHasHashTagThenKeepIt() {
+        when(appProperties.getConsumerName()).thenReturn("insert-data-1");
+        RedisCdrQueue queue = new RedisCdrQueue(jedisCluster, appProperties);
+
+        assertEquals("{cdr}:processing:insert-data-1:", queue.processingListPrefix("cdr"));
+        assertEquals("cdr:{3}:processing:insert-data-1:", queue.processingListPrefix("cdr:{3}"));
+    }
+
+    @Test
+    @DisplayName("Fetch when list is sharded then pop the shards of one node with a single pipeline")
+    void fetchWhenListIsShardedThenPopTheShardsOfOneNodeWithOnePipeline() {
+        when(appProperties.getCdrConsumptionMode()).thenReturn("pop");
+        when(appProperties.getCdrShards()).thenReturn(2);
+        when(appProperties.getCdrWorkers()).thenReturn(1);
+        when(jedisCluster.sendCommand("cdr:{0}", Protocol.Command.CLUSTER, "SLOTS"))
+                .thenReturn(List.of(List.of(0L, 16383L, List.of("10.0.0.1".getBytes(), 7000L))));
+        ClusterPipeline pipeline = mock(ClusterPipeline.class);
+        when(jedisCluster.pipelined()).thenReturn(pipeline);
+        Response<List<byte[]>> firstShard = response(List.of(cdrBytes, cdrBytes));
+        Response<List<byte[]>> secondShard = response(null);
+        when(pipeline.lpop(SafeEncoder.encode("cdr:{0}"), 5)).thenReturn(firstShard);
+        when(pipeline.lpop(SafeEncoder.encode("cdr:{1}"), 5)).thenReturn(secondShard);
+        RedisCdrQueue queue = new RedisCdrQueue(jedisCluster, appProperties);
+
+        CdrBatch batch = queue.fetch("cdr", 0, 10).block();
+
+        assertNotNull(batch);
+        assertEquals(2, batch.records().size());
+        verify(pipeline).sync();
+        verify(pipeline).close();
+        verify(jedisCluster, never()).lpop(any(byte[].class), anyInt());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Response<T> response(T value) {
+        Response<T> response = mock(Response.class);
+        when(response.get()).thenReturn(value);
+        return response;
+    }
+
+    private static ArgumentMatcher<List<byte[]>> encodes(String... values) {
+        return raw -> raw != null && raw.stream().map(SafeEncoder::encode).toList().equals(List.of(values));
+    }
+}
@@ -0,0 +1,168 @@
+package org.paic.insertdata.component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.paic.insertdata.util.AppProperties;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class RedisStreamCdrQueueTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Map<String, StreamEntryID> PENDING = Map.of("cdr", new StreamEntryID());
+    private static final Map<String, StreamEntryID> NEW = Map.of("cdr", StreamEntryID.UNRECEIVED_ENTRY);
+
+    @Mock
+    private JedisCluster jedisCluster;
+
+    @Mock
+    private AppProperties appProperties;
+
+    private StreamEntry entry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        entry = new StreamEntry(new StreamEntryID(1, 0),
+                Map.of(RedisStreamCdrQueue.CDR_FIELD, objectMapper.writeValueAsString(ObjectsCreator.getDefaultCdr())));
+        when(appProperties.getCdrListName()).thenReturn("cdr");
+        when(appProperties.getCdrConsumerGroup()).thenReturn("insert-data");
+        when(appProperties.getConsumerName()).thenReturn("insert-data-1");
+        when(appProperties.isStreamDeleteAcknowledged()).thenReturn(true);
+    }
+
+    @Test
+    @DisplayName("Fetch when consumer has no pending entries then read new entries of the group")
+    void fetchWhenConsumerHasNoPendingEntriesThenReadNewEntries() {
+        when(jedisCluster.xreadGroup(eq("insert-data"), eq("insert-data-1-0"), any(XReadGroupParams.class), eq(PENDING)))
+                .thenReturn(List.of());
+        when(jedisCluster.xreadGroup(eq("insert-data"), eq("insert-data-1-0"), any(XReadGroupParams.class), eq(NEW)))
+                .thenReturn(List.of(Map.entry("cdr", List.of(entry))));
+        RedisStreamCdrQueue queue = new RedisStreamCdrQueue(jedisCluster, appProperties);
+
+        CdrBatch batch = queue.fetch("cdr", 0, 10).block();
+
+        assertNotNull(batch);
+        assertTrue(batch.isReliable());
+        assertEquals(1, batch.records().size());
+        assertEquals(List.of("1-0"), batch.entryIds());
+        assertEquals(List.of("insert-data-1-0"), batch.processingLists());
+        verify(jedisCluster, never()).xautoclaim(anyString(), anyString(), anyString(), anyLong(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Acknowledge when batch is committed then ack and delete its entries")
+    void acknowledgeWhenBatchIsCommittedThenAckAndDeleteItsEntries() {
+        RedisStreamCdrQueue queue = new RedisStreamCdrQueue(jedisCluster, appProperties);
+
+        queue.acknowledge(new CdrBatch("cdr", List.of("insert-data-1-0"), List.of("1-0"), List.of()));
+
+        verify(jedisCluster).xack("cdr", "insert-data", new StreamEntryID(1, 0));
+        verify(jedisCluster).xdel("cdr", new StreamEntryID(1, 0));
+    }
+
+    @Test
+    @DisplayName("Fetch when batch was released then read the pending entries of the consumer again")
+    void fetchWhenBatchWasReleasedThenReadThePendingEntriesAgain() {
+        when(jedisCluster.xreadGroup(eq("insert-data"), eq("insert-data-1-0"), any(XReadGroupParams.class), eq(PENDING)))
+                .thenReturn(List.of())
+                .thenReturn(List.of(Map.entry("cdr", List.of(entry))));
+        when(jedisCluster.xreadGroup(eq("insert-data"), eq("insert-data-1-0"), any(XReadGroupParams.class), eq(NEW)))
+                .thenReturn(List.of(Map.entry("cdr", List.of(entry))));
+        RedisStreamCdrQueue queue = new RedisStreamCdrQueue(jedisCluster, appProperties);
+
+        CdrBatch batch = queue.fetch("cdr", 0, 10).block();
+        assertNotNull(batch);
+        assertNull(queue.fetch("cdr", 0, 10).block());
+
+        queue.release(batch);
+        CdrBatch retried = queue.fetch("cdr", 0, 10).block();
+
+        assertNotNull(retried);
+        assertEquals(batch.entryIds(), retried.entryIds());
+        verify(jedisCluster, times(2)).xreadGroup(eq("insert-data"), eq("insert-data-1-0"), any(XReadGroupParams.class), eq(PENDING));
+        verify(jedisCluster, times(1)).xreadGroup(eq("insert-data"), eq("insert-data-1-0"), any(XReadGroupParams.class), eq(NEW));
+        verify(jedisCluster, never()).xack(anyString(), anyString(), any(StreamEntryID[].class));
+    }
+
+    @Test
+    @DisplayName("Fetch when claim is due then claim the idle entries of other consumers")
+    void fetchWhenClaimIsDueThenClaimTheIdleEntries() {
+        when(appProperties.getStreamClaimIdleMillis()).thenReturn(60000L);
+        when(jedisCluster.xautoclaim(eq("cdr"), eq("insert-data"), eq("insert-data-1-0"), eq(60000L),
+                eq(new StreamEntryID()), any(XAutoClaimParams.class)))
+                .thenReturn(Map.entry(new StreamEntryID(), List.of(entry)));
+        RedisStreamCdrQueue queue = new RedisStreamCdrQueue(jedisCluster, appProperties);
+
+        CdrBatch batch = queue.fetch("cdr", 0, 10).block();
+
+        assertNotNull(batch);
+        assertEquals(List.of("1-0"), batch.entryIds());
+        verify(jedisCluster, never()).xreadGroup(anyString(), anyString(), any(XReadGroupParams.class), anyMap());
+    }
+
+    @Test
+    @DisplayName("Fetch when a claim does not finish the scan then go on from its cursor until Redis returns 0-0")
+    void fetchWhenAClaimDoesNotFinishTheScanThenGoOnFromItsCursorUntilRedisReturnsZero() {
+        when(appProperties.getStreamClaimIdleMillis()).thenReturn(60000L);
+        StreamEntry next = new StreamEntry(new StreamEntryID(6, 0), entry.getFields());
+        when(jedisCluster.xautoclaim(eq("cdr"), eq("insert-data"), anyString(), eq(60000L),
+                eq(new StreamEntryID()), any(XAutoClaimParams.class)))
+                .thenReturn(Map.entry(new StreamEntryID(5, 0), List.of(entry)));
+        when(jedisCluster.xautoclaim(eq("cdr"), eq("insert-data"), anyString(), eq(60000L),
+                eq(new StreamEntryID(5, 0)), any(XAutoClaimParams.class)))
+                .thenReturn(Map.entry(new StreamEntryID(), List.of(next)));
+        RedisStreamCdrQueue queue = new RedisStreamCdrQueue(jedisCluster, appProperties);
+
+        CdrBatch first = queue.fetch("cdr", 0, 10).block();
+        CdrBatch second = queue.fetch("cdr", 1, 10).block();
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(List.of("1-0"), first.entryIds());
+        assertEquals(List.of("6-0"), second.entryIds());
+        assertNull(queue.fetch("cdr", 2, 10).block());
+        verify(jedisCluster, times(2)).xautoclaim(anyString(), anyString(), anyString(), anyLong(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Create consumer group when group exists then ignore the error")
+    void createConsumerGroupWhenGroupExistsThenIgnoreTheError() {
+        when(jedisCluster.xgroupCreate("cdr", "insert-data", new StreamEntryID(), true))
+                .thenThrow(new JedisDataException("BUSYGROUP Consumer Group name already exists"));
+        RedisStreamCdrQueue queue = new RedisStreamCdrQueue(jedisCluster, appProperties);
+
+        assertDoesNotThrow(queue::createConsumerGroup);
+        verify(jedisCluster).xgroupCreate("cdr", "insert-data", new StreamEntryID(), true);
+    }
+}
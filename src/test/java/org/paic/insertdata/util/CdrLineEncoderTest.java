@@ -0,0 +1,76 @@
+package org.paic.insertdata.util;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.paic.insertdata.component.ObjectsCreator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CdrLineEncoderTest {
+
+    @Test
+    @DisplayName("Encode when values are unusual then write the same bytes as create string cdr")
+    void encodeWhenValuesAreUnusualThenWriteTheSameBytesAsCreateStringCdr() {
+        CdrLineEncoder encoder = new CdrLineEncoder("|");
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        List<UtilsRecords.Cdr> records = List.of(
+                cdr,
+                withValues(cdr, "", null, "abc", "ñandú €", "emoji 😀", "lone \uD800 surrogate", null),
+                withValues(cdr, "-1", "+1734454595605", "9223372036854775807", null, "", "x", "y"),
+                withValues(cdr, "99999999999999999999", "-62135596800001", "253402300800000", "a", "b", "c", "d"));
+
+        for (UtilsRecords.Cdr record : records) {
+            assertArrayEquals(CommonUtils.createStringCdr(record, "|").getBytes(StandardCharsets.UTF_8), encode(encoder, record));
+        }
+        assertArrayEquals(CommonUtils.createStringCdr(cdr, "§§").getBytes(StandardCharsets.UTF_8),
+                encode(new CdrLineEncoder("§§"), cdr));
+    }
+
+    @Test
+    @DisplayName("Encode when zone has transitions then format the dates as the date time formatter")
+    void encodeWhenZoneHasTransitionsThenFormatTheDatesAsTheDateTimeFormatter() {
+        ZoneId zone = ZoneId.of("America/Santiago");
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(zone);
+        CdrLineEncoder encoder = new CdrLineEncoder("|", zone);
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            // from 1900 to 2100, with some values around the transitions of the zone
+            long millis = i % 2 == 0
+                    ? random.nextLong(-2208988800000L, 4102444800000L)
+                    : 1712458800000L + random.nextLong(-7200000L, 7200000L);
+            UtilsRecords.Cdr record = withValues(cdr, String.valueOf(millis), "", null, "a", "b", "c", "d");
+            String line = new String(encode(encoder, record), StandardCharsets.UTF_8);
+
+            assertEquals(formatter.format(Instant.ofEpochMilli(millis)), line.substring(0, line.indexOf('|')));
+        }
+    }
+
+    private static byte[] encode(CdrLineEncoder encoder, UtilsRecords.Cdr cdr) {
+        int maxLength = encoder.maxLength(cdr);
+        ByteBuffer buffer = ByteBuffer.allocate(maxLength);
+        encoder.encode(cdr, buffer);
+        assertTrue(buffer.position() <= maxLength);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static UtilsRecords.Cdr withValues(UtilsRecords.Cdr cdr, String recordDate, String submitDate,
+                                               String deliveryDate, String messageType, String comment,
+                                               String imsi, String parentId) {
+        return ObjectsCreator.with(cdr, "recordDate", recordDate, "submitDate", submitDate, "deliveryDate", deliveryDate,
+                "messageType", messageType, "comment", comment, "imsi", imsi, "parentId", parentId);
+    }
+}
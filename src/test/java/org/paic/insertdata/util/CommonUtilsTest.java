@@ -9,23 +9,14 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
-import org.paic.insertdata.component.DatabaseModeProcessor;
-import org.paic.insertdata.component.LogsModeProcessor;
 import org.paic.insertdata.component.ObjectsCreator;
-import reactor.core.publisher.Flux;
-import redis.clients.jedis.JedisCluster;
 
 import java.util.List;
 import java.util.Objects;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.ArgumentMatchers.anyInt;
-import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 @MockitoSettings(strictness = Strictness.LENIENT)
@@ -40,68 +31,60 @@ class CommonUtilsTest {
     }
 
     @Test
-    @DisplayName("Process cdr when receive logs mode then execute correctly")
-    void processCdrWhenReceiveDatabaseModeMethodThenExecuteCorrectly() {
-        AppProperties appProperties = mock(AppProperties.class);
-        JedisCluster jedisCluster = mock(JedisCluster.class);
-        DatabaseModeProcessor databaseModeProcessor = mock(DatabaseModeProcessor.class);
-
-        when(appProperties.getCdrListName()).thenReturn("cdrListName");
-        when(appProperties.getCdrWorkers()).thenReturn(1);
-        when(appProperties.getCdrBatchSize()).thenReturn(1);
-        when(appProperties.getIntervalMillis()).thenReturn(1000L);
-        when(jedisCluster.llen("cdrListName")).thenReturn(1L);
-
-        CommonUtils.processCdr("Database", appProperties, jedisCluster, databaseModeProcessor::insertIntoDatabase);
-        verify(databaseModeProcessor).insertIntoDatabase("cdrListName", 1, 1);
-    }
-
-    @Test
-    @DisplayName("Process cdr when receive logs mode but workers is invalid then not execute the method")
-    void processCdrWhenWorkersIsInvalidNumberThenNotExecuteTheMethod() {
-        AppProperties appProperties = mock(AppProperties.class);
-        JedisCluster jedisCluster = mock(JedisCluster.class);
-        LogsModeProcessor logsModeProcessor = mock(LogsModeProcessor.class);
+    @DisplayName("Decode raw cdr batch when a record has an unknown property then discard it")
+    void decodeRawCdrBatchWhenARecordHasAnUnknownPropertyThenDiscardIt() throws JsonProcessingException {
+        String json = new ObjectMapper().writeValueAsString(ObjectsCreator.getDefaultCdr());
+        byte[] unknown = json.replaceFirst("\\{", "{\"unknown\":\"1\",").getBytes();
 
-        when(appProperties.getCdrWorkers()).thenReturn(0);
+        List<UtilsRecords.Cdr> records = CommonUtils.decodeRawCdrBatch(List.of(unknown, json.getBytes())).block();
 
-        CommonUtils.processCdr("Logs", appProperties, jedisCluster, logsModeProcessor::writeToLogFiles);
-        verify(logsModeProcessor, never()).writeToLogFiles(anyString(), anyInt(), anyInt());
+        assertNotNull(records);
+        assertEquals(1, records.size());
     }
 
     @Test
-    @DisplayName("Process cdr when data is not found in redis then not execute")
-    void processCdrWhenDataIsNotFoundInRedisThenNotExecute() {
-        AppProperties appProperties = mock(AppProperties.class);
-        JedisCluster jedisCluster = mock(JedisCluster.class);
-        LogsModeProcessor logsModeProcessor = mock(LogsModeProcessor.class);
-
-        when(appProperties.getCdrWorkers()).thenReturn(1);
-        when(appProperties.getCdrBatchSize()).thenReturn(1);
-        when(appProperties.getIntervalMillis()).thenReturn(1000L);
-        when(jedisCluster.llen("cdrListName")).thenReturn(0L);
-
-        CommonUtils.processCdr("Logs", appProperties, jedisCluster, logsModeProcessor::writeToLogFiles);
-        verify(logsModeProcessor, never()).writeToLogFiles(anyString(), anyInt(), anyInt());
+    @DisplayName("Decode cdr batch when batch has invalid records then discard them")
+    void decodeCdrBatchWhenBatchHasInvalidRecordsThenDiscardThem() throws JsonProcessingException {
+        String cdrString = new ObjectMapper().writeValueAsString(ObjectsCreator.getDefaultCdr());
+
+        assertEquals(1, Objects.requireNonNull(CommonUtils.decodeCdrBatch(List.of(cdrString, "{invalid")).block()).size());
+        assertTrue(Objects.requireNonNull(CommonUtils.decodeCdrBatch(null).block()).isEmpty());
     }
 
     @Test
-    @DisplayName("Get cdr batches when data is found in redis then execute successfully and return the correct flux")
-    void getCdrBatchesWhenGetDataCorrectlyFromRedisThenExecuteSuccessfully() throws JsonProcessingException {
+    @DisplayName("Decode raw cdr batch when records are unordered then return them sorted by record date")
+    void decodeRawCdrBatchWhenRecordsAreUnorderedThenReturnThemSortedByRecordDate() throws JsonProcessingException {
         ObjectMapper objectMapper = new ObjectMapper();
-        JedisCluster jedisCluster = mock(JedisCluster.class);
-        String cdrString = objectMapper.writeValueAsString(ObjectsCreator.getDefaultCdr());
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        String json = objectMapper.writeValueAsString(cdr);
+        byte[] later = json.replace(cdr.recordDate(), "1734454599999").getBytes();
+        byte[] earlier = objectMapper.writeValueAsBytes(cdr);
 
-        when(jedisCluster.lpop("cdrListName", 1)).thenReturn(List.of(cdrString));
-        when(jedisCluster.lpop("cdrListName", 2)).thenReturn(List.of(cdrString, cdrString));
-        when(jedisCluster.lpop("cdrListName", 3)).thenReturn(List.of(cdrString, cdrString, cdrString));
+        List<UtilsRecords.Cdr> records = CommonUtils.decodeRawCdrBatch(List.of(later, "{invalid".getBytes(), earlier)).block();
 
-        Flux<List<UtilsRecords.Cdr>> result1 = CommonUtils.getCdrBatches(jedisCluster, "cdrListName", 1, 1);
-        Flux<List<UtilsRecords.Cdr>> result2 = CommonUtils.getCdrBatches(jedisCluster, "cdrListName", 2, 1);
-        Flux<List<UtilsRecords.Cdr>> result3 = CommonUtils.getCdrBatches(jedisCluster, "cdrListName", 3, 1);
+        assertNotNull(records);
+        assertEquals(2, records.size());
+        assertEquals(cdr, records.getFirst());
+        assertEquals("1734454599999", records.getLast().recordDate());
+        assertTrue(Objects.requireNonNull(CommonUtils.decodeRawCdrBatch(null).block()).isEmpty());
+    }
 
-        assertEquals(1, Objects.requireNonNull(result1.blockFirst()).size());
-        assertEquals(2, Objects.requireNonNull(result2.blockFirst()).size());
-        assertEquals(3, Objects.requireNonNull(result3.blockFirst()).size());
+    @Test
+    @DisplayName("Decode raw cdr batch when ordering is set then sort by numeric record date or keep the order")
+    void decodeRawCdrBatchWhenOrderingIsSetThenSortByNumericRecordDateOrKeepTheOrder() throws JsonProcessingException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        UtilsRecords.Cdr cdr = ObjectsCreator.getDefaultCdr();
+        String json = objectMapper.writeValueAsString(cdr);
+        // "1000" sorts before "900" as a String, but after it as a timestamp
+        List<byte[]> batch = List.of(json.replace(cdr.recordDate(), "1000").getBytes(),
+                json.replace(cdr.recordDate(), "900").getBytes());
+
+        List<UtilsRecords.Cdr> sorted = CommonUtils.decodeRawCdrBatch(batch, CdrOrdering.BATCH).block();
+        List<UtilsRecords.Cdr> unordered = CommonUtils.decodeRawCdrBatch(batch, CdrOrdering.NONE).block();
+
+        assertNotNull(sorted);
+        assertNotNull(unordered);
+        assertEquals(List.of("900", "1000"), sorted.stream().map(UtilsRecords.Cdr::recordDate).toList());
+        assertEquals(List.of("1000", "900"), unordered.stream().map(UtilsRecords.Cdr::recordDate).toList());
     }
 }